@@ -1,19 +1,59 @@
 package ru.leventov.psgs;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public abstract class AbstractEdgeModel<S extends Node, T extends Node, ED> {
 
+    private static final ConcurrentMap<Class<?>, EdgeModelFactory<?>> factories = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the factory, which graphs use instead of the constructor with a solo Graph argument
+     * to create models of the class. Should be called before graphs with such models are opened.
+     */
+    public static <EM extends AbstractEdgeModel<?, ?, ?>> void registerFactory(
+            Class<EM> modelClass, EdgeModelFactory<? extends EM> factory) {
+        factories.put(modelClass, factory);
+    }
+
     static <EM extends AbstractEdgeModel<?, ?, ?>> EM newModel(Class<EM> modelClass, Graph graph) {
+        EdgeModelFactory<?> factory = factories.get(modelClass);
+        if (factory == null) {
+            factory = constructorFactory(modelClass);
+            EdgeModelFactory<?> registered = factories.putIfAbsent(modelClass, factory);
+            if (registered != null)
+                factory = registered;
+        }
+        return modelClass.cast(factory.newModel(graph));
+    }
+
+    private static EdgeModelFactory<?> constructorFactory(Class<?> modelClass) {
+        final MethodHandle constructor;
         try {
-            Constructor<EM> c = modelClass.getDeclaredConstructor(Graph.class);
-            return c.newInstance(graph);
-        } catch (NoSuchMethodException | InvocationTargetException |
-                InstantiationException | IllegalAccessException e) {
+            constructor = MethodHandles.lookup()
+                    .findConstructor(modelClass, MethodType.methodType(void.class, Graph.class))
+                    .asType(MethodType.methodType(AbstractEdgeModel.class, Graph.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new RuntimeException(
                     "Edge model class must have a public constructor with a solo Graph argument", e);
         }
+        return new EdgeModelFactory<AbstractEdgeModel<?, ?, ?>>() {
+            @Override
+            public AbstractEdgeModel<?, ?, ?> newModel(Graph graph) {
+                try {
+                    return (AbstractEdgeModel<?, ?, ?>) constructor.invokeExact(graph);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }
+        };
     }
 
     static <EM extends AbstractEdgeModel<?, ?, ?>> EM newDirectedModel(
@@ -0,0 +1,205 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntObjConsumer;
+import org.jetbrains.annotations.NotNull;
+import ru.leventov.psgs.io.ByteArrayListDataOutput;
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static ru.leventov.psgs.util.ByteBuffers.slice;
+import static ru.leventov.psgs.util.Varints.readUnsignedVarint;
+import static ru.leventov.psgs.util.Varints.unsignedVarintSize;
+import static ru.leventov.psgs.util.Varints.writeUnsignedVarint;
+
+/**
+ * Encoding of the edges of a node in the data file, selected per edge model by
+ * {@link EdgeModel#adjacencyEncoding()}. In all encodings the edges are preceded by the edge count.
+ * Encodings of the stored models are recorded in the graph metadata, so changing the preference of a model
+ * affects only graphs written afterwards.
+ */
+public enum AdjacencyEncoding {
+    /**
+     * The map's own {@link NodeIdEdgeMap#writeData(DataOutput)}: 4-byte target ids with edge data,
+     * in the iteration order of the map
+     */
+    PLAIN {
+        @Override
+        <ED> void write(EdgeModel<?, ?, ED> model, NodeIdEdgeMap<ED> map, ByteArrayListDataOutput out) {
+            map.writeData(out);
+        }
+
+        @Override
+        <ED> NodeIdEdgeMap<ED> read(EdgeModel<?, ?, ED> model, int size, DataInput in) {
+            DeserializableNodeIdEdgeMap<ED> map = model.newMapForDeserialization(size);
+            map.readData(in);
+            return map;
+        }
+    },
+
+    /**
+     * Target ids sorted in unsigned order and written as varint gaps from the previous target
+     * (the first one from 0), then edge data of the targets in the same order. Neighbors of a node
+     * are often assigned close ids, so most gaps take 1 or 2 bytes instead of 4.
+     *
+     * <p>The gaps are split in blocks of {@link #DELTA_BLOCK} targets. If there are more than one block,
+     * the gaps are preceded by the skip entries of all blocks but the first: the first target of the block
+     * and the offset of its gaps from the start of the gaps, two 4-byte ints. Views find targets
+     * by binary search over the skip entries and decode at most one block.
+     */
+    DELTA_VARINT {
+        @Override
+        <ED> void write(EdgeModel<?, ?, ED> model, NodeIdEdgeMap<ED> map, ByteArrayListDataOutput out) {
+            writeSorted(model, map, out, true);
+        }
+
+        @Override
+        <ED> NodeIdEdgeMap<ED> read(EdgeModel<?, ?, ED> model, int size, DataInput in) {
+            in.skipBytes(deltaSkipEntries(size) * DELTA_SKIP_ENTRY_SIZE);
+            int[] targets = new int[size];
+            int prev = 0;
+            for (int i = 0; i < size; i++) {
+                targets[i] = prev += readUnsignedVarint(in);
+            }
+            NodeIdEdgeMap<ED> map = model.newMapForDeserialization(size);
+            for (int target : targets) {
+                map.justAddEdgeTo(target, model.readData(in, null));
+            }
+            return map;
+        }
+
+        @Override
+        <ED> NodeIdEdgeMap<ED> view(EdgeModel<?, ?, ED> model, int size, ByteBuffer buffer) {
+            return new MappedNodeIdEdgeMap<>(model, this, size, slice(buffer));
+        }
+    },
+
+    /**
+     * Target ids sorted in unsigned order as 4-byte ints, then edge data of the targets in the same order.
+     * Larger than {@link #DELTA_VARINT}, but views read targets without decoding.
+     */
+    SORTED {
+        @Override
+        <ED> void write(EdgeModel<?, ?, ED> model, NodeIdEdgeMap<ED> map, ByteArrayListDataOutput out) {
+            writeSorted(model, map, out, false);
+        }
+
+        @Override
+        <ED> NodeIdEdgeMap<ED> read(EdgeModel<?, ?, ED> model, int size, DataInput in) {
+            int[] targets = new int[size];
+            for (int i = 0; i < size; i++) {
+                targets[i] = in.readInt();
+            }
+            NodeIdEdgeMap<ED> map = model.newMapForDeserialization(size);
+            for (int target : targets) {
+                map.justAddEdgeTo(target, model.readData(in, null));
+            }
+            return map;
+        }
+
+        @Override
+        <ED> NodeIdEdgeMap<ED> view(EdgeModel<?, ?, ED> model, int size, ByteBuffer buffer) {
+            return new MappedNodeIdEdgeMap<>(model, this, size, slice(buffer));
+        }
+    };
+
+    /** Targets per block of {@link #DELTA_VARINT} gaps */
+    static final int DELTA_BLOCK = 16;
+    static final int DELTA_SKIP_ENTRY_SIZE = 8;
+
+    /**
+     * @return the number of skip entries of {@code size} targets in the {@link #DELTA_VARINT} encoding
+     */
+    static int deltaSkipEntries(int size) {
+        return size > 0 ? (size - 1) / DELTA_BLOCK : 0;
+    }
+
+    /**
+     * Writes the edges, not including the edge count
+     */
+    abstract <ED> void write(EdgeModel<?, ?, ED> model, NodeIdEdgeMap<ED> map, ByteArrayListDataOutput out);
+
+    /**
+     * Reads {@code size} edges, written by {@link #write(EdgeModel, NodeIdEdgeMap, ByteArrayListDataOutput)}
+     */
+    @NotNull
+    abstract <ED> NodeIdEdgeMap<ED> read(EdgeModel<?, ?, ED> model, int size, DataInput in);
+
+    /**
+     * Returns the read-only view of {@code size} edges, encoded in the buffer from its position,
+     * which is valid as long as the buffer, or null if the encoding doesn't support views.
+     * The buffer position is not changed.
+     */
+    <ED> NodeIdEdgeMap<ED> view(EdgeModel<?, ?, ED> model, int size, ByteBuffer buffer) {
+        return null;
+    }
+
+    /**
+     * Common part of {@link #DELTA_VARINT} and {@link #SORTED}
+     */
+    private static <ED> void writeSorted(EdgeModel<?, ?, ED> model, NodeIdEdgeMap<ED> map,
+                                         ByteArrayListDataOutput out, boolean delta) {
+        if (map instanceof MappedNodeIdEdgeMap) {
+            MappedNodeIdEdgeMap<ED> view = (MappedNodeIdEdgeMap<ED>) map;
+            if (view.copyEncodedTo(delta ? DELTA_VARINT : SORTED, out))
+                return;
+        }
+        final int size = map.size();
+        final int dataSize = model.dataSize();
+        // unsigned targets in the high halves, to sort as signed longs, positions in the iteration order
+        // in the low halves, to write the data in the sorted order
+        final long[] keys = new long[size];
+        final ByteArrayListDataOutput dataOut = dataSize > 0 ?
+                new ByteArrayListDataOutput(size * dataSize, out.getBuffer().order()) : null;
+        final EdgeModel<?, ?, ED> dataWriter = model;
+        map.forEach(new IntObjConsumer<ED>() {
+            int i = 0;
+            @Override
+            public void accept(int target, ED data) {
+                keys[i] = ((long) (target ^ Integer.MIN_VALUE) << 32) | i;
+                i++;
+                if (dataOut != null)
+                    dataWriter.writeData(dataOut, data);
+            }
+        });
+        Arrays.sort(keys);
+        if (delta) {
+            writeDeltaTargets(keys, out);
+        } else {
+            for (long key : keys) {
+                out.writeInt((int) (key >> 32) ^ Integer.MIN_VALUE);
+            }
+        }
+        if (dataOut != null) {
+            byte[] data = dataOut.getBuffer().array();
+            for (long key : keys) {
+                out.write(data, (int) key * dataSize, dataSize);
+            }
+        }
+    }
+
+    /**
+     * Writes the skip entries and the gaps of the sorted keys of {@link #writeSorted}
+     */
+    private static void writeDeltaTargets(long[] keys, ByteArrayListDataOutput out) {
+        int prev = 0;
+        int gapsSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int target = (int) (keys[i] >> 32) ^ Integer.MIN_VALUE;
+            if (i > 0 && i % DELTA_BLOCK == 0) {
+                out.writeInt(target);
+                out.writeInt(gapsSize);
+            }
+            gapsSize += unsignedVarintSize(target - prev);
+            prev = target;
+        }
+        prev = 0;
+        for (long key : keys) {
+            int target = (int) (key >> 32) ^ Integer.MIN_VALUE;
+            writeUnsignedVarint(out, target - prev);
+            prev = target;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntFunction;
+import ru.leventov.psgs.io.ByteBufferDataIO;
+import ru.leventov.psgs.io.ExternalSorter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static ru.leventov.psgs.AbstractEdgeModel.newModel;
+import static ru.leventov.psgs.io.Files.openForReading;
+import static ru.leventov.psgs.util.Bits.unsignedByte;
+import static ru.leventov.psgs.util.Bits.unsignedInt;
+
+/**
+ * Builds a graph from edge lists without holding it in memory. Edges are sorted by the source node id
+ * in temporary files, then nodes are written one by one in the order of ids, each with all its edges.
+ *
+ * <p>Reverse edges of {@link UndirectedEdgeModel}s and {@link DirectedEdgeModel}s are generated
+ * by the same sort. {@link ArcModel}s have no reverse edges, but could be symmetrized, if the arcs
+ * of the input are one-side records of symmetric relations. Unique edge models are not supported.
+ */
+public final class BulkLoader implements Closeable {
+
+    public static BulkLoader create(Path tempDir, ByteOrder byteOrder) {
+        return new BulkLoader(tempDir, byteOrder);
+    }
+
+    private static final int DEFAULT_SORT_BUFFER_SIZE = 64 * (1 << 20);
+    private static final int INPUT_BUFFER_SIZE = 1 << 20;
+
+    /** Holds class ids and edge models only */
+    private final NewGraph graph = new NewGraph();
+    private final Path tempDir;
+    private final ByteOrder byteOrder;
+    private int sortBufferSize = DEFAULT_SORT_BUFFER_SIZE;
+
+    private final EdgeModel[] edgeModels = new EdgeModel[256];
+    private final ExternalSorter[] edgeSorters = new ExternalSorter[256];
+    /** Ids of the nodes, which could be not the sources of any edges */
+    private ExternalSorter nodeIds;
+
+    private BulkLoader(Path tempDir, ByteOrder byteOrder) {
+        this.tempDir = tempDir;
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * Sets the memory size of each sort buffer, one buffer is used per edge model and one for node ids
+     */
+    public BulkLoader sortBufferSize(int bytes) {
+        sortBufferSize = bytes;
+        return this;
+    }
+
+    /**
+     * Adds a node with no edges, or ensures that the node is written, if it is only the target of arcs
+     */
+    public void addNode(int nodeId) throws IOException {
+        if (nodeId == 0)
+            throw new IllegalArgumentException("Node id couldn't be 0.");
+        nodeIds().add(key(nodeId, 0), null, 0);
+    }
+
+    /**
+     * Adds edges from the binary file: records of [int source id][int target id][edge data], in the byte
+     * order of the loader, edge data is {@link EdgeModel#dataSize()} bytes, as the model writes it
+     */
+    public void addBinaryEdges(Class<? extends EdgeModel<?, ?, ?>> modelClass, Path file,
+                               boolean symmetrize) throws IOException {
+        EdgeModel model = model(modelClass);
+        int dataSize = model.dataSize();
+        int recordSize = 8 + dataSize;
+        byte[] data = new byte[dataSize];
+        ByteBuffer buffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE - INPUT_BUFFER_SIZE % recordSize)
+                .order(byteOrder);
+        try (FileChannel channel = openForReading(file)) {
+            if (channel.size() % recordSize != 0)
+                throw new IllegalArgumentException("Size of " + file + " is not a multiple of " + recordSize);
+            while (channel.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= recordSize) {
+                    int source = buffer.getInt();
+                    int target = buffer.getInt();
+                    buffer.get(data);
+                    addEdge(model, source, target, data, symmetrize);
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Adds edges from the text file: lines of source and target ids, separated with a comma or whitespace.
+     * Empty lines and lines starting with '#' are skipped. All edges get the given data.
+     */
+    public <ED> void addCsvEdges(Class<? extends EdgeModel<?, ?, ED>> modelClass, Path file, ED edgeData,
+                                 boolean symmetrize) throws IOException {
+        EdgeModel model = model(modelClass);
+        ByteBuffer dataBuffer = ByteBuffer.allocate(model.dataSize()).order(byteOrder);
+        // noinspection unchecked
+        model.writeData(new ByteBufferDataIO(dataBuffer), edgeData);
+        byte[] data = dataBuffer.array();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] ids = line.split("[,\\s]+");
+                if (ids.length != 2)
+                    throw new IllegalArgumentException("Malformed line " + lineNumber + " of " + file);
+                addEdge(model, Integer.parseInt(ids[0]), Integer.parseInt(ids[1]), data, symmetrize);
+            }
+        }
+    }
+
+    private EdgeModel model(Class<? extends EdgeModel<?, ?, ?>> modelClass) {
+        byte modelId = graph.getEdgeModelId(modelClass);
+        EdgeModel model = edgeModels[unsignedByte(modelId)];
+        if (model == null) {
+            model = newModel(modelClass, graph);
+            edgeModels[unsignedByte(modelId)] = model;
+            if (model instanceof AbstractDirectedEdgeModel) {
+                AbstractEdgeModel reverse = ((AbstractDirectedEdgeModel) model).getReverse();
+                if (!(reverse instanceof EdgeModel))
+                    throw new IllegalArgumentException("Unique reverse edges are not supported");
+                edgeModels[unsignedByte(reverse.getId())] = (EdgeModel) reverse;
+            }
+        }
+        return model;
+    }
+
+    private void addEdge(EdgeModel model, int source, int target, byte[] data, boolean symmetrize)
+            throws IOException {
+        if (source == 0 || target == 0)
+            throw new IllegalArgumentException("Node id couldn't be 0.");
+        edgeSorter(model).add(key(source, target), data, 0);
+        if (model instanceof UndirectedEdgeModel || (symmetrize && model instanceof ArcModel)) {
+            edgeSorter(model).add(key(target, source), data, 0);
+        } else if (model instanceof AbstractDirectedEdgeModel) {
+            EdgeModel reverse = (EdgeModel) ((AbstractDirectedEdgeModel) model).getReverse();
+            edgeSorter(reverse).add(key(target, source), data, 0);
+        } else {
+            // the target has no reverse edge, so might be not the source of any edge
+            nodeIds().add(key(target, 0), null, 0);
+        }
+    }
+
+    private ExternalSorter edgeSorter(EdgeModel model) {
+        int modelId = unsignedByte(model.getId());
+        ExternalSorter sorter = edgeSorters[modelId];
+        if (sorter == null) {
+            sorter = new ExternalSorter(tempDir, model.dataSize(), sortBufferSize);
+            edgeSorters[modelId] = sorter;
+        }
+        return sorter;
+    }
+
+    private ExternalSorter nodeIds() {
+        if (nodeIds == null)
+            nodeIds = new ExternalSorter(tempDir, 0, sortBufferSize);
+        return nodeIds;
+    }
+
+    private static long key(int source, int target) {
+        return ((long) source << 32) | unsignedInt(target);
+    }
+
+    private static int source(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Writes the graph to the directory
+     *
+     * @param nodeProducer creates nodes with their data by ids, like in
+     *                     {@link Graph#getOrCreateNode(int, IntFunction)}
+     */
+    public void write(Path dir, IntFunction<Node> nodeProducer) throws IOException {
+        int modelCount = 0;
+        for (ExternalSorter sorter : edgeSorters) {
+            if (sorter != null) modelCount++;
+        }
+        // the last cursor is node ids
+        EdgeModel[] models = new EdgeModel[modelCount + 1];
+        ExternalSorter.Cursor[] cursors = new ExternalSorter.Cursor[modelCount + 1];
+        boolean[] hasCurrent = new boolean[modelCount + 1];
+        for (int i = 0, c = 0; i < 256; i++) {
+            if (edgeSorters[i] != null) {
+                models[c] = edgeModels[i];
+                cursors[c] = edgeSorters[i].sort();
+                hasCurrent[c] = cursors[c].next();
+                c++;
+            }
+        }
+        cursors[modelCount] = nodeIds().sort();
+        hasCurrent[modelCount] = cursors[modelCount].next();
+
+        int[] targets = new int[16];
+        byte[] edgeData = new byte[16];
+        ByteBufferDataIO edgeDataIn = new ByteBufferDataIO(ByteBuffer.wrap(edgeData).order(byteOrder));
+        long nodeCount = 0, minNodeIdBound = 1, maxNodeIdBound = 0;
+        try (NewGraph.NewGraphSerializationState serialization = graph.new NewGraphSerializationState(dir, byteOrder, false)) {
+            for (;;) {
+                boolean found = false;
+                long minKey = 0;
+                for (int c = 0; c < cursors.length; c++) {
+                    if (hasCurrent[c] && (!found || cursors[c].key() < minKey)) {
+                        minKey = cursors[c].key();
+                        found = true;
+                    }
+                }
+                if (!found)
+                    break;
+                int nodeId = source(minKey);
+
+                Node node = nodeProducer.apply(nodeId);
+                if (node.getGraph() != null || node.getId() != 0)
+                    throw new IllegalArgumentException("Node couldn't be contained in 2 graphs simultaneously");
+                node.addToGraph(nodeId, graph, graph.getNodeClassId(node.getClass()));
+
+                for (int c = 0; c < modelCount; c++) {
+                    ExternalSorter.Cursor cursor = cursors[c];
+                    EdgeModel model = models[c];
+                    int dataSize = model.dataSize();
+                    int count = 0;
+                    long prevKey = 0;
+                    while (hasCurrent[c] && source(cursor.key()) == nodeId) {
+                        // skip duplicate edges
+                        if (count == 0 || cursor.key() != prevKey) {
+                            if (count == targets.length) {
+                                targets = Arrays.copyOf(targets, count * 2);
+                            }
+                            if ((count + 1) * dataSize > edgeData.length) {
+                                edgeData = Arrays.copyOf(edgeData, Math.max(edgeData.length * 2,
+                                        (count + 1) * dataSize));
+                                edgeDataIn = new ByteBufferDataIO(ByteBuffer.wrap(edgeData).order(byteOrder));
+                            }
+                            prevKey = cursor.key();
+                            targets[count] = (int) prevKey;
+                            System.arraycopy(cursor.data(), 0, edgeData, count * dataSize, dataSize);
+                            count++;
+                        }
+                        hasCurrent[c] = cursor.next();
+                    }
+                    if (count > 0) {
+                        NodeIdEdgeMap map = model.newMap(count);
+                        ByteBuffer edgeDataBuffer = edgeDataIn.getBuffer();
+                        for (int i = 0; i < count; i++) {
+                            edgeDataBuffer.position(i * dataSize);
+                            // noinspection unchecked
+                            map.justAddEdgeTo(targets[i], model.readData(edgeDataIn, null));
+                        }
+                        // noinspection unchecked
+                        node.addEdges(model.getId(), new Edges(model, node, map));
+                    }
+                }
+                // node ids, already written with the edges
+                ExternalSorter.Cursor ids = cursors[modelCount];
+                while (hasCurrent[modelCount] && source(ids.key()) == nodeId) {
+                    hasCurrent[modelCount] = ids.next();
+                }
+
+                serialization.writeNode(node);
+                if (maxNodeIdBound != 0) {
+                    maxNodeIdBound = Math.max(maxNodeIdBound, unsignedInt(nodeId));
+                    minNodeIdBound = Math.min(minNodeIdBound, unsignedInt(nodeId));
+                } else {
+                    maxNodeIdBound = unsignedInt(nodeId);
+                    minNodeIdBound = unsignedInt(nodeId);
+                }
+                nodeCount++;
+            }
+            graph.nodeCount = nodeCount;
+            graph.maxNodeIdBound = maxNodeIdBound;
+            graph.minNodeIdBound = minNodeIdBound;
+        } finally {
+            for (ExternalSorter.Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Removes temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        for (ExternalSorter sorter : edgeSorters) {
+            if (sorter != null) sorter.close();
+        }
+        if (nodeIds != null)
+            nodeIds.close();
+    }
+}
@@ -59,6 +59,18 @@ class ClassIds<BASE> {
         return idClasses[id];
     }
 
+    /**
+     * Unsigned id, or -1 if the class isn't indexed
+     */
+    public int getId(String className) {
+        for (int i = 1; i < 256; i++) {
+            Class cl = idClasses[i];
+            if (cl != null && cl.getName().equals(className))
+                return i;
+        }
+        return -1;
+    }
+
 	public byte getId(Class<? extends BASE> cl) {
         return classIds.computeIfAbsent(cl, new ToByteFunction<Class<?>>() {
             @Override
@@ -70,6 +82,15 @@ class ClassIds<BASE> {
         });
 	}
 
+    /**
+     * Unlike {@link #getId(Class)}, doesn't index the class
+     *
+     * @return id of the class, or 0 if the class isn't indexed
+     */
+    public byte getIdIfIndexed(Class<? extends BASE> cl) {
+        return classIds.getOrDefault(cl, (byte) 0);
+    }
+
     public Map<String, Byte> asMap() {
         final Map<String, Byte> map = new ObjByteDHashMap<>();
         classIds.forEach(new ObjByteConsumer<Class<?>>() {
@@ -81,10 +102,15 @@ class ClassIds<BASE> {
         return map;
     }
 
+    /**
+     * Classes already indexed with the same ids are skipped
+     */
     public void loadMap(Map<String, Byte> map) throws ClassNotFoundException {
         for (Map.Entry<String, Byte> entry : map.entrySet()) {
             byte id = entry.getValue();
-            addClass((Class<? extends BASE>) Class.forName(entry.getKey()), id);
+            Class<? extends BASE> cl = (Class<? extends BASE>) Class.forName(entry.getKey());
+            if (idClasses[unsignedByte(id)] != cl)
+                addClass(cl, id);
         }
     }
 }
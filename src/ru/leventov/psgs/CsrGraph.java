@@ -0,0 +1,755 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.Consumer;
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntFunction;
+import gnu.trove.function.IntObjConsumer;
+import gnu.trove.function.IntObjPredicate;
+import gnu.trove.function.IntPredicate;
+import gnu.trove.map.IntKeyMapIterator;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.IntDHashSet;
+import ru.leventov.psgs.io.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static ru.leventov.psgs.io.Files.openForWriting;
+import static ru.leventov.psgs.util.Bits.unsignedByte;
+
+/**
+ * Immutable graph in the compressed sparse row format, for analytics. Nodes are numbered by indexes
+ * in the ascending (signed) order of ids, edges of each model are stored as a contiguous array of target
+ * indexes, ascending within each source, with the array of offsets by source indexes. Scans
+ * over {@link Adjacency} read the mapped arrays sequentially, without creating node objects.
+ *
+ * <p>Files: {@code ids} - int node ids by indexes; {@code node-classes} - node class ids by indexes,
+ * 0 for targets of edges, which are not nodes of the graph; {@code node-offsets} - long offsets
+ * of the node data in {@code node-data} by indexes; for each edge model with id M: {@code offsets-M} -
+ * long offsets of the edges by source indexes, followed by the edge count; {@code targets-M} - int target
+ * indexes; {@code edge-data-M} - edge data in the same order, if the model has data.
+ *
+ * <p>Written by {@link ExistingGraph#exportCsr(Path)}.
+ */
+public final class CsrGraph extends Graph implements Closeable {
+
+    static String csrFormat() {
+        return "csr";
+    }
+
+    private static final int OUTPUT_BUFFER_CAPACITY = 1 << 20;
+
+    /**
+     * Edges of one model
+     */
+    public final class Adjacency {
+        private final AbstractEdgeModel model;
+        private final boolean unique;
+        private final int dataSize;
+        private final MemoryMappedFile offsets;
+        private final MemoryMappedFile targets;
+        private final MemoryMappedFile data;
+
+        private Adjacency(Path dir, AbstractEdgeModel model, ByteOrder byteOrder) throws IOException {
+            this.model = model;
+            unique = model.isUnique();
+            dataSize = ((DataWriter) model).dataSize();
+            int modelId = unsignedByte(model.getId());
+            offsets = map(offsetsFile(dir, modelId), byteOrder);
+            targets = map(targetsFile(dir, modelId), byteOrder);
+            data = dataSize > 0 ? map(edgeDataFile(dir, modelId), byteOrder) : null;
+        }
+
+        public AbstractEdgeModel getModel() {
+            return model;
+        }
+
+        public long edgeCount() {
+            return offsets.getLong((long) indexCount * 8);
+        }
+
+        /**
+         * @return position of the first edge from the node in the targets array
+         */
+        public long firstEdge(int nodeIndex) {
+            return offsets.getLong((long) nodeIndex * 8);
+        }
+
+        /**
+         * @return position after the last edge from the node in the targets array
+         */
+        public long endEdge(int nodeIndex) {
+            return offsets.getLong((long) (nodeIndex + 1) * 8);
+        }
+
+        public int degree(int nodeIndex) {
+            return (int) (endEdge(nodeIndex) - firstEdge(nodeIndex));
+        }
+
+        public int targetIndex(long edge) {
+            return targets.getInt(edge * 4);
+        }
+
+        public void forEachTargetIndex(int nodeIndex, IntConsumer action) {
+            for (long edge = firstEdge(nodeIndex), end = endEdge(nodeIndex); edge < end; edge++) {
+                action.accept(targets.getInt(edge * 4));
+            }
+        }
+
+        private Object readData(long edge, Object targetData) {
+            ByteBuffer buffer = data != null ? data.locateChunk(edge * dataSize) : ByteBuffer.allocate(0);
+            // noinspection unchecked
+            return ((DataWriter) model).readData(new ByteBufferDataIO(buffer), targetData);
+        }
+
+        private void close() throws IOException {
+            offsets.close();
+            targets.close();
+            if (data != null)
+                data.close();
+        }
+    }
+
+    private int indexCount;
+    private MemoryMappedFile ids;
+    private MemoryMappedFile nodeClasses;
+    private MemoryMappedFile nodeOffsets;
+    private MemoryMappedFile nodeData;
+    private final Adjacency[] adjacencies = new Adjacency[256];
+    /** Ids of the models, which have adjacencies */
+    private byte[] modelIds = new byte[0];
+
+    private CsrGraph() {}
+
+    public static CsrGraph open(Path dir) throws IOException, DeserializationException {
+        Metadata metadata = Json.readJson(metadataFile(dir), Metadata.class);
+        if (metadata.protocolVersion > CURRENT_PROTOCOL_VERSION) {
+            throw new DeserializationException(
+                    "Highest supported version of protocol is " + CURRENT_PROTOCOL_VERSION + ", " +
+                    metadata.protocolVersion + " found.");
+        }
+        if (!metadata.format.equals(csrFormat())) {
+            throw new DeserializationException(
+                    "\"" + csrFormat() + "\" serialization format expected, " + metadata.format + " found.");
+        }
+        CsrGraph graph = new CsrGraph();
+        graph.init(metadata);
+        graph.indexCount = (int) (Files.size(idsFile(dir)) / 4);
+        ByteOrder byteOrder = metadata.byteOrder;
+        graph.ids = map(idsFile(dir), byteOrder);
+        graph.nodeClasses = map(nodeClassesFile(dir), byteOrder);
+        graph.nodeOffsets = map(nodeOffsetsFile(dir), byteOrder);
+        graph.nodeData = map(dataFile(dir), byteOrder);
+        try {
+            for (Map.Entry<String, Byte> e : metadata.edgeClasses.entrySet()) {
+                int modelId = unsignedByte(e.getValue());
+                if (!Files.exists(offsetsFile(dir, modelId)))
+                    continue;
+                Class<? extends AbstractEdgeModel<?, ?, ?>> modelClass =
+                        (Class<? extends AbstractEdgeModel<?, ?, ?>>) Class.forName(e.getKey());
+                AbstractEdgeModel model = AbstractEdgeModel.newModel(modelClass, graph);
+                graph.adjacencies[modelId] = graph.new Adjacency(dir, model, byteOrder);
+                graph.modelIds = Arrays.copyOf(graph.modelIds, graph.modelIds.length + 1);
+                graph.modelIds[graph.modelIds.length - 1] = (byte) modelId;
+            }
+        } catch (ClassNotFoundException e) {
+            throw new DeserializationException(e);
+        }
+        return graph;
+    }
+
+    private static MemoryMappedFile map(Path file, ByteOrder byteOrder) throws IOException {
+        return new MemoryMappedFile(file, byteOrder, MemoryMappedFile.MAX_CHUNK_SIZE_LIMIT, true);
+    }
+
+    /**
+     * Number of node indexes, including targets of edges, which are not nodes of the graph
+     */
+    public int indexCount() {
+        return indexCount;
+    }
+
+    public int nodeId(int nodeIndex) {
+        return ids.getInt((long) nodeIndex * 4);
+    }
+
+    /**
+     * @return index of the node or the edge target with the id, or -1 if there is no such
+     */
+    public int nodeIndex(int nodeId) {
+        int low = 0, high = indexCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = nodeId(mid);
+            if (midId < nodeId) {
+                low = mid + 1;
+            } else if (midId > nodeId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return edges of the model, or null if there are no edges of the model in the graph
+     */
+    public Adjacency adjacency(Class<? extends AbstractEdgeModel> modelClass) {
+        // the graph is shared, so the class is not registered
+        byte modelId = findEdgeModelId(modelClass);
+        return modelId != 0 ? adjacencies[unsignedByte(modelId)] : null;
+    }
+
+    @Override
+    public long nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public Node getNode(int id) {
+        int index = nodeIndex(id);
+        return index >= 0 ? loadNode(index) : null;
+    }
+
+    /**
+     * @return new node object, or null if the index is a target, which is not a node
+     */
+    public Node getNodeByIndex(int nodeIndex) {
+        return loadNode(nodeIndex);
+    }
+
+    private Node loadNode(int index) {
+        byte nodeClassId = nodeClasses.getByte(index);
+        if (nodeClassId == 0)
+            return null;
+        Node node = newNode(nodeClassId);
+        node.addToGraph(nodeId(index), this, nodeClassId);
+        node.readData(new ByteBufferDataIO(nodeData.locateChunk(nodeOffsets.getLong((long) index * 8))));
+        for (byte modelId : modelIds) {
+            Adjacency adjacency = adjacencies[unsignedByte(modelId)];
+            long first = adjacency.firstEdge(index);
+            int degree = (int) (adjacency.endEdge(index) - first);
+            if (degree == 0)
+                continue;
+            if (adjacency.unique) {
+                UniqueEdge uniqueEdge = new UniqueEdge((UniqueEdgeModel) adjacency.model, node);
+                uniqueEdge.setTargetAndData(nodeId(adjacency.targetIndex(first)), adjacency.readData(first, null));
+                node.addUniqueEdge(modelId, uniqueEdge);
+            } else {
+                node.addEdges(modelId, new Edges((EdgeModel) adjacency.model, node,
+                        new CsrEdgeMap(adjacency, first, degree)));
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public boolean isNodeIdUsed(int nodeId) {
+        int index = nodeIndex(nodeId);
+        return index >= 0 && nodeClasses.getByte(index) != 0;
+    }
+
+    @Override
+    public void forEachNode(Consumer<? super Node> action) {
+        for (int index = 0; index < indexCount; index++) {
+            Node node = loadNode(index);
+            if (node != null)
+                action.accept(node);
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("CSR graphs are read-only");
+    }
+
+    @Override
+    public void addNode(Node node) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node getOrCreateNode(int id, IntFunction<Node> producer) {
+        Node node = getNode(id);
+        if (node == null)
+            throw readOnly();
+        return node;
+    }
+
+    @Override
+    public void removeNode(Node node) {
+        throw readOnly();
+    }
+
+    @Override
+    public Node removeNode(int nodeId) {
+        throw readOnly();
+    }
+
+    @Override
+    Node getNodeForChange(int id) {
+        throw readOnly();
+    }
+
+    @Override
+    void nodeChanged(Node node) {
+        throw readOnly();
+    }
+
+    @Override
+    public void close() throws IOException {
+        ids.close();
+        nodeClasses.close();
+        nodeOffsets.close();
+        nodeData.close();
+        for (byte modelId : modelIds) {
+            adjacencies[unsignedByte(modelId)].close();
+        }
+    }
+
+    /**
+     * Edges of a node, right over the mapped arrays
+     */
+    private final class CsrEdgeMap<ED> implements NodeIdEdgeMap<ED> {
+        private final Adjacency adjacency;
+        private final long first;
+        private final int size;
+
+        CsrEdgeMap(Adjacency adjacency, long first, int size) {
+            this.adjacency = adjacency;
+            this.first = first;
+            this.size = size;
+        }
+
+        private ED data(long edge, ED targetData) {
+            // noinspection unchecked
+            return (ED) adjacency.readData(edge, targetData);
+        }
+
+        /**
+         * @return position of the edge to the node, or -1
+         */
+        private long edgeTo(int nodeId) {
+            int targetIndex = nodeIndex(nodeId);
+            if (targetIndex < 0)
+                return -1;
+            long low = first, high = first + size - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int midIndex = adjacency.targetIndex(mid);
+                if (midIndex < targetIndex) {
+                    low = mid + 1;
+                } else if (midIndex > targetIndex) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public ED addEdgeTo(int nodeId, ED newData) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean justAddEdgeTo(int nodeId, ED edgeData) {
+            throw readOnly();
+        }
+
+        @Override
+        public ED removeEdgeTo(int nodeId) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean justRemoveEdgeTo(int nodeId) {
+            throw readOnly();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        public boolean containsNodeId(int nodeId) {
+            return edgeTo(nodeId) >= 0;
+        }
+
+        @Override
+        public ED getEdgeData(int nodeId) {
+            long edge = edgeTo(nodeId);
+            return edge >= 0 ? data(edge, null) : null;
+        }
+
+        @Override
+        public IntKeyMapIterator<ED> iterator() {
+            return new IntKeyMapIterator<ED>() {
+                long edge = first - 1;
+                ED data;
+                boolean dataActual = false;
+
+                @Override
+                public int intKey() {
+                    return nodeId(adjacency.targetIndex(edge));
+                }
+
+                @Override
+                public Integer key() {
+                    return intKey();
+                }
+
+                @Override
+                public ED value() {
+                    if (!dataActual) {
+                        data = data(edge, data);
+                        dataActual = true;
+                    }
+                    return data;
+                }
+
+                @Override
+                public void setValue(ED value) {
+                    throw readOnly();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return edge + 1 < first + size;
+                }
+
+                @Override
+                public boolean tryAdvance() {
+                    dataActual = false;
+                    return ++edge < first + size;
+                }
+
+                @Override
+                public void remove() {
+                    throw readOnly();
+                }
+            };
+        }
+
+        @Override
+        public void forEach(IntObjConsumer<? super ED> action) {
+            ED data = null;
+            for (long edge = first, end = first + size; edge < end; edge++) {
+                action.accept(nodeId(adjacency.targetIndex(edge)), data = data(edge, data));
+            }
+        }
+
+        @Override
+        public boolean testWhile(IntObjPredicate<? super ED> predicate) {
+            ED data = null;
+            for (long edge = first, end = first + size; edge < end; edge++) {
+                if (!predicate.test(nodeId(adjacency.targetIndex(edge)), data = data(edge, data)))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachNodeId(IntConsumer action) {
+            for (long edge = first, end = first + size; edge < end; edge++) {
+                action.accept(nodeId(adjacency.targetIndex(edge)));
+            }
+        }
+
+        @Override
+        public boolean testNodeIdsWhile(IntPredicate predicate) {
+            for (long edge = first, end = first + size; edge < end; edge++) {
+                if (!predicate.test(nodeId(adjacency.targetIndex(edge))))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void writeData(DataOutput out) {
+            throw readOnly();
+        }
+    }
+
+    static Path idsFile(Path dir) {
+        return dir.resolve("ids");
+    }
+
+    static Path nodeClassesFile(Path dir) {
+        return dir.resolve("node-classes");
+    }
+
+    static Path nodeOffsetsFile(Path dir) {
+        return dir.resolve("node-offsets");
+    }
+
+    static Path offsetsFile(Path dir, int modelId) {
+        return dir.resolve("offsets-" + modelId);
+    }
+
+    static Path targetsFile(Path dir, int modelId) {
+        return dir.resolve("targets-" + modelId);
+    }
+
+    static Path edgeDataFile(Path dir, int modelId) {
+        return dir.resolve("edge-data-" + modelId);
+    }
+
+    /**
+     * Buffered sequential output to a file in the native byte order
+     */
+    private static final class FileOutput implements Closeable {
+        final FileChannel channel;
+        final ByteArrayListDataOutput out =
+                new ByteArrayListDataOutput(OUTPUT_BUFFER_CAPACITY, ByteOrder.nativeOrder());
+
+        FileOutput(Path file) throws IOException {
+            channel = openForWriting(file);
+        }
+
+        long position() throws IOException {
+            return channel.position() + out.position();
+        }
+
+        void checkForFlush() throws IOException {
+            if (out.position() >= OUTPUT_BUFFER_CAPACITY / 2)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer buffer = out.getBuffer();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the edges of one model, in the order of source indexes
+     */
+    private static final class AdjacencyWriter implements Closeable {
+        final FileOutput offsets;
+        final FileOutput targets;
+        final FileOutput data;
+        final int dataSize;
+        long edgeCount = 0;
+        int nextOffsetIndex = 0;
+        long[] keys = new long[16];
+        ByteArrayListDataOutput dataBuffer;
+
+        AdjacencyWriter(Path dir, int modelId, int dataSize) throws IOException {
+            offsets = new FileOutput(offsetsFile(dir, modelId));
+            targets = new FileOutput(targetsFile(dir, modelId));
+            this.dataSize = dataSize;
+            if (dataSize > 0) {
+                data = new FileOutput(edgeDataFile(dir, modelId));
+                dataBuffer = new ByteArrayListDataOutput(16 * dataSize, ByteOrder.nativeOrder());
+            } else {
+                data = null;
+            }
+        }
+
+        /**
+         * Writes offsets of the sources up to the index, including
+         */
+        void catchUp(int nodeIndex) throws IOException {
+            while (nextOffsetIndex <= nodeIndex) {
+                offsets.out.writeLong(edgeCount);
+                nextOffsetIndex++;
+            }
+            offsets.checkForFlush();
+        }
+
+        /**
+         * @param keys target index in the high half, position in {@link #dataBuffer} in the low half
+         */
+        void writeEdges(int count) throws IOException {
+            Arrays.sort(keys, 0, count);
+            byte[] edgeData = dataBuffer != null ? dataBuffer.getBuffer().array() : null;
+            for (int i = 0; i < count; i++) {
+                long key = keys[i];
+                targets.out.writeInt((int) (key >>> 32));
+                if (edgeData != null)
+                    data.out.write(edgeData, (int) key * dataSize, dataSize);
+            }
+            edgeCount += count;
+            targets.checkForFlush();
+            if (data != null) {
+                data.checkForFlush();
+                dataBuffer.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            offsets.close();
+            targets.close();
+            if (data != null)
+                data.close();
+        }
+    }
+
+    /**
+     * Writes the graph in the CSR format to the directory
+     */
+    static void export(final Graph graph, Path dir) throws IOException {
+        Files.createDirectories(dir);
+
+        final int[][] nodeIds = {new int[1024]};
+        final int[] nodeCount = {0};
+        // ids are read without loading the nodes, so each node is loaded twice: for the dangling targets
+        // and for the write pass
+        graph.forEachNodeId(new IntConsumer() {
+            @Override
+            public void accept(int nodeId) {
+                if (nodeCount[0] == nodeIds[0].length)
+                    nodeIds[0] = Arrays.copyOf(nodeIds[0], nodeCount[0] * 2);
+                nodeIds[0][nodeCount[0]++] = nodeId;
+            }
+        });
+        final int[] sortedNodeIds = Arrays.copyOf(nodeIds[0], nodeCount[0]);
+        nodeIds[0] = null;
+        Arrays.sort(sortedNodeIds);
+
+        // targets, which are not nodes of the graph, get indexes too
+        final TIntSet danglingTargets = new IntDHashSet();
+        final IntConsumer danglingTargetCollector = new IntConsumer() {
+            @Override
+            public void accept(int targetId) {
+                if (Arrays.binarySearch(sortedNodeIds, targetId) < 0)
+                    danglingTargets.add(targetId);
+            }
+        };
+        graph.forEachNode(new Consumer<Node>() {
+            @Override
+            public void accept(Node node) {
+                NodeLayout.forEachNeighborId(node, danglingTargetCollector);
+            }
+        });
+        final int[] indexIds;
+        if (danglingTargets.isEmpty()) {
+            indexIds = sortedNodeIds;
+        } else {
+            indexIds = Arrays.copyOf(sortedNodeIds, sortedNodeIds.length + danglingTargets.size());
+            System.arraycopy(danglingTargets.toIntArray(), 0, indexIds, sortedNodeIds.length,
+                    danglingTargets.size());
+            Arrays.sort(indexIds);
+        }
+
+        final AdjacencyWriter[] writers = new AdjacencyWriter[256];
+        try (FileOutput ids = new FileOutput(idsFile(dir));
+             FileOutput nodeClasses = new FileOutput(nodeClassesFile(dir));
+             FileOutput nodeOffsets = new FileOutput(nodeOffsetsFile(dir));
+             final FileOutput nodeData = new FileOutput(dataFile(dir))) {
+            final Path adjacencyDir = dir;
+            final int[] currentIndex = new int[1];
+            Node.EdgesConsumer edgesWriter = new Node.EdgesConsumer() {
+                @Override
+                public void accept(byte modelId, Edges<?, ?, ?> edges) throws IOException {
+                    int count = edges.count();
+                    if (count == 0)
+                        return;
+                    final EdgeModel model = edges.getModel();
+                    final AdjacencyWriter writer = writer(writers, adjacencyDir, modelId, model.dataSize());
+                    writer.catchUp(currentIndex[0]);
+                    if (writer.keys.length < count)
+                        writer.keys = new long[Math.max(count, writer.keys.length * 2)];
+                    edges.getMap().forEach(new IntObjConsumer() {
+                        int i = 0;
+                        @Override
+                        public void accept(int targetId, Object data) {
+                            long targetIndex = Arrays.binarySearch(indexIds, targetId);
+                            writer.keys[i] = (targetIndex << 32) | i;
+                            i++;
+                            if (writer.dataBuffer != null)
+                                // noinspection unchecked
+                                model.writeData(writer.dataBuffer, data);
+                        }
+                    });
+                    writer.writeEdges(count);
+                }
+            };
+            Node.UniqueEdgeConsumer uniqueEdgeWriter = new Node.UniqueEdgeConsumer() {
+                @Override
+                public void accept(byte modelId, UniqueEdge<?, ?, ?> edge) throws IOException {
+                    AdjacencyWriter writer = writer(writers, adjacencyDir, modelId, edge.getModel().dataSize());
+                    writer.catchUp(currentIndex[0]);
+                    writer.keys[0] = (long) Arrays.binarySearch(indexIds, edge.getTargetId()) << 32;
+                    if (writer.dataBuffer != null)
+                        edge.writeData(writer.dataBuffer);
+                    writer.writeEdges(1);
+                }
+            };
+            for (int index = 0; index < indexIds.length; index++) {
+                int nodeId = indexIds[index];
+                ids.out.writeInt(nodeId);
+                nodeOffsets.out.writeLong(nodeData.position());
+                Node node = sortedNodeIds == indexIds || Arrays.binarySearch(sortedNodeIds, nodeId) >= 0 ?
+                        graph.getNode(nodeId) : null;
+                if (node != null) {
+                    nodeClasses.out.writeByte(node.getClassId());
+                    node.writeData(nodeData.out);
+                    currentIndex[0] = index;
+                    node.forEachAdjacent(edgesWriter, uniqueEdgeWriter);
+                } else {
+                    nodeClasses.out.writeByte(0);
+                }
+                ids.checkForFlush();
+                nodeClasses.checkForFlush();
+                nodeOffsets.checkForFlush();
+                nodeData.checkForFlush();
+            }
+            nodeOffsets.out.writeLong(nodeData.position());
+            for (AdjacencyWriter writer : writers) {
+                if (writer != null)
+                    writer.catchUp(indexIds.length);
+            }
+        } finally {
+            for (AdjacencyWriter writer : writers) {
+                if (writer != null)
+                    writer.close();
+            }
+        }
+
+        Metadata metadata = new Metadata();
+        metadata.format = csrFormat();
+        metadata.byteOrder = ByteOrder.nativeOrder();
+        metadata.nodeCount = sortedNodeIds.length;
+        metadata.maxNodeIdBound = graph.maxNodeIdBound;
+        metadata.minNodeIdBound = graph.minNodeIdBound;
+        metadata.nodeClasses = graph.nodeClassMap();
+        metadata.edgeClasses = graph.edgeModelClassMap();
+        Json.writeJson(metadataFile(dir), metadata);
+    }
+
+    private static AdjacencyWriter writer(AdjacencyWriter[] writers, Path dir, byte modelId, int dataSize)
+            throws IOException {
+        int id = unsignedByte(modelId);
+        AdjacencyWriter writer = writers[id];
+        if (writer == null)
+            writers[id] = writer = new AdjacencyWriter(dir, id, dataSize);
+        return writer;
+    }
+}
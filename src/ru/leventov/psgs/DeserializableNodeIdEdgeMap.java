@@ -0,0 +1,10 @@
+package ru.leventov.psgs;
+
+import ru.leventov.psgs.io.DataWritable;
+
+/**
+ * Map of the edges, which is also read back from the output of {@link #writeData}. Views over
+ * the stored edges are not deserializable, so they don't implement this interface.
+ */
+public interface DeserializableNodeIdEdgeMap<ED> extends NodeIdEdgeMap<ED>, DataWritable {
+}
@@ -0,0 +1,13 @@
+package ru.leventov.psgs;
+
+import ru.leventov.psgs.io.DataWriter;
+
+/**
+ * Marks {@link EdgeModel}s with double edge data, which the model must write by a single
+ * {@code writeDouble()} call and read by {@code readDouble()}. Edges of such models are kept
+ * in {@link NodeIdDoubleEdgeMap}s by default, and {@link Edges#getDouble(int, double)},
+ * {@link Edges#forEachDouble(gnu.trove.function.IntDoubleConsumer)} and
+ * {@link Edges#testDoublesWhile(gnu.trove.function.IntDoublePredicate)} read them without boxing.
+ */
+public interface DoubleEdgeModel extends DataWriter<Double> {
+}
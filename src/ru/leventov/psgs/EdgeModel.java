@@ -20,13 +20,46 @@ public abstract class EdgeModel<S extends Node, T extends Node, ED>
         return source.getEdges(this);
     }
 
+    /**
+     * Encoding of the edges of this model in graphs written from now on. Graphs already stored keep
+     * the encoding they were written with.
+     */
+    @NotNull
+    protected AdjacencyEncoding adjacencyEncoding() {
+        return AdjacencyEncoding.PLAIN;
+    }
+
+    /**
+     * By default, {@link NodeIdIntEdgeMap}, {@link NodeIdLongEdgeMap}, {@link NodeIdFloatEdgeMap}
+     * or {@link NodeIdDoubleEdgeMap}, if the model is marked as {@link IntEdgeModel}, {@link LongEdgeModel},
+     * {@link FloatEdgeModel} or {@link DoubleEdgeModel}, otherwise {@link NodeIdEdgeArrayMap},
+     * which is promoted to {@link NodeIdEdgeHashMap} for high-degree nodes
+     */
     @NotNull
     protected NodeIdEdgeMap<ED> newMap(int expectedSize) {
-        return new NodeIdEdgeHashMap<>(expectedSize, this);
+        return defaultMap(expectedSize);
     }
 
     @NotNull
-    protected NodeIdEdgeMap<ED> newMapForDeserialization(int size) {
-        return new NodeIdEdgeHashMap<>(size, this);
+    protected DeserializableNodeIdEdgeMap<ED> newMapForDeserialization(int size) {
+        return defaultMap(size);
+    }
+
+    private DeserializableNodeIdEdgeMap<ED> defaultMap(int expectedSize) {
+        DeserializableNodeIdEdgeMap<?> map;
+        if (this instanceof IntEdgeModel) {
+            map = new NodeIdIntEdgeMap(expectedSize);
+        } else if (this instanceof LongEdgeModel) {
+            map = new NodeIdLongEdgeMap(expectedSize);
+        } else if (this instanceof FloatEdgeModel) {
+            map = new NodeIdFloatEdgeMap(expectedSize);
+        } else if (this instanceof DoubleEdgeModel) {
+            map = new NodeIdDoubleEdgeMap(expectedSize);
+        } else {
+            return new NodeIdEdgeArrayMap<>(expectedSize, this);
+        }
+        // ED is the boxed type, the marker interfaces extend DataWriter of it
+        // noinspection unchecked
+        return (DeserializableNodeIdEdgeMap<ED>) map;
     }
 }
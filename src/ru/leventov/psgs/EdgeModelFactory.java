@@ -0,0 +1,9 @@
+package ru.leventov.psgs;
+
+/**
+ * Creates edge models of some class, when graphs are opened.
+ * See {@link AbstractEdgeModel#registerFactory(Class, EdgeModelFactory)}
+ */
+public interface EdgeModelFactory<EM extends AbstractEdgeModel<?, ?, ?>> {
+    EM newModel(Graph graph);
+}
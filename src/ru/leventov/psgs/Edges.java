@@ -7,6 +7,8 @@ import gnu.trove.map.IntKeyMapIterator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -200,6 +202,364 @@ public class Edges<S extends Node, T extends Node, ED> implements TIterable<Edge
         return map == null || map.testNodeIdsWhile(predicate);
     }
 
+    /**
+     * @return the map with the edges, or the materialized map of a view over the stored edges
+     */
+    @Nullable
+    private NodeIdEdgeMap<ED> currentMap() {
+        NodeIdEdgeMap<ED> map = this.map;
+        if (map instanceof MappedNodeIdEdgeMap) {
+            NodeIdEdgeMap<ED> materialized = ((MappedNodeIdEdgeMap<ED>) map).materializedOrNull();
+            if (materialized != null)
+                return materialized;
+        }
+        return map;
+    }
+
+    private void checkModel(Class<?> markerInterface) {
+        if (!markerInterface.isInstance(edgeModel))
+            throw new UnsupportedOperationException(
+                    edgeModel.getClass().getName() + " is not " + markerInterface.getSimpleName());
+    }
+
+    /**
+     * Reads the Int data of the edge without boxing. Only for {@link IntEdgeModel}s
+     *
+     * @return the edge data, or {@code absentValue} if there is no edge to the target
+     */
+    public int getInt(int targetId, int absentValue) {
+        checkModel(IntEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdIntEdgeMap)
+            return ((NodeIdIntEdgeMap) map).getInt(targetId, absentValue);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            MappedNodeIdEdgeMap<ED> view = (MappedNodeIdEdgeMap<ED>) map;
+            int dataOffset = view.dataOffset(targetId);
+            return dataOffset >= 0 ? view.buffer().getInt(dataOffset) : absentValue;
+        }
+        // the model overrides newMap()
+        ED data = map != null ? map.getEdgeData(targetId) : null;
+        return data != null ? ((Number) data).intValue() : absentValue;
+    }
+
+    /**
+     * Passes targets and Int data of the edges without boxing. Only for {@link IntEdgeModel}s
+     */
+    public void forEachInt(final IntIntConsumer action) {
+        checkModel(IntEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdIntEdgeMap) {
+            ((NodeIdIntEdgeMap) map).forEachInt(action);
+        } else if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    action.accept(targetId, buffer.getInt(dataOffset));
+                    return true;
+                }
+            });
+        } else if (map != null) {
+            map.forEach(new IntObjConsumer<ED>() {
+                @Override
+                public void accept(int targetId, ED data) {
+                    action.accept(targetId, ((Number) data).intValue());
+                }
+            });
+        }
+    }
+
+    /**
+     * Tests targets and Int data of the edges without boxing. Only for {@link IntEdgeModel}s
+     *
+     * @return false, if the predicate returned false for some edge
+     */
+    public boolean testIntsWhile(final IntIntPredicate predicate) {
+        checkModel(IntEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdIntEdgeMap)
+            return ((NodeIdIntEdgeMap) map).testIntsWhile(predicate);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            return ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    return predicate.test(targetId, buffer.getInt(dataOffset));
+                }
+            });
+        }
+        return map == null || map.testWhile(new IntObjPredicate<ED>() {
+            @Override
+            public boolean test(int targetId, ED data) {
+                return predicate.test(targetId, ((Number) data).intValue());
+            }
+        });
+    }
+
+    /**
+     * Reads the Long data of the edge without boxing. Only for {@link LongEdgeModel}s
+     *
+     * @return the edge data, or {@code absentValue} if there is no edge to the target
+     */
+    public long getLong(int targetId, long absentValue) {
+        checkModel(LongEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdLongEdgeMap)
+            return ((NodeIdLongEdgeMap) map).getLong(targetId, absentValue);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            MappedNodeIdEdgeMap<ED> view = (MappedNodeIdEdgeMap<ED>) map;
+            int dataOffset = view.dataOffset(targetId);
+            return dataOffset >= 0 ? view.buffer().getLong(dataOffset) : absentValue;
+        }
+        // the model overrides newMap()
+        ED data = map != null ? map.getEdgeData(targetId) : null;
+        return data != null ? ((Number) data).longValue() : absentValue;
+    }
+
+    /**
+     * Passes targets and Long data of the edges without boxing. Only for {@link LongEdgeModel}s
+     */
+    public void forEachLong(final IntLongConsumer action) {
+        checkModel(LongEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdLongEdgeMap) {
+            ((NodeIdLongEdgeMap) map).forEachLong(action);
+        } else if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    action.accept(targetId, buffer.getLong(dataOffset));
+                    return true;
+                }
+            });
+        } else if (map != null) {
+            map.forEach(new IntObjConsumer<ED>() {
+                @Override
+                public void accept(int targetId, ED data) {
+                    action.accept(targetId, ((Number) data).longValue());
+                }
+            });
+        }
+    }
+
+    /**
+     * Tests targets and Long data of the edges without boxing. Only for {@link LongEdgeModel}s
+     *
+     * @return false, if the predicate returned false for some edge
+     */
+    public boolean testLongsWhile(final IntLongPredicate predicate) {
+        checkModel(LongEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdLongEdgeMap)
+            return ((NodeIdLongEdgeMap) map).testLongsWhile(predicate);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            return ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    return predicate.test(targetId, buffer.getLong(dataOffset));
+                }
+            });
+        }
+        return map == null || map.testWhile(new IntObjPredicate<ED>() {
+            @Override
+            public boolean test(int targetId, ED data) {
+                return predicate.test(targetId, ((Number) data).longValue());
+            }
+        });
+    }
+
+    /**
+     * Reads the Float data of the edge without boxing. Only for {@link FloatEdgeModel}s
+     *
+     * @return the edge data, or {@code absentValue} if there is no edge to the target
+     */
+    public float getFloat(int targetId, float absentValue) {
+        checkModel(FloatEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdFloatEdgeMap)
+            return ((NodeIdFloatEdgeMap) map).getFloat(targetId, absentValue);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            MappedNodeIdEdgeMap<ED> view = (MappedNodeIdEdgeMap<ED>) map;
+            int dataOffset = view.dataOffset(targetId);
+            return dataOffset >= 0 ? view.buffer().getFloat(dataOffset) : absentValue;
+        }
+        // the model overrides newMap()
+        ED data = map != null ? map.getEdgeData(targetId) : null;
+        return data != null ? ((Number) data).floatValue() : absentValue;
+    }
+
+    /**
+     * Passes targets and Float data of the edges without boxing. Only for {@link FloatEdgeModel}s
+     */
+    public void forEachFloat(final IntFloatConsumer action) {
+        checkModel(FloatEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdFloatEdgeMap) {
+            ((NodeIdFloatEdgeMap) map).forEachFloat(action);
+        } else if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    action.accept(targetId, buffer.getFloat(dataOffset));
+                    return true;
+                }
+            });
+        } else if (map != null) {
+            map.forEach(new IntObjConsumer<ED>() {
+                @Override
+                public void accept(int targetId, ED data) {
+                    action.accept(targetId, ((Number) data).floatValue());
+                }
+            });
+        }
+    }
+
+    /**
+     * Tests targets and Float data of the edges without boxing. Only for {@link FloatEdgeModel}s
+     *
+     * @return false, if the predicate returned false for some edge
+     */
+    public boolean testFloatsWhile(final IntFloatPredicate predicate) {
+        checkModel(FloatEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdFloatEdgeMap)
+            return ((NodeIdFloatEdgeMap) map).testFloatsWhile(predicate);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            return ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    return predicate.test(targetId, buffer.getFloat(dataOffset));
+                }
+            });
+        }
+        return map == null || map.testWhile(new IntObjPredicate<ED>() {
+            @Override
+            public boolean test(int targetId, ED data) {
+                return predicate.test(targetId, ((Number) data).floatValue());
+            }
+        });
+    }
+
+    /**
+     * Reads the Double data of the edge without boxing. Only for {@link DoubleEdgeModel}s
+     *
+     * @return the edge data, or {@code absentValue} if there is no edge to the target
+     */
+    public double getDouble(int targetId, double absentValue) {
+        checkModel(DoubleEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdDoubleEdgeMap)
+            return ((NodeIdDoubleEdgeMap) map).getDouble(targetId, absentValue);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            MappedNodeIdEdgeMap<ED> view = (MappedNodeIdEdgeMap<ED>) map;
+            int dataOffset = view.dataOffset(targetId);
+            return dataOffset >= 0 ? view.buffer().getDouble(dataOffset) : absentValue;
+        }
+        // the model overrides newMap()
+        ED data = map != null ? map.getEdgeData(targetId) : null;
+        return data != null ? ((Number) data).doubleValue() : absentValue;
+    }
+
+    /**
+     * Passes targets and Double data of the edges without boxing. Only for {@link DoubleEdgeModel}s
+     */
+    public void forEachDouble(final IntDoubleConsumer action) {
+        checkModel(DoubleEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdDoubleEdgeMap) {
+            ((NodeIdDoubleEdgeMap) map).forEachDouble(action);
+        } else if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    action.accept(targetId, buffer.getDouble(dataOffset));
+                    return true;
+                }
+            });
+        } else if (map != null) {
+            map.forEach(new IntObjConsumer<ED>() {
+                @Override
+                public void accept(int targetId, ED data) {
+                    action.accept(targetId, ((Number) data).doubleValue());
+                }
+            });
+        }
+    }
+
+    /**
+     * Tests targets and Double data of the edges without boxing. Only for {@link DoubleEdgeModel}s
+     *
+     * @return false, if the predicate returned false for some edge
+     */
+    public boolean testDoublesWhile(final IntDoublePredicate predicate) {
+        checkModel(DoubleEdgeModel.class);
+        NodeIdEdgeMap<ED> map = currentMap();
+        if (map instanceof NodeIdDoubleEdgeMap)
+            return ((NodeIdDoubleEdgeMap) map).testDoublesWhile(predicate);
+        if (map instanceof MappedNodeIdEdgeMap) {
+            final ByteBuffer buffer = ((MappedNodeIdEdgeMap<ED>) map).buffer();
+            return ((MappedNodeIdEdgeMap<ED>) map).testDataOffsetsWhile(new IntIntPredicate() {
+                @Override
+                public boolean test(int targetId, int dataOffset) {
+                    return predicate.test(targetId, buffer.getDouble(dataOffset));
+                }
+            });
+        }
+        return map == null || map.testWhile(new IntObjPredicate<ED>() {
+            @Override
+            public boolean test(int targetId, ED data) {
+                return predicate.test(targetId, ((Number) data).doubleValue());
+            }
+        });
+    }
+
+    /**
+     * Counts targets, common with the other edges, of any model and source, see {@link Intersections}
+     */
+    public int intersectCount(Edges<?, ?, ?> other) {
+        NodeIdEdgeMap<ED> map = currentMap();
+        NodeIdEdgeMap<?> otherMap = other.currentMap();
+        return map == null || otherMap == null ? 0 : Intersections.intersect(map, otherMap, null);
+    }
+
+    /**
+     * Passes targets, common with the other edges, of any model and source, in unspecified order
+     */
+    public void forEachCommonTarget(Edges<?, ?, ?> other, IntConsumer action) {
+        NodeIdEdgeMap<ED> map = currentMap();
+        NodeIdEdgeMap<?> otherMap = other.currentMap();
+        if (map != null && otherMap != null)
+            Intersections.intersect(map, otherMap, action);
+    }
+
+    /**
+     * @return targets, common with the other edges, of any model and source, in ascending order
+     *         of the ids as signed ints
+     */
+    public int[] intersect(Edges<?, ?, ?> other) {
+        NodeIdEdgeMap<ED> map = currentMap();
+        NodeIdEdgeMap<?> otherMap = other.currentMap();
+        if (map == null || otherMap == null)
+            return new int[0];
+        final int[] common = new int[Math.min(map.size(), otherMap.size())];
+        int count = Intersections.intersect(map, otherMap, new IntConsumer() {
+            private int i = 0;
+
+            @Override
+            public void accept(int target) {
+                common[i++] = target;
+            }
+        });
+        int[] result = Arrays.copyOf(common, count);
+        Arrays.sort(result);
+        return result;
+    }
+
     public int count() {
         return map != null ? map.size() : 0;
     }
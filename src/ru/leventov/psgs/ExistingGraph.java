@@ -1,6 +1,7 @@
 package ru.leventov.psgs;
 
 import gnu.trove.function.Consumer;
+import gnu.trove.function.IntConsumer;
 import gnu.trove.function.IntFunction;
 import gnu.trove.function.IntObjConsumer;
 import gnu.trove.map.hash.IntObjDHashMap;
@@ -8,20 +9,28 @@ import gnu.trove.map.hash.TIntObjHashMap;
 import org.jetbrains.annotations.Nullable;
 import ru.leventov.psgs.index.BTreeIndex;
 import ru.leventov.psgs.index.ExistingBTreeIndex;
+import ru.leventov.psgs.index.HybridStorage;
 import ru.leventov.psgs.io.*;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static java.nio.file.Files.createDirectories;
 import static ru.leventov.psgs.AbstractEdgeModel.newModel;
 import static ru.leventov.psgs.util.Bits.unsignedByte;
 import static ru.leventov.psgs.util.Bits.unsignedInt;
+import static ru.leventov.psgs.util.ByteBuffers.duplicate;
 import static ru.leventov.psgs.util.ByteBuffers.skip;
+import static ru.leventov.psgs.util.ByteBuffers.slice;
 
 public class ExistingGraph extends Graph implements Closeable {
     private static final Node REMOVED = new Node() {
@@ -38,6 +47,10 @@ public class ExistingGraph extends Graph implements Closeable {
         return new IntObjDHashMap<>(10, 0.8f);
     }
 
+    /**
+     * Opens the graph for reading. The returned graph could be read by threads concurrently, provided that
+     * nodes and edges are not modified. Threads could get different objects of the same node.
+     */
     public static ExistingGraph openForReading(Path dir) throws IOException, DeserializationException  {
         ExistingGraph graph = new ExistingGraph();
         graph.readOnly = true;
@@ -49,6 +62,68 @@ public class ExistingGraph extends Graph implements Closeable {
         return graph;
     }
 
+    /**
+     * Opens the graph for updating in place. {@link #commit()} appends new and changed nodes
+     * to the existing data file and patches their descriptors in the node index, so the cost of
+     * the update is proportional to the change. Space of the replaced node versions isn't reclaimed,
+     * copy the graph with {@link #copyForUpdating(Path, Path)} to compact it.
+     *
+     * <p>Commits are written to the log in the graph directory before they are applied, the node index
+     * and the metadata are updated in checkpoints. If the process has crashed, committed changes
+     * are recovered from the log here.
+     */
+    public static ExistingGraph openForUpdating(Path dir) throws IOException, DeserializationException {
+        ExistingGraph graph = new ExistingGraph();
+        graph.readOnly = false;
+        graph.inPlace = true;
+        graph.dstDir = dir;
+        Metadata metadata = Json.readJson(metadataFile(dir), Metadata.class);
+        GraphLog log = new GraphLog(dir, metadata.byteOrder);
+        List<GraphLog.Frame> frames = log.readFrames();
+        int firstCommit = 0;
+        for (int i = frames.size(); i-- > 0;) {
+            if (frames.get(i).type == GraphLog.CHECKPOINT) {
+                redoCheckpoint(dir, frames.get(i).payload);
+                metadata = Json.readJson(metadataFile(dir), Metadata.class);
+                firstCommit = i + 1;
+                break;
+            }
+        }
+        if (metadata.dataSize > 0) {
+            // cut off data of the commits, which were not checkpointed, they are going to be replayed
+            try (FileChannel dataChannel = Files.openForUpdating(dataFile(dir))) {
+                if (dataChannel.size() > metadata.dataSize)
+                    dataChannel.truncate(metadata.dataSize);
+            }
+        }
+        graph.commonInit(metadata);
+        // changes of the index must not reach the file until they are checkpointed in the log
+        graph.nodeIndex = new ExistingBTreeIndex(nodeIndexDir(dir), false,
+                HybridStorage.DEFAULT_PAGE_CACHE_CAPACITY, false);
+        graph.data = new MemoryMappedFile(dataFile(dir), metadata.byteOrder,
+                MemoryMappedFile.MAX_CHUNK_SIZE_LIMIT, true);
+        graph.log = log;
+        graph.delta = graph.new DeltaSerializationState();
+        if (firstCommit < frames.size()) {
+            for (GraphLog.Frame frame : frames.subList(firstCommit, frames.size())) {
+                if (frame.type == GraphLog.COMMIT)
+                    graph.delta.applyCommit(frame.payload);
+            }
+            graph.delta.checkpoint();
+        } else if (!frames.isEmpty()) {
+            log.clear();
+        }
+        return graph;
+    }
+
+    private static void redoCheckpoint(Path dir, ByteBuffer payload) throws IOException {
+        DataInput in = new ByteBufferDataIO(payload);
+        byte[] metadataJson = new byte[in.readInt()];
+        in.readFully(metadataJson);
+        ExistingBTreeIndex.redoCheckpoint(nodeIndexDir(dir), in);
+        java.nio.file.Files.write(metadataFile(dir), metadataJson);
+    }
+
     public static ExistingGraph copyForUpdating(Path srcDir, Path dstDir) throws IOException, DeserializationException {
         Files.removeDir(dstDir);
         createDirectories(dstDir);
@@ -65,27 +140,31 @@ public class ExistingGraph extends Graph implements Closeable {
     }
 
     private boolean readOnly;
+    private boolean inPlace;
     private ByteOrder byteOrder;
+    private Stats storedStats;
     private Path dstDir;
 
     private ExistingBTreeIndex nodeIndex;
     private MemoryMappedFile data;
 
+    private static final int LOG_FRAME_INITIAL_CAPACITY = 1 << 20;
+    private static final long LOG_CHECKPOINT_THRESHOLD = 64L * (1 << 20);
+    /** Positions of ids within a batch of {@link #getNodes(int[], Node[])} fit 16 bits */
+    private static final int GET_NODES_BATCH = 1 << 16;
+    private GraphLog log;
+    private DeltaSerializationState delta;
+
     private boolean[] edgeModelUnique = new boolean[256];
     private UniqueEdgeModel[] uniqueEdgeModels = new UniqueEdgeModel[256];
     private EdgeModel[] edgeModels = new EdgeModel[256];
 
-    private static final int NODE_CACHE_SIZE = 1 << 18;
-    private static int cacheIndex(int id) {
-        int x = id;
-        x ^= (x >>> 16);
-        x *= 0x85ebca6b;
-        x ^= x >>> 13;
-        x *= 0xc2b2ae35;
-        x ^= x >>> 16;
-        return x & (NODE_CACHE_SIZE - 1);
-    }
-    private Node[] loadedNodes = new Node[NODE_CACHE_SIZE];
+    public static final int DEFAULT_NODE_CACHE_CAPACITY = 1 << 18;
+    /**
+     * Cache of unchanged nodes. Concurrent readers could load the same node twice, then the cache keeps
+     * one of the copies.
+     */
+    private NodeCache loadedNodes = new NodeCache(DEFAULT_NODE_CACHE_CAPACITY);
 
     @Nullable
     private TIntObjHashMap<Node> newNodes = null;
@@ -102,10 +181,10 @@ public class ExistingGraph extends Graph implements Closeable {
                     "Highest supported version of protocol is " + CURRENT_PROTOCOL_VERSION + ", " +
                     metadata.protocolVersion + " found.");
         }
-        if (!metadata.format.equals(defaultFormat())) {
+        if (!metadata.format.equals(defaultFormat()) && !metadata.format.equals(compressedAdjacencyFormat())) {
             throw new DeserializationException(
-                    "Only \"" + defaultFormat() + "\" serialization format is currently supported, " +
-                    metadata.format + " found.");
+                    "Only \"" + defaultFormat() + "\" and \"" + compressedAdjacencyFormat() +
+                    "\" serialization formats are currently supported, " + metadata.format + " found.");
         }
 
        init(metadata);
@@ -115,16 +194,27 @@ public class ExistingGraph extends Graph implements Closeable {
     void init(Metadata metadata) throws DeserializationException {
         super.init(metadata);
         byteOrder = metadata.byteOrder;
+        storedStats = metadata.stats;
+    }
+
+    @Override
+    void loadClasses(Map<String, Byte> nodeClasses, Map<String, Byte> edgeClasses)
+            throws DeserializationException {
+        super.loadClasses(nodeClasses, edgeClasses);
         try {
-            for (Map.Entry<String, Byte> e : metadata.edgeClasses.entrySet()) {
+            for (Map.Entry<String, Byte> e : edgeClasses.entrySet()) {
+                int modelId = unsignedByte(e.getValue());
+                if (edgeModels[modelId] != null || uniqueEdgeModels[modelId] != null)
+                    continue;
                 Class<? extends AbstractEdgeModel<?, ?, ?>> modelClass =
                         (Class<? extends AbstractEdgeModel<?, ?, ?>>) Class.forName(e.getKey());
-                int modelId = unsignedByte(e.getValue());
                 if (UniqueEdgeModel.class.isAssignableFrom(modelClass)) {
                     edgeModelUnique[modelId] = true;
                     uniqueEdgeModels[modelId] = (UniqueEdgeModel) newModel(modelClass, this);
                 } else {
                     edgeModels[modelId] = (EdgeModel) newModel(modelClass, this);
+                    // record the encoding in the metadata, even if no nodes are written in this session
+                    adjacencyEncoding(edgeModels[modelId]);
                 }
             }
         } catch (ClassNotFoundException e) {
@@ -150,7 +240,7 @@ public class ExistingGraph extends Graph implements Closeable {
         if (node != null) return node;
 
         ByteBuffer descriptor = nodeIndex.get(nodeId);
-        if (descriptor == null) return null;
+        if (descriptor == null || isRemoved(descriptor)) return null;
 
         node = loadNode(nodeId, descriptor);
 
@@ -158,12 +248,112 @@ public class ExistingGraph extends Graph implements Closeable {
         return node;
     }
 
+    /**
+     * Entries of removed nodes are removed from the node index, but graphs written by earlier versions
+     * could keep descriptors of removed nodes with zero node class id, which is never assigned
+     * to a node class
+     */
+    private static boolean isRemoved(ByteBuffer descriptor) {
+        return descriptor.get(descriptor.position()) == 0;
+    }
+
+    /**
+     * Descriptors of nodes, which are not in memory, are looked up in ascending order of ids, sharing
+     * descents of the node index, then nodes are loaded in ascending order of data offsets, so that
+     * the data file is read sequentially
+     */
+    @Override
+    public void getNodes(int[] ids, Node[] nodes) {
+        if (nodes.length < ids.length)
+            throw new IllegalArgumentException("The nodes array is shorter than the ids array");
+        for (int from = 0; from < ids.length; from += GET_NODES_BATCH) {
+            getNodes(ids, nodes, from, Math.min(from + GET_NODES_BATCH, ids.length));
+        }
+    }
+
+    private void getNodes(int[] ids, Node[] nodes, int from, int to) {
+        // ids of nodes to load in the high half, positions within the batch in the low half
+        long[] pending = new long[to - from];
+        int pendingCount = 0;
+        for (int i = from; i < to; i++) {
+            int nodeId = ids[i];
+            if (nodeId == 0)
+                throw new IllegalArgumentException("Node id couldn't be 0.");
+            Node node = getNew(nodeId);
+            if (node == null)
+                node = getLoaded(nodeId);
+            if (node != null) {
+                nodes[i] = node != REMOVED ? node : null;
+            } else {
+                nodes[i] = null;
+                pending[pendingCount++] = ((long) nodeId << 32) | (i - from);
+            }
+        }
+        if (pendingCount == 0)
+            return;
+        Arrays.sort(pending, 0, pendingCount);
+        int[] keys = new int[pendingCount];
+        int keyCount = 0;
+        for (int j = 0; j < pendingCount; j++) {
+            int nodeId = (int) (pending[j] >> 32);
+            if (keyCount == 0 || keys[keyCount - 1] != nodeId)
+                keys[keyCount++] = nodeId;
+        }
+
+        DescriptorBatch descriptors = new DescriptorBatch(keyCount);
+        nodeIndex.getAll(keys, 0, keyCount, descriptors);
+        long[] locations = descriptors.locations;
+        Arrays.sort(locations, 0, descriptors.count);
+        Node[] loaded = new Node[keyCount];
+        for (int j = 0; j < descriptors.count; j++) {
+            int keyIndex = (int) (locations[j] & 0xFFFF);
+            Node node = loadNode(keys[keyIndex], descriptors.nodeClassIds[keyIndex],
+                    unsignedByte(descriptors.adjCounts[keyIndex]), locations[j] >>> 16);
+            putLoaded(keys[keyIndex], node);
+            loaded[keyIndex] = node;
+        }
+
+        // repeated ids get the same node
+        int keyIndex = -1;
+        for (int j = 0; j < pendingCount; j++) {
+            if (j == 0 || (pending[j] >> 32) != (pending[j - 1] >> 32))
+                keyIndex++;
+            nodes[from + (int) pending[j]] = loaded[keyIndex];
+        }
+    }
+
+    private static final class DescriptorBatch implements IntObjConsumer<ByteBuffer> {
+        /** Data offsets in the high bits, key indexes in the low 16 bits */
+        final long[] locations;
+        final byte[] nodeClassIds;
+        final byte[] adjCounts;
+        int count = 0;
+
+        DescriptorBatch(int keyCount) {
+            locations = new long[keyCount];
+            nodeClassIds = new byte[keyCount];
+            adjCounts = new byte[keyCount];
+        }
+
+        @Override
+        public void accept(int keyIndex, ByteBuffer descriptor) {
+            if (isRemoved(descriptor))
+                return;
+            nodeClassIds[keyIndex] = descriptor.get();
+            adjCounts[keyIndex] = descriptor.get();
+            locations[count++] = (read6BytesDataOffset(descriptor) << 16) | keyIndex;
+        }
+    }
+
     private Node loadNode(int nodeId, ByteBuffer descriptor) {
         byte nodeClassId = descriptor.get();
         int adjCount = unsignedByte(descriptor.get());
         long dataOffset = read6BytesDataOffset(descriptor);
+        return loadNode(nodeId, nodeClassId, adjCount, dataOffset);
+    }
 
-        Node node = Node.newNode(getNodeClass(nodeClassId));
+    private Node loadNode(int nodeId, byte nodeClassId, int adjCount, long dataOffset) {
+        Node node = newNode(nodeClassId);
         node.addToGraph(nodeId, this, nodeClassId);
 
         ByteBuffer dataBuffer = data.locateChunk(dataOffset);
@@ -181,8 +371,11 @@ public class ExistingGraph extends Graph implements Closeable {
             if (!edgeModelUnique[edgeModelId]) {
                 int size = dataBuffer.getInt();
                 EdgeModel edgeModel = edgeModels[edgeModelId];
-                NodeIdEdgeMap adjacentMap = edgeModel.newMapForDeserialization(size);
-                adjacentMap.readData(dataIn);
+                AdjacencyEncoding encoding = adjacencyEncoding(edgeModel);
+                // stored bytes are never overwritten, so views stay valid while the data file is open
+                NodeIdEdgeMap adjacentMap = encoding.view(edgeModel, size, dataBuffer);
+                if (adjacentMap == null)
+                    adjacentMap = encoding.read(edgeModel, size, dataIn);
                 Edges edges = new Edges(edgeModel, node, adjacentMap);
                 node.addEdges((byte) edgeModelId, edges);
             } else {
@@ -198,25 +391,41 @@ public class ExistingGraph extends Graph implements Closeable {
         return node;
     }
 
+    @Override
+    boolean sharesNodes() {
+        // nodes are cached for all reader threads
+        return readOnly;
+    }
+
+    /**
+     * Creates a cursor to read the stored nodes without loading them. Only for graphs opened for reading,
+     * because the cursor doesn't see the changes in memory.
+     */
+    public NodeCursor nodeCursor() {
+        if (!readOnly)
+            throw new IllegalStateException("Node cursors read the stored graph, open it for reading");
+        return new NodeCursor(this, nodeIndex, data, byteOrder);
+    }
+
+    /**
+     * Sets the maximum number of unchanged nodes, kept in memory, rounded up to a power of 2.
+     * Drops the currently cached nodes, so it should be called right after opening the graph,
+     * before it is shared by threads.
+     */
+    public void setNodeCacheCapacity(int capacity) {
+        loadedNodes = new NodeCache(capacity);
+    }
+
     private Node getLoaded(int id) {
-        Node node = loadedNodes[cacheIndex(id)];
-        if (node != null && node.getId() == id) return node;
-        return null;
+        return loadedNodes.get(id);
     }
 
     private void putLoaded(int id, Node node) {
-        loadedNodes[cacheIndex(id)] = node;
+        loadedNodes.put(id, node);
     }
 
     private Node removeLoaded(int nodeId) {
-        int index = cacheIndex(nodeId);
-        Node node = loadedNodes[index];
-        if (node != null && node.getId() == nodeId) {
-            loadedNodes[index] = null;
-            return node;
-        } else {
-            return null;
-        }
+        return loadedNodes.remove(nodeId);
     }
 
     private Node getNew(int id) {
@@ -280,8 +489,7 @@ public class ExistingGraph extends Graph implements Closeable {
         node = getLoaded(nodeId);
         if (node != null) return true;
 
-        ByteBuffer descriptor = nodeIndex.get(nodeId);
-        return descriptor != null;
+        return isStored(nodeId);
     }
 
     @Override
@@ -289,27 +497,25 @@ public class ExistingGraph extends Graph implements Closeable {
         if (node.getGraph() != this)
             throw new IllegalArgumentException();
         int id = node.getId();
-        boolean maybeInLoaded = true;
-        if (newNodes != null) {
-            Node removedNew = newNodes.remove(id);
-            if (removedNew != null && removedNew != REMOVED) {
-                node.removeFromGraph();
-                nodeCount--;
-                return;
-            } else if (removedNew == REMOVED) {
-                maybeInLoaded = false;
-            }
-        }
-        if (maybeInLoaded && removeLoaded(id) != null) {
-            node.removeFromGraph();
-            nodeCount--;
-            TIntObjHashMap<Node> newNodes = getNewNodesForInsert();
-            newNodes.put(id, REMOVED);
-        } else {
+        Node newNode = getNew(id);
+        boolean stored = isStored(id);
+        if (newNode == REMOVED || (newNode == null && !stored))
             throw new IllegalStateException("The graph must contain the node");
+        node.removeFromGraph();
+        nodeCount--;
+        removeLoaded(id);
+        if (stored) {
+            getNewNodesForInsert().put(id, REMOVED);
+        } else {
+            newNodes.remove(id);
         }
     }
 
+    private boolean isStored(int nodeId) {
+        // absent nodes are reported with the class id of removed ones
+        return nodeIndex.getValueByte(nodeId, 0, (byte) 0) != 0;
+    }
+
     private TIntObjHashMap<Node> getNewNodesForInsert() {
         if (newNodes == null) newNodes = createMap();
         return newNodes;
@@ -326,15 +532,13 @@ public class ExistingGraph extends Graph implements Closeable {
 
     @Override
     public void forEachNode(final Consumer<? super Node> action) {
-        for (Node node : loadedNodes) {
-            if (node != null)
-                action.accept(node);
-        }
         nodeIndex.forEachEntry(new IntObjConsumer<ByteBuffer>() {
             @Override
             public void accept(int nodeId, ByteBuffer descriptor) {
-                if (getLoaded(nodeId) == null && (newNodes == null || !newNodes.containsKey(nodeId))) {
-                    action.accept(loadNode(nodeId, descriptor));
+                if (!isRemoved(descriptor) && (newNodes == null || !newNodes.containsKey(nodeId))) {
+                    // loaded nodes are passed as they are, to keep the identity
+                    Node node = loadedNodes.peek(nodeId);
+                    action.accept(node != null ? node : loadNode(nodeId, descriptor));
                 }
             }
         });
@@ -348,13 +552,74 @@ public class ExistingGraph extends Graph implements Closeable {
         }
     }
 
+    /**
+     * Stored nodes are not loaded
+     */
+    @Override
+    void forEachNodeId(final IntConsumer action) {
+        nodeIndex.forEachEntry(new IntObjConsumer<ByteBuffer>() {
+            @Override
+            public void accept(int nodeId, ByteBuffer descriptor) {
+                if (!isRemoved(descriptor) && (newNodes == null || !newNodes.containsKey(nodeId)))
+                    action.accept(nodeId);
+            }
+        });
+        if (newNodes != null) {
+            newNodes.values().forEach(new Consumer<Node>() {
+                @Override
+                public void accept(Node node) {
+                    if (node != REMOVED) action.accept(node.getId());
+                }
+            });
+        }
+    }
+
+    /**
+     * Passes nodes with ids from {@code fromId} to {@code toId}, both inclusive: stored nodes in ascending
+     * order of ids, then new nodes in the range in no particular order. Disjoint ranges could be scanned
+     * by threads sharing the graph opened for reading.
+     */
+    public void forEachNodeInRange(final int fromId, final int toId, final Consumer<? super Node> action) {
+        nodeIndex.forEachEntryInRange(fromId, toId, new IntObjConsumer<ByteBuffer>() {
+            @Override
+            public void accept(int nodeId, ByteBuffer descriptor) {
+                if (!isRemoved(descriptor) && (newNodes == null || !newNodes.containsKey(nodeId))) {
+                    Node node = loadedNodes.peek(nodeId);
+                    action.accept(node != null ? node : loadNode(nodeId, descriptor));
+                }
+            }
+        });
+        if (newNodes != null) {
+            newNodes.values().forEach(new Consumer<Node>() {
+                @Override
+                public void accept(Node node) {
+                    if (node != REMOVED && node.getId() >= fromId && node.getId() <= toId)
+                        action.accept(node);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the graph in the {@link CsrGraph} format to the directory. Uncommitted changes are included.
+     */
+    public void exportCsr(Path dir) throws IOException {
+        CsrGraph.export(this, dir);
+    }
+
+    /**
+     * Unchanged nodes are copied as stored, in the order of the index pages, without decoding. A layout
+     * pass, like in {@link NewGraph#write(Path, ByteOrder, int, NodeLayout)}, would need adjacency
+     * of all nodes, so it isn't applied. Changed and new nodes are appended after them.
+     */
     private void serialize() throws IOException {
         try (ExistingGraphSerializationState serializationState = new ExistingGraphSerializationState()) {
             nodeIndex.forEachEntry(new IntObjConsumer<ByteBuffer>() {
                 @Override
                 public void accept(int nodeId, ByteBuffer descriptor) {
                     try {
-                        if (newNodes == null || !newNodes.containsKey(nodeId)) {
+                        Node newNode = getNew(nodeId);
+                        if (newNode == null && !isRemoved(descriptor)) {
                             serializationState.moveNode(descriptor);
                         }
                     } catch (IOException e) {
@@ -364,6 +629,13 @@ public class ExistingGraph extends Graph implements Closeable {
             });
             System.out.printf("%2.1f%% moved nodes\n", (100.0 * serializationState.movedNodes) / nodeCount());
             if (newNodes != null) {
+                // entries couldn't be removed while the index is iterated
+                newNodes.forEach(new IntObjConsumer<Node>() {
+                    @Override
+                    public void accept(int nodeId, Node node) {
+                        if (node == REMOVED) nodeIndex.remove(nodeId);
+                    }
+                });
                 newNodes.values().forEach(new Consumer<Node>() {
                     @Override
                     public void accept(Node node) {
@@ -402,7 +674,7 @@ public class ExistingGraph extends Graph implements Closeable {
         }
 
         ByteBuffer descriptor = nodeIndex.get(nodeId);
-        if (descriptor == null) return null;
+        if (descriptor == null || isRemoved(descriptor)) return null;
 
         node = loadNode(nodeId, descriptor);
 
@@ -415,9 +687,147 @@ public class ExistingGraph extends Graph implements Closeable {
     @Override
     void nodeChanged(Node node) {
         int nodeId = node.getId();
-        if (removeLoaded(nodeId) != null) {
-            TIntObjHashMap<Node> newNodes = getNewNodesForInsert();
-            newNodes.put(nodeId, node);
+        // the node could be already evicted from the loaded cache
+        removeLoaded(nodeId);
+        TIntObjHashMap<Node> newNodes = getNewNodesForInsert();
+        newNodes.put(nodeId, node);
+    }
+
+    /**
+     * Durably stores all changes made since the previous commit. Only for graphs opened with
+     * {@link #openForUpdating(Path)}.
+     */
+    public void commit() throws IOException {
+        if (!inPlace)
+            throw new IllegalStateException("Only a graph opened for updating in place could be committed");
+        if (newNodes == null || newNodes.isEmpty())
+            return;
+        ByteBuffer payload = encodeCommit(newNodes);
+        log.append(GraphLog.COMMIT, duplicate(payload));
+        try {
+            delta.applyCommit(payload);
+        } catch (DeserializationException e) {
+            // all classes of the graph are already loaded
+            throw new RuntimeException(e);
+        }
+        newNodes.forEach(new IntObjConsumer<Node>() {
+            @Override
+            public void accept(int nodeId, Node node) {
+                if (node != REMOVED) {
+                    node.committed();
+                    putLoaded(nodeId, node);
+                }
+            }
+        });
+        newNodes = null;
+        if (log.size() >= LOG_CHECKPOINT_THRESHOLD)
+            delta.checkpoint();
+    }
+
+    /**
+     * Commit frame: node count and id bounds, node and edge model classes, then for each node
+     * [int id][byte class id, 0 if the node is removed][byte adjacency count][int size][data as stored]
+     */
+    private ByteBuffer encodeCommit(TIntObjHashMap<Node> nodes) {
+        final ByteArrayListDataOutput out = new ByteArrayListDataOutput(LOG_FRAME_INITIAL_CAPACITY, byteOrder);
+        out.writeLong(nodeCount);
+        out.writeLong(maxNodeIdBound);
+        out.writeLong(minNodeIdBound);
+        writeClassMap(out, nodeClassMap());
+        writeClassMap(out, edgeModelClassMap());
+        out.writeInt(nodes.size());
+        final NodeEncoder nodeEncoder = new NodeEncoder(out, new StatsAggregator());
+        nodes.forEach(new IntObjConsumer<Node>() {
+            @Override
+            public void accept(int nodeId, Node node) {
+                out.writeInt(nodeId);
+                if (node == REMOVED) {
+                    out.writeByte(0);
+                    out.writeByte(0);
+                    out.writeInt(0);
+                    return;
+                }
+                out.writeByte(node.getClassId());
+                int headerEndPos = out.position() + 5;
+                out.position(headerEndPos);
+                try {
+                    int adjCount = nodeEncoder.encode(node);
+                    int endPos = out.position();
+                    out.position(headerEndPos - 5);
+                    out.writeByte(adjCount);
+                    out.writeInt(endPos - headerEndPos);
+                    out.position(endPos);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        ByteBuffer payload = out.getBuffer();
+        payload.flip();
+        return payload;
+    }
+
+    private static void writeClassMap(DataOutput out, Map<String, Byte> classes) {
+        out.writeInt(classes.size());
+        for (Map.Entry<String, Byte> e : classes.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeByte(e.getValue());
+        }
+    }
+
+    private static Map<String, Byte> readClassMap(DataInput in) {
+        int size = in.readInt();
+        Map<String, Byte> classes = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String className = in.readUTF();
+            classes.put(className, in.readByte());
+        }
+        return classes;
+    }
+
+    /**
+     * Aggregates stats of the node by its descriptor, or disaggregates if {@code add} is false
+     */
+    private void aggregateStoredNode(StatsAggregator stats, ByteBuffer descriptor, boolean add) {
+        byte nodeClassId = descriptor.get();
+        int adjCount = unsignedByte(descriptor.get());
+        long dataOffset = read6BytesDataOffset(descriptor);
+        aggregateNodeData(stats, nodeClassId, adjCount, data.locateChunk(dataOffset), add);
+    }
+
+    /**
+     * Aggregates stats of the node, stored in the format of the data file from the buffer position,
+     * or disaggregates if {@code add} is false. Leaves the buffer positioned after the node.
+     */
+    private void aggregateNodeData(StatsAggregator stats, byte nodeClassId, int adjCount,
+                                   ByteBuffer dataBuffer, boolean add) {
+        if (add) {
+            stats.aggregateNode(nodeClassId);
+        } else {
+            stats.disaggregateNode(nodeClassId);
+        }
+        int nodeDataSize = dataBuffer.getInt();
+        skip(dataBuffer, nodeDataSize);
+
+        for (int i = 0; i < adjCount; i++) {
+            int edgeStartPos = dataBuffer.position();
+            int edgeModelId = dataBuffer.getInt();
+            int edgeDataSize = dataBuffer.getInt();
+            if (edgeModelUnique[edgeModelId]) {
+                if (add) {
+                    stats.aggregateUniqueEdge((byte) edgeModelId);
+                } else {
+                    stats.disaggregateUniqueEdge((byte) edgeModelId);
+                }
+            } else {
+                int edgeCount = dataBuffer.getInt();
+                if (add) {
+                    stats.aggregateEdges((byte) edgeModelId, edgeCount);
+                } else {
+                    stats.disaggregateEdges((byte) edgeModelId, edgeCount);
+                }
+            }
+            dataBuffer.position(edgeStartPos + 8 + edgeDataSize);
         }
     }
 
@@ -430,7 +840,6 @@ public class ExistingGraph extends Graph implements Closeable {
         void moveNode(ByteBuffer descriptor) throws IOException {
             movedNodes++;
             byte nodeClassId = descriptor.get();
-            statsAggregator.aggregateNode(nodeClassId);
             int adjCount = unsignedByte(descriptor.get());
             long dataOffset = read6BytesDataOffset(descriptor);
 
@@ -440,21 +849,7 @@ public class ExistingGraph extends Graph implements Closeable {
 
             ByteBuffer dataBuffer = data.locateChunk(dataOffset);
             int dataStartPos = dataBuffer.position();
-            int nodeDataSize = dataBuffer.getInt();
-            skip(dataBuffer, nodeDataSize);
-
-            for (int i = 0; i < adjCount; i++) {
-                int moveStartPos = dataBuffer.position();
-                int edgeModelId = dataBuffer.getInt();
-                int edgeDataSize = dataBuffer.getInt();
-                if (edgeModelUnique[edgeModelId]) {
-                    statsAggregator.aggregateUniqueEdge((byte) edgeModelId);
-                } else {
-                    int edgeCount = dataBuffer.getInt();
-                    statsAggregator.aggregateEdges((byte) edgeModelId, edgeCount);
-                }
-                dataBuffer.position(moveStartPos + 8 + edgeDataSize);
-            }
+            aggregateNodeData(statsAggregator, nodeClassId, adjCount, dataBuffer, true);
 
             dataBuffer.limit(dataBuffer.position());
             dataBuffer.position(dataStartPos);
@@ -469,10 +864,92 @@ public class ExistingGraph extends Graph implements Closeable {
         }
     }
 
+    class DeltaSerializationState extends SerializationState {
+
+        DeltaSerializationState() throws IOException {
+            super(dstDir, byteOrder, defaultFormat(), ExistingGraph.this.nodeIndex, true);
+            if (storedStats != null)
+                loadStats(storedStats);
+        }
+
+        /**
+         * Appends nodes of the commit frame to the data file and points their descriptors to them.
+         * Changes of the node index are kept in memory until {@link #checkpoint()}.
+         */
+        void applyCommit(ByteBuffer payload) throws IOException, DeserializationException {
+            DataInput in = new ByteBufferDataIO(payload);
+            nodeCount = in.readLong();
+            maxNodeIdBound = in.readLong();
+            minNodeIdBound = in.readLong();
+            Map<String, Byte> nodeClasses = readClassMap(in);
+            loadClasses(nodeClasses, readClassMap(in));
+            int nodes = in.readInt();
+            for (int i = 0; i < nodes; i++) {
+                int nodeId = payload.getInt();
+                byte nodeClassId = payload.get();
+                int adjCount = unsignedByte(payload.get());
+                int size = payload.getInt();
+
+                ByteBuffer descriptor = nodeIndex.get(nodeId);
+                boolean stored = descriptor != null && !isRemoved(descriptor);
+                if (stored)
+                    aggregateStoredNode(statsAggregator, duplicate(descriptor), false);
+                if (nodeClassId == 0) {
+                    if (descriptor != null)
+                        nodeIndex.remove(nodeId);
+                    continue;
+                }
+                ByteBuffer nodeData = slice(payload);
+                nodeData.limit(size);
+                skip(payload, size);
+                aggregateNodeData(statsAggregator, nodeClassId, adjCount, duplicate(nodeData), true);
+
+                long dataOffset = dataChannel.position() + dataOutput.position();
+                dataOutput.write(nodeData);
+                checkForFlush();
+                writeDescriptor(nodeId, nodeClassId, adjCount, dataOffset);
+            }
+            flush();
+            data.extend();
+        }
+
+        /**
+         * Makes the data file, the node index and the metadata consistent on the disk and clears the log.
+         * Everything which is going to be written is logged first, so that an interrupted checkpoint
+         * is redone on the next opening.
+         */
+        void checkpoint() throws IOException {
+            flush();
+            // appended data must be durable before descriptors in the index point to it
+            dataChannel.force(false);
+            fillMetadata();
+            byte[] metadataJson = Json.toJson(metadata).getBytes(StandardCharsets.UTF_8);
+            ByteArrayListDataOutput out = new ByteArrayListDataOutput(LOG_FRAME_INITIAL_CAPACITY, byteOrder);
+            out.writeInt(metadataJson.length);
+            out.write(metadataJson);
+            ExistingGraph.this.nodeIndex.writeCheckpoint(out);
+            ByteBuffer payload = out.getBuffer();
+            payload.flip();
+            log.append(GraphLog.CHECKPOINT, payload);
+
+            ExistingGraph.this.nodeIndex.flush();
+            java.nio.file.Files.write(metadataFile(dir), metadataJson);
+            log.clear();
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (!readOnly) {
-            serialize();
+            if (inPlace) {
+                commit();
+                delta.checkpoint();
+                delta.close();
+                nodeIndex.close();
+                log.close();
+            } else {
+                serialize();
+            }
         }
         data.close();
     }
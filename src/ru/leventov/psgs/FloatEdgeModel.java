@@ -0,0 +1,13 @@
+package ru.leventov.psgs;
+
+import ru.leventov.psgs.io.DataWriter;
+
+/**
+ * Marks {@link EdgeModel}s with float edge data, which the model must write by a single
+ * {@code writeFloat()} call and read by {@code readFloat()}. Edges of such models are kept
+ * in {@link NodeIdFloatEdgeMap}s by default, and {@link Edges#getFloat(int, float)},
+ * {@link Edges#forEachFloat(gnu.trove.function.IntFloatConsumer)} and
+ * {@link Edges#testFloatsWhile(gnu.trove.function.IntFloatPredicate)} read them without boxing.
+ */
+public interface FloatEdgeModel extends DataWriter<Float> {
+}
@@ -1,6 +1,7 @@
 package ru.leventov.psgs;
 
 import gnu.trove.function.Consumer;
+import gnu.trove.function.IntConsumer;
 import gnu.trove.function.IntFunction;
 import gnu.trove.map.hash.ObjLongDHashMap;
 import ru.leventov.psgs.index.BTreeIndex;
@@ -15,6 +16,7 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
+import static ru.leventov.psgs.io.Files.openForAppending;
 import static ru.leventov.psgs.io.Files.openForWriting;
 import static ru.leventov.psgs.util.Bits.roundUp4;
 import static ru.leventov.psgs.util.Bits.unsignedByte;
@@ -23,6 +25,10 @@ import static ru.leventov.psgs.util.Bits.unsignedInt;
 public abstract class Graph {
     private final ClassIds<AbstractEdgeModel> edgeModelClassIds = new ClassIds<>();
     private final ClassIds<Node> nodeClassIds = new ClassIds<>();
+    /** By node class ids, resolved on the first node of the class */
+    private final NodeFactory<?>[] nodeFactories = new NodeFactory<?>[256];
+    /** By edge model ids, null until the model is stored or read */
+    private final AdjacencyEncoding[] adjacencyEncodings = new AdjacencyEncoding[256];
 
     long nodeCount, maxNodeIdBound, minNodeIdBound;
 
@@ -30,6 +36,18 @@ public abstract class Graph {
 
     public abstract Node getNode(int id);
 
+    /**
+     * Puts nodes by the ids to the array at the same positions, null if the graph doesn't contain
+     * the node. Graphs, which load nodes from files, load them in batch.
+     */
+    public void getNodes(int[] ids, Node[] nodes) {
+        if (nodes.length < ids.length)
+            throw new IllegalArgumentException("The nodes array is shorter than the ids array");
+        for (int i = 0; i < ids.length; i++) {
+            nodes[i] = getNode(ids[i]);
+        }
+    }
+
     public abstract void addNode(Node node);
 
     public abstract Node getOrCreateNode(int id, IntFunction<Node> producer);
@@ -42,6 +60,19 @@ public abstract class Graph {
 
     public abstract void forEachNode(Consumer<? super Node> action);
 
+    /**
+     * Passes ids of the nodes {@link #forEachNode(Consumer)} would pass, in no particular order.
+     * Override, if the ids could be read without loading the nodes.
+     */
+    void forEachNodeId(final IntConsumer action) {
+        forEachNode(new Consumer<Node>() {
+            @Override
+            public void accept(Node node) {
+                action.accept(node.getId());
+            }
+        });
+    }
+
     /**
      * Call from edge models
      */
@@ -52,10 +83,24 @@ public abstract class Graph {
      */
     abstract void nodeChanged(Node node);
 
+    /**
+     * If true, node objects could be shared between threads, so reads don't modify them
+     */
+    boolean sharesNodes() {
+        return false;
+    }
+
     final byte getEdgeModelId(Class<? extends AbstractEdgeModel> edgeModelClass) {
         return edgeModelClassIds.getId(edgeModelClass);
     }
 
+    /**
+     * @return id of the model class, or 0 if the graph doesn't know the class
+     */
+    final byte findEdgeModelId(Class<? extends AbstractEdgeModel> edgeModelClass) {
+        return edgeModelClassIds.getIdIfIndexed(edgeModelClass);
+    }
+
     final Class<? extends AbstractEdgeModel> getEdgeModelClass(byte id) {
         return edgeModelClassIds.getClass(id);
     }
@@ -68,14 +113,68 @@ public abstract class Graph {
         return nodeClassIds.getClass(id);
     }
 
+    /**
+     * Creates a node of the class with the id, by the factory from {@link Node#registerFactory}
+     * or by the no-args constructor
+     */
+    final Node newNode(byte nodeClassId) {
+        int id = unsignedByte(nodeClassId);
+        NodeFactory<?> factory = nodeFactories[id];
+        if (factory == null) {
+            // racy, but all threads resolve the same factory
+            nodeFactories[id] = factory = Node.factory(getNodeClass(nodeClassId));
+        }
+        return factory.newNode();
+    }
+
+
+    /**
+     * Encoding of the edges of the model in the data file. Models of a stored graph keep the encodings,
+     * recorded in its metadata, other models are written in the encoding they prefer.
+     */
+    final AdjacencyEncoding adjacencyEncoding(EdgeModel<?, ?, ?> model) {
+        int id = unsignedByte(model.getId());
+        AdjacencyEncoding encoding = adjacencyEncodings[id];
+        if (encoding == null) {
+            // racy, but all threads resolve the same constant
+            adjacencyEncodings[id] = encoding = model.adjacencyEncoding();
+        }
+        return encoding;
+    }
+
+    final Map<String, Byte> nodeClassMap() {
+        return nodeClassIds.asMap();
+    }
+
+    final Map<String, Byte> edgeModelClassMap() {
+        return edgeModelClassIds.asMap();
+    }
 
     void init(Metadata metadata) throws DeserializationException {
         nodeCount = metadata.nodeCount;
         maxNodeIdBound = metadata.maxNodeIdBound;
         minNodeIdBound = metadata.minNodeIdBound;
+        for (Map.Entry<String, Byte> e : metadata.edgeClasses.entrySet()) {
+            AdjacencyEncoding encoding;
+            if (metadata.adjacencyEncodings != null) {
+                encoding = metadata.adjacencyEncodings.get(e.getKey());
+            } else {
+                // written before adjacency encodings were introduced
+                encoding = AdjacencyEncoding.PLAIN;
+            }
+            adjacencyEncodings[unsignedByte(e.getValue())] = encoding;
+        }
+        loadClasses(metadata.nodeClasses, metadata.edgeClasses);
+    }
+
+    /**
+     * Registers classes with the given ids, classes already registered with the same ids are skipped
+     */
+    void loadClasses(Map<String, Byte> nodeClasses, Map<String, Byte> edgeClasses)
+            throws DeserializationException {
         try {
-            nodeClassIds.loadMap(metadata.nodeClasses);
-            edgeModelClassIds.loadMap(metadata.edgeClasses);
+            nodeClassIds.loadMap(nodeClasses);
+            edgeModelClassIds.loadMap(edgeClasses);
         } catch (ClassNotFoundException e) {
             throw new DeserializationException(e);
         }
@@ -87,6 +186,14 @@ public abstract class Graph {
         return "full";
     }
 
+    /**
+     * Format of the graphs with edges of some models encoded other than {@link AdjacencyEncoding#PLAIN},
+     * not readable by versions of the library which don't know adjacency encodings
+     */
+    static String compressedAdjacencyFormat() {
+        return "full-compressed-adjacency";
+    }
+
     static class Metadata {
         final int protocolVersion = CURRENT_PROTOCOL_VERSION;
         String format;
@@ -94,8 +201,12 @@ public abstract class Graph {
         long nodeCount;
         long maxNodeIdBound;
         long minNodeIdBound;
+        /** Size of the data file, which could have a garbage tail after a crash. 0 if unknown */
+        long dataSize;
         Map<String, Byte> nodeClasses;
         Map<String, Byte> edgeClasses;
+        /** By edge model class names, absent in graphs written before adjacency encodings */
+        Map<String, AdjacencyEncoding> adjacencyEncodings;
         Stats stats;
     }
 
@@ -132,6 +243,79 @@ public abstract class Graph {
         return dir.resolve("node-index");
     }
 
+    /**
+     * Writes nodes in the format of the data file: node data with size, then adjacency blocks
+     */
+    static final class NodeEncoder {
+        private final ByteArrayListDataOutput out;
+        private final StatsAggregator statsAggregator;
+        private Graph graph;
+        private int startPos;
+        private int adjCount;
+
+        private final Node.EdgesConsumer edgesWriter = new Node.EdgesConsumer() {
+            @Override
+            public void accept(byte modelId, Edges<?, ?, ?> edges) {
+                int edgeCount = edges.count();
+                if (edgeCount > 0) {
+                    statsAggregator.aggregateEdges(modelId, edgeCount);
+                    adjCount++;
+
+                    int edgeModelId = unsignedByte(modelId);
+                    out.writeInt(edgeModelId);
+                    memorizePos();
+                    out.writeInt(edgeCount);
+                    EdgeModel model = edges.getModel();
+                    // noinspection unchecked
+                    graph.adjacencyEncoding(model).write(model, edges.getMap(), out);
+                    writeSize();
+                }
+            }
+        };
+
+        private final Node.UniqueEdgeConsumer uniqueEdgeWriter = new Node.UniqueEdgeConsumer() {
+            @Override
+            public void accept(byte modelId, UniqueEdge<?, ?, ?> edge) {
+                statsAggregator.aggregateUniqueEdge(modelId);
+                adjCount++;
+
+                int edgeModelId = unsignedByte(modelId);
+                out.writeInt(edgeModelId);
+                memorizePos();
+                out.writeInt(edge.getTargetId());
+                edge.writeData(out);
+                writeSize();
+            }
+        };
+
+        NodeEncoder(ByteArrayListDataOutput out, StatsAggregator statsAggregator) {
+            this.out = out;
+            this.statsAggregator = statsAggregator;
+        }
+
+        /** @return the number of adjacency blocks written */
+        int encode(Node node) throws IOException {
+            statsAggregator.aggregateNode(node.getClassId());
+            writeWithSize(out, node);
+            graph = node.getGraph();
+            adjCount = 0;
+            node.forEachAdjacent(edgesWriter, uniqueEdgeWriter);
+            return adjCount;
+        }
+
+        private void memorizePos() {
+            out.skipBytes(4);
+            startPos = out.position();
+        }
+
+        private void writeSize() {
+            int roundedEndPos = roundUp4(out.position());
+            out.position(startPos - 4);
+            out.writeInt(roundedEndPos - startPos);
+            out.position(roundedEndPos);
+        }
+    }
+
     abstract class SerializationState implements Closeable {
         static final int OUTPUT_BUFFER_INITIAL_CAPACITY = 32 * (1 << 20);
 
@@ -140,32 +324,31 @@ public abstract class Graph {
         final FileChannel dataChannel;
         final Path dir;
         final ByteArrayListDataOutput dataOutput;
-        private int startPos;
+        final NodeEncoder nodeEncoder;
 
         BTreeIndex nodeIndex;
-        private int adjCount;
 
         SerializationState(Path dir, ByteOrder byteOrder, String format, BTreeIndex nodeIndex) throws IOException {
+            this(dir, byteOrder, format, nodeIndex, false);
+        }
+
+        /**
+         * @param append if true, nodes are written after the end of the existing data file in the dir
+         */
+        SerializationState(Path dir, ByteOrder byteOrder, String format, BTreeIndex nodeIndex, boolean append)
+                throws IOException {
             this.dir = dir;
             metadata.byteOrder = byteOrder;
             metadata.format = format;
             Files.createDirectories(dir);
-            dataChannel = openForWriting(dataFile(dir));
+            dataChannel = append ? openForAppending(dataFile(dir)) : openForWriting(dataFile(dir));
             dataOutput = new ByteArrayListDataOutput(OUTPUT_BUFFER_INITIAL_CAPACITY, byteOrder);
+            nodeEncoder = new NodeEncoder(dataOutput, statsAggregator);
             this.nodeIndex = nodeIndex;
         }
 
-        void memorizePos() {
-            dataOutput.skipBytes(4);
-            startPos = dataOutput.position();
-        }
-
-        void writeSize() {
-            ByteArrayListDataOutput out = dataOutput;
-            int roundedEndPos = roundUp4(out.position());
-            out.position(startPos - 4);
-            out.writeInt(roundedEndPos - startPos);
-            out.position(roundedEndPos);
+        void loadStats(Stats stats) {
+            statsAggregator.load(stats, nodeClassIds, edgeModelClassIds);
         }
 
         void flush() throws IOException {
@@ -187,62 +370,41 @@ public abstract class Graph {
         }
 
         void writeNode(Node node) throws IOException {
-
-            statsAggregator.aggregateNode(node.getClassId());
-
             long dataStartPos = dataChannel.position() + dataOutput.position();
-
-            writeWithSize(dataOutput, node);
+            int adjCount = nodeEncoder.encode(node);
             checkForFlush();
+            writeDescriptor(node.getId(), node.getClassId(), adjCount, dataStartPos);
+        }
 
-            adjCount = 0;
-            node.forEachAdjacent(new Node.EdgesConsumer() {
-                @Override
-                public void accept(byte modelId, Edges<?, ?, ?> edges) throws IOException {
-                    int edgeCount = edges.count();
-                    if (edgeCount > 0) {
-                        statsAggregator.aggregateEdges(modelId, edgeCount);
-                        adjCount++;
-
-                        int edgeModelId = unsignedByte(modelId);
-                        dataOutput.writeInt(edgeModelId);
-                        memorizePos();
-                        dataOutput.writeInt(edgeCount);
-                        edges.getMap().writeData(dataOutput);
-                        writeSize();
-                        checkForFlush();
-                    }
-                }
-            }, new Node.UniqueEdgeConsumer() {
-                @Override
-                public void accept(byte modelId, UniqueEdge<?, ?, ?> edge) throws IOException {
-                    statsAggregator.aggregateUniqueEdge(modelId);
-                    adjCount++;
-
-                    int edgeModelId = unsignedByte(modelId);
-                    dataOutput.writeInt(edgeModelId);
-                    memorizePos();
-                    dataOutput.writeInt(edge.getTargetId());
-                    edge.writeData(dataOutput);
-                    writeSize();
-                    checkForFlush();
-                }
-            });
-
-            ByteBuffer nodeEntry = nodeIndex.insert(node.getId());
-            nodeEntry.put(node.getClassId());
+        void writeDescriptor(int nodeId, byte nodeClassId, int adjCount, long dataOffset) {
+            ByteBuffer nodeEntry = nodeIndex.insert(nodeId);
+            nodeEntry.put(nodeClassId);
             nodeEntry.put((byte) adjCount);
-            write6BytesDataOffset(nodeEntry, dataStartPos);
+            write6BytesDataOffset(nodeEntry, dataOffset);
         }
 
         void writeMetadata() throws IOException {
+            fillMetadata();
+            Json.writeJson(metadataFile(dir), metadata);
+        }
+
+        void fillMetadata() throws IOException {
             metadata.nodeCount = nodeCount();
             metadata.maxNodeIdBound = maxNodeIdBound;
             metadata.minNodeIdBound = minNodeIdBound;
+            metadata.dataSize = dataChannel.position() + dataOutput.position();
             metadata.nodeClasses = nodeClassIds.asMap();
             metadata.edgeClasses = edgeModelClassIds.asMap();
+            metadata.adjacencyEncodings = new HashMap<>();
+            for (int id = 0; id < 256; id++) {
+                AdjacencyEncoding encoding = adjacencyEncodings[id];
+                if (encoding != null) {
+                    metadata.adjacencyEncodings.put(edgeModelClassIds.getClass((byte) id).getName(), encoding);
+                    if (encoding != AdjacencyEncoding.PLAIN)
+                        metadata.format = compressedAdjacencyFormat();
+                }
+            }
             metadata.stats = statsAggregator.countStats(nodeClassIds, edgeModelClassIds);
-            Json.writeJson(metadataFile(dir), metadata);
         }
 
         @Override
@@ -256,6 +418,8 @@ public abstract class Graph {
         Map<String, Long> nodeCounts;
         Map<String, EdgeStats> edgeStats;
         Map<String, Long> uniqueEdgeCounts;
+        /** Average distance in bytes between data offsets of adjacent nodes, null if not counted */
+        Double averageNeighborOffsetDistance;
     }
 
     static class EdgeStats {
@@ -283,6 +447,52 @@ public abstract class Graph {
             edgeTotals[intId] += edgeCount;
         }
 
+        void disaggregateNode(byte nodeClassId) {
+            nodeCounts[unsignedByte(nodeClassId)]--;
+        }
+
+        void disaggregateUniqueEdge(byte id) {
+            edgeCounts[unsignedByte(id)]--;
+        }
+
+        void disaggregateEdges(byte id, int edgeCount) {
+            int intId = unsignedByte(id);
+            edgeCounts[intId]--;
+            edgeTotals[intId] -= edgeCount;
+        }
+
+        void merge(StatsAggregator other) {
+            for (int i = 0; i < 256; i++) {
+                nodeCounts[i] += other.nodeCounts[i];
+                edgeCounts[i] += other.edgeCounts[i];
+                edgeTotals[i] += other.edgeTotals[i];
+            }
+        }
+
+        /**
+         * Starts aggregation from the previously counted stats, to update them incrementally
+         */
+        void load(Stats stats, ClassIds<Node> nodeClassIds, ClassIds<AbstractEdgeModel> edgeModelClassIds) {
+            for (Map.Entry<String, Long> e : stats.nodeCounts.entrySet()) {
+                nodeCounts[knownId(nodeClassIds, e.getKey())] = e.getValue();
+            }
+            for (Map.Entry<String, EdgeStats> e : stats.edgeStats.entrySet()) {
+                int id = knownId(edgeModelClassIds, e.getKey());
+                edgeCounts[id] = e.getValue().nodes;
+                edgeTotals[id] = e.getValue().totalEdges;
+            }
+            for (Map.Entry<String, Long> e : stats.uniqueEdgeCounts.entrySet()) {
+                edgeCounts[knownId(edgeModelClassIds, e.getKey())] = e.getValue();
+            }
+        }
+
+        private static int knownId(ClassIds<?> classIds, String className) {
+            int id = classIds.getId(className);
+            if (id < 0)
+                throw new IllegalStateException("Stats refer to unknown class " + className);
+            return id;
+        }
+
         Stats countStats(ClassIds<Node> nodeClassIds, ClassIds<AbstractEdgeModel> edgeModelClassIds) {
             Stats stats = new Stats();
             stats.nodeCounts = new ObjLongDHashMap<>();
@@ -0,0 +1,131 @@
+package ru.leventov.psgs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Write-ahead log of the graph, opened for updating in place. Consists of frames:
+ * [int type][int payload size][int CRC32 of the payload][payload]. A frame is valid only if it is complete
+ * and the checksum matches, the log is cut off at the first invalid frame.
+ */
+final class GraphLog implements Closeable {
+    /** Changed and removed nodes, applied to the data file and the node index */
+    static final int COMMIT = 1;
+    /** Images of everything written by a checkpoint, to redo it if it was interrupted */
+    static final int CHECKPOINT = 2;
+
+    private static final int FRAME_HEADER_SIZE = 12;
+
+    static final class Frame {
+        final int type;
+        final ByteBuffer payload;
+
+        private Frame(int type, ByteBuffer payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    static Path logFile(Path dir) {
+        return dir.resolve("log");
+    }
+
+    private final FileChannel channel;
+    private final ByteOrder byteOrder;
+    private final ByteBuffer header;
+
+    GraphLog(Path dir, ByteOrder byteOrder) throws IOException {
+        channel = FileChannel.open(logFile(dir), CREATE, READ, WRITE);
+        this.byteOrder = byteOrder;
+        header = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(byteOrder);
+    }
+
+    /**
+     * Reads all valid frames and truncates the log after the last of them, so that new frames follow it
+     */
+    List<Frame> readFrames() throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        long pos = 0, size = channel.size();
+        while (pos + FRAME_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, pos);
+            header.flip();
+            int type = header.getInt();
+            int payloadSize = header.getInt();
+            int checksum = header.getInt();
+            if ((type != COMMIT && type != CHECKPOINT) || payloadSize < 0 ||
+                    pos + FRAME_HEADER_SIZE + payloadSize > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(payloadSize).order(byteOrder);
+            readFully(payload, pos + FRAME_HEADER_SIZE);
+            payload.flip();
+            if (checksum(payload) != checksum)
+                break;
+            frames.add(new Frame(type, payload));
+            pos += FRAME_HEADER_SIZE + payloadSize;
+        }
+        channel.truncate(pos);
+        channel.position(pos);
+        return frames;
+    }
+
+    private void readFully(ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0)
+                throw new IOException("Unexpected end of the log");
+            pos += read;
+        }
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends the frame and forces it to the storage device
+     *
+     * @param payload heap buffer, between the position and the limit
+     */
+    void append(int type, ByteBuffer payload) throws IOException {
+        header.clear();
+        header.putInt(type);
+        header.putInt(payload.remaining());
+        header.putInt(checksum(payload));
+        header.flip();
+        ByteBuffer[] frame = {header, payload};
+        while (payload.hasRemaining()) {
+            channel.write(frame);
+        }
+        channel.force(false);
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    void clear() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
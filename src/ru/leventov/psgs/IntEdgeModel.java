@@ -0,0 +1,13 @@
+package ru.leventov.psgs;
+
+import ru.leventov.psgs.io.DataWriter;
+
+/**
+ * Marks {@link EdgeModel}s with int edge data, which the model must write by a single
+ * {@code writeInt()} call and read by {@code readInt()}. Edges of such models are kept
+ * in {@link NodeIdIntEdgeMap}s by default, and {@link Edges#getInt(int, int)},
+ * {@link Edges#forEachInt(gnu.trove.function.IntIntConsumer)} and
+ * {@link Edges#testIntsWhile(gnu.trove.function.IntIntPredicate)} read them without boxing.
+ */
+public interface IntEdgeModel extends DataWriter<Integer> {
+}
@@ -0,0 +1,139 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+
+import java.util.Arrays;
+
+/**
+ * Intersections of target sets of edge maps. Targets of sorted array maps and of views over the stored edges
+ * are copied in the ascending order, targets of other maps are sorted. Sorted targets are intersected
+ * by merge, if the sizes are close, or by galloping through the larger array, if they differ more than
+ * {@link #GALLOP_RATIO} times. If the sizes are skewed and the larger map is not sorted, e. g. a hash map,
+ * targets of the smaller one are probed in it instead.
+ */
+final class Intersections {
+    /** Beyond this ratio of sizes the larger sorted array is galloped rather than merged */
+    static final int GALLOP_RATIO = 8;
+
+    /**
+     * @param action receives common targets, could be null
+     * @return the number of common targets
+     */
+    static int intersect(NodeIdEdgeMap<?> a, NodeIdEdgeMap<?> b, IntConsumer action) {
+        NodeIdEdgeMap<?> small = a.size() <= b.size() ? a : b;
+        NodeIdEdgeMap<?> large = small == a ? b : a;
+        if (small.isEmpty())
+            return 0;
+        int[] largeTargets = new int[large.size()];
+        if (!copySortedTargets(large, largeTargets)) {
+            if (large.size() / GALLOP_RATIO > small.size())
+                return probe(small, large, action);
+            sortTargets(large, largeTargets);
+        }
+        int[] smallTargets = new int[small.size()];
+        if (!copySortedTargets(small, smallTargets))
+            sortTargets(small, smallTargets);
+        return intersectSorted(smallTargets, largeTargets, action);
+    }
+
+    private static int probe(NodeIdEdgeMap<?> small, final NodeIdEdgeMap<?> large, final IntConsumer action) {
+        final int[] count = {0};
+        small.forEachNodeId(new IntConsumer() {
+            @Override
+            public void accept(int target) {
+                if (large.containsNodeId(target)) {
+                    count[0]++;
+                    if (action != null)
+                        action.accept(target);
+                }
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Copies the targets of a sorted array map or a view in the ascending order, as signed ints
+     *
+     * @return false, if the targets of the map are not stored sorted, and nothing is copied
+     */
+    private static boolean copySortedTargets(NodeIdEdgeMap<?> map, int[] dst) {
+        if (map instanceof NodeIdNoDataArrayMap)
+            return ((NodeIdNoDataArrayMap) map).copyTargets(dst);
+        if (map instanceof NodeIdEdgeArrayMap)
+            return ((NodeIdEdgeArrayMap<?>) map).copyTargets(dst);
+        if (map instanceof MappedNodeIdEdgeMap && ((MappedNodeIdEdgeMap<?>) map).copyTargets(dst)) {
+            // views are in the unsigned order, negative targets follow the others
+            int size = map.size();
+            int firstNegative = size;
+            while (firstNegative > 0 && dst[firstNegative - 1] < 0) {
+                firstNegative--;
+            }
+            if (firstNegative > 0 && firstNegative < size) {
+                int[] negative = Arrays.copyOfRange(dst, firstNegative, size);
+                System.arraycopy(dst, 0, dst, negative.length, firstNegative);
+                System.arraycopy(negative, 0, dst, 0, negative.length);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void sortTargets(NodeIdEdgeMap<?> map, final int[] dst) {
+        map.forEachNodeId(new IntConsumer() {
+            private int i = 0;
+
+            @Override
+            public void accept(int target) {
+                dst[i++] = target;
+            }
+        });
+        Arrays.sort(dst);
+    }
+
+    /**
+     * @param small sorted targets, not longer than {@code large}
+     */
+    static int intersectSorted(int[] small, int[] large, IntConsumer action) {
+        int count = 0;
+        int j = 0;
+        if (large.length / GALLOP_RATIO > small.length) {
+            for (int i = 0; i < small.length && j < large.length; i++) {
+                int target = small[i];
+                // exponential steps from the last position, then binary search within the last step
+                int step = 1, high = j;
+                while (high < large.length && large[high] < target) {
+                    j = high + 1;
+                    high += step;
+                    step <<= 1;
+                }
+                int pos = Arrays.binarySearch(large, j, Math.min(high + 1, large.length), target);
+                if (pos >= 0) {
+                    count++;
+                    if (action != null)
+                        action.accept(target);
+                    j = pos + 1;
+                } else {
+                    j = -pos - 1;
+                }
+            }
+        } else {
+            for (int i = 0; i < small.length && j < large.length; ) {
+                int smallTarget = small[i], largeTarget = large[j];
+                if (smallTarget < largeTarget) {
+                    i++;
+                } else if (smallTarget > largeTarget) {
+                    j++;
+                } else {
+                    count++;
+                    if (action != null)
+                        action.accept(smallTarget);
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private Intersections() {}
+}
@@ -0,0 +1,13 @@
+package ru.leventov.psgs;
+
+import ru.leventov.psgs.io.DataWriter;
+
+/**
+ * Marks {@link EdgeModel}s with long edge data, which the model must write by a single
+ * {@code writeLong()} call and read by {@code readLong()}. Edges of such models are kept
+ * in {@link NodeIdLongEdgeMap}s by default, and {@link Edges#getLong(int, long)},
+ * {@link Edges#forEachLong(gnu.trove.function.IntLongConsumer)} and
+ * {@link Edges#testLongsWhile(gnu.trove.function.IntLongPredicate)} read them without boxing.
+ */
+public interface LongEdgeModel extends DataWriter<Long> {
+}
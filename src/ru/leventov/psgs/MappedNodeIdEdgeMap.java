@@ -0,0 +1,432 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntIntPredicate;
+import gnu.trove.function.IntObjConsumer;
+import gnu.trove.function.IntObjPredicate;
+import gnu.trove.function.IntPredicate;
+import gnu.trove.map.IntKeyMapIterator;
+import ru.leventov.psgs.io.ByteArrayListDataOutput;
+import ru.leventov.psgs.io.ByteBufferDataIO;
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+
+import java.nio.ByteBuffer;
+
+import static ru.leventov.psgs.util.ByteBuffers.duplicate;
+
+/**
+ * Read-only view of the edges, stored in the {@link AdjacencyEncoding#SORTED} or
+ * {@link AdjacencyEncoding#DELTA_VARINT} encoding, right over the buffer of the data file. Targets are found
+ * by binary search, of {@link AdjacencyEncoding#DELTA_VARINT} - over the skip entries, then within a block.
+ * On the first mutation the edges are copied to the map, created by {@link EdgeModel#newMap(int)},
+ * and the view delegates all operations to it.
+ */
+final class MappedNodeIdEdgeMap<ED> implements NodeIdEdgeMap<ED> {
+    private final EdgeModel<?, ?, ED> model;
+    private final AdjacencyEncoding encoding;
+    /** Encoded edges from the position 0, not including the edge count. Read only by absolute methods */
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int dataSize;
+    /** Skip entries of {@link AdjacencyEncoding#DELTA_VARINT}, the targets follow them */
+    private final int skipEntries;
+    private final int targetsStart;
+    /** Lazily computed for {@link AdjacencyEncoding#DELTA_VARINT} */
+    private int dataStart;
+
+    private NodeIdEdgeMap<ED> materialized;
+
+    MappedNodeIdEdgeMap(EdgeModel<?, ?, ED> model, AdjacencyEncoding encoding, int size, ByteBuffer buffer) {
+        this.model = model;
+        this.encoding = encoding;
+        this.size = size;
+        this.buffer = buffer;
+        dataSize = model.dataSize();
+        if (encoding == AdjacencyEncoding.SORTED) {
+            skipEntries = 0;
+            dataStart = size * 4;
+        } else {
+            skipEntries = AdjacencyEncoding.deltaSkipEntries(size);
+            dataStart = -1;
+        }
+        targetsStart = skipEntries * AdjacencyEncoding.DELTA_SKIP_ENTRY_SIZE;
+    }
+
+    /**
+     * Cursor over the stored targets in the ascending unsigned order
+     */
+    private final class TargetCursor {
+        int index = -1;
+        int target = 0;
+        private int pos = targetsStart;
+
+        boolean tryAdvance() {
+            if (index + 1 >= size)
+                return false;
+            index++;
+            if (encoding == AdjacencyEncoding.SORTED) {
+                target = buffer.getInt(pos);
+                pos += 4;
+            } else {
+                int gap = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = buffer.get(pos++);
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0)
+                        break;
+                }
+                target += gap;
+            }
+            return true;
+        }
+    }
+
+    private int dataStart() {
+        int start = dataStart;
+        if (start < 0) {
+            // the last byte of each varint has the high bit clear, count them from the last block
+            start = targetsStart;
+            int remaining = size;
+            if (skipEntries > 0) {
+                start += buffer.getInt((skipEntries - 1) * AdjacencyEncoding.DELTA_SKIP_ENTRY_SIZE + 4);
+                remaining -= skipEntries * AdjacencyEncoding.DELTA_BLOCK;
+            }
+            for (; remaining > 0; start++) {
+                if (buffer.get(start) >= 0)
+                    remaining--;
+            }
+            dataStart = start;
+        }
+        return start;
+    }
+
+    private DataInput dataInput() {
+        return new ByteBufferDataIO(duplicate(buffer));
+    }
+
+    private ED readData(DataInput in, int index, ED targetData) {
+        ((ByteBufferDataIO) in).getBuffer().position(dataStart() + index * dataSize);
+        return model.readData(in, targetData);
+    }
+
+    /**
+     * @return index of the target in the stored order, or -1 if it is not stored
+     */
+    private int indexOf(int nodeId) {
+        int key = nodeId ^ Integer.MIN_VALUE;
+        if (encoding == AdjacencyEncoding.SORTED) {
+            int low = 0, high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midKey = buffer.getInt(mid * 4) ^ Integer.MIN_VALUE;
+                if (midKey < key) {
+                    low = mid + 1;
+                } else if (midKey > key) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+        // the last block, which first target is less than the key
+        int block = 0;
+        int low = 0, high = skipEntries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = buffer.getInt(mid * AdjacencyEncoding.DELTA_SKIP_ENTRY_SIZE) ^ Integer.MIN_VALUE;
+            if (midKey < key) {
+                block = mid + 1;
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return (mid + 1) * AdjacencyEncoding.DELTA_BLOCK;
+            }
+        }
+        int index = block * AdjacencyEncoding.DELTA_BLOCK;
+        int end = Math.min(size, index + AdjacencyEncoding.DELTA_BLOCK);
+        int pos = targetsStart;
+        int target = 0;
+        if (block > 0) {
+            int entry = (block - 1) * AdjacencyEncoding.DELTA_SKIP_ENTRY_SIZE;
+            target = buffer.getInt(entry);
+            pos += buffer.getInt(entry + 4);
+            // the first target of the block is known, skip its gap
+            while (buffer.get(pos++) < 0);
+            index++;
+        }
+        for (; index < end; index++) {
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(pos++);
+                gap |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    break;
+            }
+            target += gap;
+            int targetKey = target ^ Integer.MIN_VALUE;
+            if (targetKey >= key)
+                return targetKey == key ? index : -1;
+        }
+        return -1;
+    }
+
+    private NodeIdEdgeMap<ED> copy() {
+        final NodeIdEdgeMap<ED> map = model.newMap(size);
+        forEach(new IntObjConsumer<ED>() {
+            @Override
+            public void accept(int nodeId, ED data) {
+                map.justAddEdgeTo(nodeId, data);
+            }
+        }, false);
+        return map;
+    }
+
+    private NodeIdEdgeMap<ED> materialized() {
+        if (materialized == null)
+            materialized = copy();
+        return materialized;
+    }
+
+    /**
+     * @return the materialized map, or null if the view is not mutated yet
+     */
+    NodeIdEdgeMap<ED> materializedOrNull() {
+        return materialized;
+    }
+
+    /**
+     * The stored edges, for absolute reads of the data at the offsets from {@link #dataOffset(int)}
+     * and {@link #testDataOffsetsWhile(IntIntPredicate)}
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * The view shouldn't be materialized
+     *
+     * @return offset of the data of the edge to the target in {@link #buffer()}, or -1 if it is not stored
+     */
+    int dataOffset(int nodeId) {
+        int index = indexOf(nodeId);
+        return index >= 0 ? dataStart() + index * dataSize : -1;
+    }
+
+    /**
+     * Tests the stored targets with the offsets of their data in {@link #buffer()}. The view shouldn't
+     * be materialized
+     */
+    boolean testDataOffsetsWhile(IntIntPredicate predicate) {
+        TargetCursor cursor = new TargetCursor();
+        int dataOffset = dataStart();
+        while (cursor.tryAdvance()) {
+            if (!predicate.test(cursor.target, dataOffset))
+                return false;
+            dataOffset += dataSize;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the stored targets in the ascending unsigned order to the array, which should be at least
+     * {@link #size()} long
+     *
+     * @return false, if the view is materialized, and nothing is copied
+     */
+    boolean copyTargets(int[] dst) {
+        if (materialized != null)
+            return false;
+        TargetCursor cursor = new TargetCursor();
+        while (cursor.tryAdvance()) {
+            dst[cursor.index] = cursor.target;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the stored bytes, if the view is not materialized and the encoding and the byte order match
+     *
+     * @return true if copied
+     */
+    boolean copyEncodedTo(AdjacencyEncoding encoding, ByteArrayListDataOutput out) {
+        if (materialized != null || this.encoding != encoding || !out.getBuffer().order().equals(buffer.order()))
+            return false;
+        ByteBuffer encoded = duplicate(buffer);
+        encoded.position(0).limit(dataStart() + size * dataSize);
+        out.write(encoded);
+        return true;
+    }
+
+    @Override
+    public ED addEdgeTo(int nodeId, ED newData) {
+        return materialized().addEdgeTo(nodeId, newData);
+    }
+
+    @Override
+    public boolean justAddEdgeTo(int nodeId, ED edgeData) {
+        return materialized().justAddEdgeTo(nodeId, edgeData);
+    }
+
+    @Override
+    public ED removeEdgeTo(int nodeId) {
+        return materialized().removeEdgeTo(nodeId);
+    }
+
+    @Override
+    public boolean justRemoveEdgeTo(int nodeId) {
+        return materialized().justRemoveEdgeTo(nodeId);
+    }
+
+    @Override
+    public int size() {
+        return materialized != null ? materialized.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsNodeId(int nodeId) {
+        if (materialized != null)
+            return materialized.containsNodeId(nodeId);
+        return indexOf(nodeId) >= 0;
+    }
+
+    @Override
+    public ED getEdgeData(int nodeId) {
+        if (materialized != null)
+            return materialized.getEdgeData(nodeId);
+        int index = indexOf(nodeId);
+        return index >= 0 ? readData(dataInput(), index, null) : null;
+    }
+
+    @Override
+    public IntKeyMapIterator<ED> iterator() {
+        if (materialized != null)
+            return materialized.iterator();
+        return new ViewIterator();
+    }
+
+    /**
+     * Iterates the stored edges, even if they are changed via {@link #setValue(Object)} or {@link #remove()}
+     */
+    private final class ViewIterator implements IntKeyMapIterator<ED> {
+        private final TargetCursor cursor = new TargetCursor();
+        private final DataInput in = dataInput();
+        private ED data;
+        private boolean dataActual = false;
+
+        @Override
+        public int intKey() {
+            return cursor.target;
+        }
+
+        @Override
+        public Integer key() {
+            return cursor.target;
+        }
+
+        @Override
+        public ED value() {
+            if (!dataActual) {
+                data = readData(in, cursor.index, data);
+                dataActual = true;
+            }
+            return data;
+        }
+
+        @Override
+        public void setValue(ED value) {
+            materialized().justAddEdgeTo(cursor.target, value);
+            data = value;
+            dataActual = true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.index + 1 < size;
+        }
+
+        @Override
+        public boolean tryAdvance() {
+            dataActual = false;
+            return cursor.tryAdvance();
+        }
+
+        @Override
+        public void remove() {
+            materialized().justRemoveEdgeTo(cursor.target);
+        }
+    }
+
+    @Override
+    public void forEach(IntObjConsumer<? super ED> action) {
+        if (materialized != null) {
+            materialized.forEach(action);
+        } else {
+            forEach(action, true);
+        }
+    }
+
+    /**
+     * @param reuseData if false, a new data object is read for each edge
+     */
+    private void forEach(IntObjConsumer<? super ED> action, boolean reuseData) {
+        TargetCursor cursor = new TargetCursor();
+        DataInput in = dataInput();
+        ED data = null;
+        while (cursor.tryAdvance()) {
+            data = readData(in, cursor.index, reuseData ? data : null);
+            action.accept(cursor.target, data);
+        }
+    }
+
+    @Override
+    public boolean testWhile(IntObjPredicate<? super ED> predicate) {
+        if (materialized != null)
+            return materialized.testWhile(predicate);
+        TargetCursor cursor = new TargetCursor();
+        DataInput in = dataInput();
+        ED data = null;
+        while (cursor.tryAdvance()) {
+            data = readData(in, cursor.index, data);
+            if (!predicate.test(cursor.target, data))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void forEachNodeId(IntConsumer action) {
+        if (materialized != null) {
+            materialized.forEachNodeId(action);
+            return;
+        }
+        TargetCursor cursor = new TargetCursor();
+        while (cursor.tryAdvance()) {
+            action.accept(cursor.target);
+        }
+    }
+
+    @Override
+    public boolean testNodeIdsWhile(IntPredicate predicate) {
+        if (materialized != null)
+            return materialized.testNodeIdsWhile(predicate);
+        TargetCursor cursor = new TargetCursor();
+        while (cursor.tryAdvance()) {
+            if (!predicate.test(cursor.target))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void writeData(DataOutput out) {
+        (materialized != null ? materialized : copy()).writeData(out);
+    }
+}
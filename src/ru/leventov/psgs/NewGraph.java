@@ -1,14 +1,21 @@
 package ru.leventov.psgs;
 
 import gnu.trove.function.Consumer;
+import gnu.trove.function.IntConsumer;
 import gnu.trove.function.IntFunction;
 import gnu.trove.map.hash.IntObjDHashMap;
 import gnu.trove.map.hash.TIntObjHashMap;
 import ru.leventov.psgs.index.NewBTreeIndex;
+import ru.leventov.psgs.io.ByteArrayListDataOutput;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
 
 import static ru.leventov.psgs.util.Bits.unsignedInt;
 
@@ -133,21 +140,252 @@ public class NewGraph extends Graph {
     }
 
     public void write(Path dir, final ByteOrder byteOrder) throws IOException {
-        try (NewGraphSerializationState serialization = new NewGraphSerializationState(dir, byteOrder)) {
-            for (Node node : nodes.values()) {
-                serialization.writeNode(node);
+        write(dir, byteOrder, 1, NodeLayout.ID_ORDER, false);
+    }
+
+    /**
+     * Node descriptors are inserted to the index in ascending order of ids, so that it is built bottom-up,
+     * regardless of the layout
+     */
+    private Node[] nodesInIdOrder() {
+        int[] ids = nodes.keySet().toIntArray();
+        Arrays.sort(ids);
+        Node[] nodeArray = new Node[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            nodeArray[i] = nodes.get(ids[i]);
+        }
+        return nodeArray;
+    }
+
+    /**
+     * Writes the graph same as {@link #write(Path, ByteOrder)}, but nodes are encoded by the given number
+     * of threads. The output is identical.
+     */
+    public void write(Path dir, final ByteOrder byteOrder, int threads) throws IOException {
+        write(dir, byteOrder, threads, NodeLayout.ID_ORDER, false);
+    }
+
+    /**
+     * Writes the graph with nodes placed in the data file in the given layout. To compare layouts,
+     * including {@link NodeLayout#ID_ORDER}, the average distance between offsets of adjacent nodes
+     * is reported in the stats of metadata. It takes a lookup of each edge target, so the writes without
+     * a layout don't report it.
+     *
+     * @param threads the number of threads to encode nodes, the output doesn't depend on it
+     */
+    public void write(Path dir, final ByteOrder byteOrder, int threads, NodeLayout layout) throws IOException {
+        write(dir, byteOrder, threads, layout, true);
+    }
+
+    private void write(Path dir, ByteOrder byteOrder, int threads, NodeLayout layout,
+                       boolean countNeighborOffsetDistance) throws IOException {
+        Node[] nodeArray = layout.order(nodesInIdOrder());
+        try (NewGraphSerializationState serialization =
+                     new NewGraphSerializationState(dir, byteOrder, true)) {
+            if (threads <= 1) {
+                for (Node node : nodeArray) {
+                    serialization.writeNode(node);
+                }
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    serialization.writeNodes(nodeArray, executor, 2 * threads);
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+            if (countNeighborOffsetDistance)
+                serialization.countAverageNeighborOffsetDistance(nodeArray);
+        }
+    }
+
+    private static final int BATCH_SIZE = 1 << 12;
+    private static final int BATCH_OUTPUT_INITIAL_CAPACITY = 1 << 20;
+
+    /**
+     * Nodes encoded in the format of the data file, with offsets relative to the start of the batch
+     */
+    static final class EncodedBatch {
+        final ByteArrayListDataOutput out;
+        final StatsAggregator statsAggregator = new StatsAggregator();
+        final int[] offsets;
+        final byte[] adjCounts;
+
+        EncodedBatch(Node[] nodes, int from, int to, ByteOrder byteOrder) throws IOException {
+            out = new ByteArrayListDataOutput(BATCH_OUTPUT_INITIAL_CAPACITY, byteOrder);
+            offsets = new int[to - from];
+            adjCounts = new byte[to - from];
+            NodeEncoder nodeEncoder = new NodeEncoder(out, statsAggregator);
+            for (int i = from; i < to; i++) {
+                offsets[i - from] = out.position();
+                adjCounts[i - from] = (byte) nodeEncoder.encode(nodes[i]);
             }
         }
     }
 
     class NewGraphSerializationState extends SerializationState {
 
-        NewGraphSerializationState(Path dir, ByteOrder byteOrder) throws IOException {
-            super(dir, byteOrder, defaultFormat(), new NewBTreeIndex(byteOrder, 8));
+        private final boolean bufferDescriptors;
+        // descriptors of written nodes, in the order of writing until sortDescriptors()
+        private int[] ids;
+        private long[] offsets;
+        private byte[] classIdsAndAdjCounts;
+        private int written = 0;
+        private Double averageNeighborOffsetDistance;
+
+        /**
+         * @param bufferDescriptors if true, descriptors are inserted to the index sorted by node ids
+         *                          on closing, so nodes could be written in any order
+         */
+        NewGraphSerializationState(Path dir, ByteOrder byteOrder, boolean bufferDescriptors) throws IOException {
+            // descriptors start with the node class id, which is never zero
+            super(dir, byteOrder, defaultFormat(),
+                    new NewBTreeIndex(byteOrder, 8, NewBTreeIndex.DEFAULT_FILL_FACTOR, true));
+            this.bufferDescriptors = bufferDescriptors;
+            if (bufferDescriptors) {
+                ids = new int[1024];
+                offsets = new long[1024];
+                classIdsAndAdjCounts = new byte[2048];
+            }
+        }
+
+        @Override
+        void writeDescriptor(int nodeId, byte nodeClassId, int adjCount, long dataOffset) {
+            if (!bufferDescriptors) {
+                super.writeDescriptor(nodeId, nodeClassId, adjCount, dataOffset);
+                return;
+            }
+            if (written == ids.length) {
+                ids = Arrays.copyOf(ids, written * 2);
+                offsets = Arrays.copyOf(offsets, written * 2);
+                classIdsAndAdjCounts = Arrays.copyOf(classIdsAndAdjCounts, written * 4);
+            }
+            ids[written] = nodeId;
+            offsets[written] = dataOffset;
+            classIdsAndAdjCounts[2 * written] = nodeClassId;
+            classIdsAndAdjCounts[2 * written + 1] = (byte) adjCount;
+            written++;
+        }
+
+        private void sortDescriptors() {
+            boolean sorted = true;
+            for (int i = 1; i < written && sorted; i++) {
+                sorted = ids[i - 1] < ids[i];
+            }
+            if (sorted)
+                return;
+            long[] idsAndPositions = new long[written];
+            for (int i = 0; i < written; i++) {
+                idsAndPositions[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(idsAndPositions);
+            int[] sortedIds = new int[written];
+            long[] sortedOffsets = new long[written];
+            byte[] sortedClassIdsAndAdjCounts = new byte[2 * written];
+            for (int i = 0; i < written; i++) {
+                int pos = (int) idsAndPositions[i];
+                sortedIds[i] = ids[pos];
+                sortedOffsets[i] = offsets[pos];
+                sortedClassIdsAndAdjCounts[2 * i] = classIdsAndAdjCounts[2 * pos];
+                sortedClassIdsAndAdjCounts[2 * i + 1] = classIdsAndAdjCounts[2 * pos + 1];
+            }
+            ids = sortedIds;
+            offsets = sortedOffsets;
+            classIdsAndAdjCounts = sortedClassIdsAndAdjCounts;
+        }
+
+        void countAverageNeighborOffsetDistance(Node[] nodes) {
+            sortDescriptors();
+            final double[] distanceSum = new double[1];
+            final long[] neighbors = new long[1];
+            for (Node node : nodes) {
+                final long offset = offsets[Arrays.binarySearch(ids, 0, written, node.getId())];
+                NodeLayout.forEachNeighborId(node, new IntConsumer() {
+                    @Override
+                    public void accept(int targetId) {
+                        int targetPos = Arrays.binarySearch(ids, 0, written, targetId);
+                        // targets, which are not nodes of the graph, don't have offsets
+                        if (targetPos < 0)
+                            return;
+                        distanceSum[0] += Math.abs(offsets[targetPos] - offset);
+                        neighbors[0]++;
+                    }
+                });
+            }
+            averageNeighborOffsetDistance = neighbors[0] > 0 ? distanceSum[0] / neighbors[0] : 0.0;
+        }
+
+        @Override
+        void fillMetadata() throws IOException {
+            super.fillMetadata();
+            metadata.stats.averageNeighborOffsetDistance = averageNeighborOffsetDistance;
+        }
+
+        /**
+         * Batches of nodes are encoded by the executor and appended in order, at most {@code maxInFlight}
+         * batches are held in memory
+         */
+        void writeNodes(final Node[] nodes, ExecutorService executor, int maxInFlight) throws IOException {
+            final ByteOrder byteOrder = metadata.byteOrder;
+            ArrayDeque<Future<EncodedBatch>> inFlight = new ArrayDeque<>();
+            int batchStart = 0, appended = 0;
+            while (batchStart < nodes.length || !inFlight.isEmpty()) {
+                while (inFlight.size() < maxInFlight && batchStart < nodes.length) {
+                    final int from = batchStart;
+                    final int to = Math.min(from + BATCH_SIZE, nodes.length);
+                    inFlight.add(executor.submit(new Callable<EncodedBatch>() {
+                        @Override
+                        public EncodedBatch call() throws IOException {
+                            return new EncodedBatch(nodes, from, to, byteOrder);
+                        }
+                    }));
+                    batchStart = to;
+                }
+                EncodedBatch batch = awaitBatch(inFlight.poll());
+                appendBatch(nodes, appended, batch);
+                appended += batch.offsets.length;
+            }
+        }
+
+        private EncodedBatch awaitBatch(Future<EncodedBatch> batch) throws IOException {
+            try {
+                return batch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new RuntimeException(cause);
+            }
+        }
+
+        private void appendBatch(Node[] nodes, int from, EncodedBatch batch) throws IOException {
+            flush();
+            long batchOffset = dataChannel.position();
+            for (int i = 0; i < batch.offsets.length; i++) {
+                Node node = nodes[from + i];
+                writeDescriptor(node.getId(), node.getClassId(), batch.adjCounts[i],
+                        batchOffset + batch.offsets[i]);
+            }
+            ByteBuffer buffer = batch.out.getBuffer();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                dataChannel.write(buffer);
+            }
+            statsAggregator.merge(batch.statsAggregator);
         }
 
         @Override
         public void close() throws IOException {
+            if (bufferDescriptors) {
+                sortDescriptors();
+                for (int i = 0; i < written; i++) {
+                    super.writeDescriptor(ids[i], classIdsAndAdjCounts[2 * i], classIdsAndAdjCounts[2 * i + 1],
+                            offsets[i]);
+                }
+            }
             ((NewBTreeIndex) nodeIndex).write(nodeIndexDir(dir));
             writeMetadata();
             super.close();
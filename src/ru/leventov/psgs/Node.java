@@ -7,16 +7,63 @@ import ru.leventov.psgs.io.DataOutput;
 import ru.leventov.psgs.io.DataWritable;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public abstract class Node implements DataWritable {
 
-    public static Node newNode(Class<?> nodeClass) {
+    private static final ConcurrentMap<Class<?>, NodeFactory<?>> factories = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the factory, which graphs use instead of the no-args constructor to create nodes
+     * of the class, when they are loaded. Should be called before graphs with such nodes are opened.
+     */
+    public static <N extends Node> void registerFactory(Class<N> nodeClass, NodeFactory<? extends N> factory) {
+        factories.put(nodeClass, factory);
+    }
+
+    /**
+     * @return the registered factory, or the factory calling the no-args constructor via a method handle
+     */
+    static NodeFactory<?> factory(Class<?> nodeClass) {
+        NodeFactory<?> factory = factories.get(nodeClass);
+        if (factory == null) {
+            factory = constructorFactory(nodeClass);
+            NodeFactory<?> registered = factories.putIfAbsent(nodeClass, factory);
+            if (registered != null)
+                factory = registered;
+        }
+        return factory;
+    }
+
+    private static NodeFactory<?> constructorFactory(Class<?> nodeClass) {
+        final MethodHandle constructor;
         try {
-            return (Node) nodeClass.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
+            constructor = MethodHandles.lookup().findConstructor(nodeClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Node.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new RuntimeException("Node class must have a public no-args constructor", e);
         }
+        return new NodeFactory<Node>() {
+            @Override
+            public Node newNode() {
+                try {
+                    return (Node) constructor.invokeExact();
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }
+        };
+    }
+
+    public static Node newNode(Class<?> nodeClass) {
+        return factory(nodeClass).newNode();
     }
 
 	private int id;
@@ -111,6 +158,13 @@ public abstract class Node implements DataWritable {
         changed = true;
     }
 
+    /**
+     * Call only from Graph subclasses, when changes of the node are durably stored
+     */
+    final void committed() {
+        changed = false;
+    }
+
     void removeFromGraph() {
         byte[] modelIds = this.modelIds;
         if (modelIds == null) {
@@ -162,10 +216,16 @@ public abstract class Node implements DataWritable {
             } else {
                 // noinspection unchecked
                 edges = new Edges<>(edgeModel, (S) this, null);
+                // the node has no edges of the model, so the empty edges are not kept in a shared node
+                if (graph.sharesNodes())
+                    return edges;
                 addEdges(edgeModelId, edges);
             }
-            cachedEdgeModelId = edgeModelId;
-            cachedEdges = edges;
+            // the cache is two fields, so it is not updated in a shared node
+            if (!graph.sharesNodes()) {
+                cachedEdgeModelId = edgeModelId;
+                cachedEdges = edges;
+            }
             return edges;
         }
     }
@@ -180,10 +240,12 @@ public abstract class Node implements DataWritable {
         } else {
             int modelIndex = indexOf(modelIds, uniqueEdgeModelId);
             if (modelIndex >= 0) {
-                cachedUniqueEdgeModelId = uniqueEdgeModelId;
                 // noinspection unchecked
                 UniqueEdge<S, T, ED> edge = (UniqueEdge<S, T, ED>) adjacent[modelIndex + 1];
-                cachedUniqueEdge = edge;
+                if (graph == null || !graph.sharesNodes()) {
+                    cachedUniqueEdgeModelId = uniqueEdgeModelId;
+                    cachedUniqueEdge = edge;
+                }
                 return edge;
             }
             if (create) {
@@ -0,0 +1,201 @@
+package ru.leventov.psgs;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static ru.leventov.psgs.util.Bits.upperPowerOf2;
+
+/**
+ * Cache of unchanged nodes by ids: 8-way set-associative, with CLOCK eviction within a set and TinyLFU
+ * admission. When a set is full, the node is admitted only if its id was requested more often than the id
+ * of the CLOCK victim, estimated by a count-min sketch, so that nodes, requested once by a scan, don't
+ * evict hubs.
+ *
+ * <p>Lookups are lock-free: nodes are published with release stores and read with volatile loads.
+ * Insertions and removals lock the set. The sketch and reference bits are updated racily, lost updates
+ * only make the estimates a bit less accurate.
+ */
+final class NodeCache {
+    private static final int WAYS = 8;
+    private static final int LOCK_STRIPES = 64;
+
+    private final AtomicReferenceArray<Node> slots;
+    private final byte[] referenced;
+    /** CLOCK hands by sets, guarded by the set locks */
+    private final byte[] hands;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final int setMask;
+    private final FrequencySketch sketch;
+
+    /**
+     * @param capacity maximum number of cached nodes, rounded up to a power of 2
+     */
+    NodeCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive, " + capacity + " given");
+        int sets = (int) Math.max(upperPowerOf2(capacity) / WAYS, 1);
+        setMask = sets - 1;
+        slots = new AtomicReferenceArray<>(sets * WAYS);
+        referenced = new byte[sets * WAYS];
+        hands = new byte[sets];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        sketch = new FrequencySketch(sets * WAYS);
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    private static int hash(int id) {
+        int x = id;
+        x ^= (x >>> 16);
+        x *= 0x85ebca6b;
+        x ^= x >>> 13;
+        x *= 0xc2b2ae35;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    /**
+     * Records the request of the id and returns the cached node, or null
+     */
+    Node get(int id) {
+        int hash = hash(id);
+        sketch.increment(hash);
+        int base = (hash & setMask) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            Node node = slots.get(i);
+            if (node != null && node.getId() == id) {
+                referenced[i] = 1;
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached node, or null, without recording the request
+     */
+    Node peek(int id) {
+        int base = (hash(id) & setMask) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            Node node = slots.get(i);
+            if (node != null && node.getId() == id)
+                return node;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the node, replacing the cached node with the same id, or not, if the admission policy rejects it
+     */
+    void put(int id, Node node) {
+        int hash = hash(id);
+        int set = hash & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (LOCK_STRIPES - 1)]) {
+            int free = -1;
+            for (int i = base; i < base + WAYS; i++) {
+                Node cached = slots.get(i);
+                if (cached == null) {
+                    if (free < 0) free = i;
+                } else if (cached.getId() == id) {
+                    slots.lazySet(i, node);
+                    return;
+                }
+            }
+            if (free >= 0) {
+                slots.lazySet(free, node);
+                return;
+            }
+            int hand = hands[set];
+            while (referenced[base + hand] != 0) {
+                referenced[base + hand] = 0;
+                hand = (hand + 1) & (WAYS - 1);
+            }
+            hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+            int victim = base + hand;
+            if (sketch.frequency(hash) > sketch.frequency(hash(slots.get(victim).getId()))) {
+                referenced[victim] = 0;
+                slots.lazySet(victim, node);
+            }
+        }
+    }
+
+    /**
+     * @return the removed node, or null if the node with the id is not cached
+     */
+    Node remove(int id) {
+        int set = hash(id) & setMask;
+        int base = set * WAYS;
+        synchronized (locks[set & (LOCK_STRIPES - 1)]) {
+            for (int i = base; i < base + WAYS; i++) {
+                Node cached = slots.get(i);
+                if (cached != null && cached.getId() == id) {
+                    slots.set(i, null);
+                    return cached;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, 4 counters per id. Counters are halved after the number
+     * of increments reaches 10 times the cache capacity, so that the estimates reflect recent requests.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f};
+
+        /** 8 counters per int */
+        private final int[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size = 0;
+
+        FrequencySketch(int capacity) {
+            table = new int[(int) Math.max(upperPowerOf2(capacity) / 2, 1)];
+            tableMask = table.length - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        private static int counterHash(int hash, int i) {
+            int h = (hash + SEEDS[i]) * SEEDS[i];
+            return h ^ (h >>> 15);
+        }
+
+        void increment(int hash) {
+            boolean incremented = false;
+            for (int i = 0; i < 4; i++) {
+                int h = counterHash(hash, i);
+                int index = h & tableMask;
+                int shift = (h >>> 29) << 2;
+                int word = table[index];
+                if (((word >>> shift) & 0xF) < 0xF) {
+                    table[index] = word + (1 << shift);
+                    incremented = true;
+                }
+            }
+            if (incremented && ++size >= sampleSize)
+                reset();
+        }
+
+        int frequency(int hash) {
+            int frequency = 0xF;
+            for (int i = 0; i < 4; i++) {
+                int h = counterHash(hash, i);
+                int shift = (h >>> 29) << 2;
+                frequency = Math.min(frequency, (table[h & tableMask] >>> shift) & 0xF);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x77777777;
+            }
+            size /= 2;
+        }
+    }
+}
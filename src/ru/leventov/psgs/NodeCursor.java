@@ -0,0 +1,248 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntPredicate;
+import ru.leventov.psgs.index.BTreeIndex;
+import ru.leventov.psgs.io.ByteBufferDataIO;
+import ru.leventov.psgs.io.MemoryMappedFile;
+
+import java.nio.ByteOrder;
+
+import static ru.leventov.psgs.util.Bits.unsignedByte;
+
+/**
+ * Read-only flyweight over the stored nodes of {@link ExistingGraph}, opened for reading. The cursor is moved
+ * to a node by {@link #moveTo(int)}, and reads the class, the node data and the edges right from the node
+ * index and the data file, without creating {@link Node} and {@link Edges} objects. Moves and reads don't
+ * allocate, except iteration of targets of the models with {@link AdjacencyEncoding#PLAIN} encoding, which are
+ * read to a map.
+ *
+ * <p>A cursor is not thread-safe, but threads could use their own cursors over the same graph.
+ */
+public final class NodeCursor {
+    private final ExistingGraph graph;
+    private final BTreeIndex nodeIndex;
+    private final MemoryMappedFile data;
+    private final boolean bigEndian;
+
+    private int nodeId = 0;
+    private byte nodeClassId;
+    private int adjCount;
+    /** Offset of the node data in the data file, after the size of the data */
+    private long nodeDataOffset;
+    private int nodeDataSize;
+
+    NodeCursor(ExistingGraph graph, BTreeIndex nodeIndex, MemoryMappedFile data, ByteOrder byteOrder) {
+        this.graph = graph;
+        this.nodeIndex = nodeIndex;
+        this.data = data;
+        bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+    }
+
+    /**
+     * @return false, if the graph doesn't contain the node, then the cursor isn't positioned
+     */
+    public boolean moveTo(int nodeId) {
+        if (nodeId == 0)
+            throw new IllegalArgumentException("Node id couldn't be 0.");
+        // node class id, adjacency count and 6-byte data offset, see Graph.read6BytesDataOffset()
+        long descriptor = nodeIndex.getValueLong(nodeId, 0, 0L);
+        byte nodeClassId;
+        long dataOffset;
+        if (bigEndian) {
+            nodeClassId = (byte) (descriptor >>> 56);
+            adjCount = (int) (descriptor >>> 48) & 0xFF;
+            dataOffset = descriptor & 0xFFFFFFFFFFFFL;
+        } else {
+            nodeClassId = (byte) descriptor;
+            adjCount = (int) (descriptor >>> 8) & 0xFF;
+            dataOffset = ((descriptor >>> 16) & 0xFFFF) << 32 | (descriptor >>> 32);
+        }
+        // zero class id is also the mark of removed nodes in the old graphs
+        if (nodeClassId == 0) {
+            this.nodeId = 0;
+            return false;
+        }
+        this.nodeId = nodeId;
+        this.nodeClassId = nodeClassId;
+        nodeDataSize = data.getInt(dataOffset);
+        nodeDataOffset = dataOffset + 4;
+        return true;
+    }
+
+    private void checkPositioned() {
+        if (nodeId == 0)
+            throw new IllegalStateException("The cursor isn't positioned at a node");
+    }
+
+    public int nodeId() {
+        checkPositioned();
+        return nodeId;
+    }
+
+    /**
+     * Unsigned id of the node class in the graph, the same for all nodes of the class
+     */
+    public int nodeClassId() {
+        checkPositioned();
+        return unsignedByte(nodeClassId);
+    }
+
+    public Class<? extends Node> nodeClass() {
+        checkPositioned();
+        return graph.getNodeClass(nodeClassId);
+    }
+
+    /**
+     * Loads the node object, as {@link ExistingGraph#getNode(int)} does
+     */
+    public Node node() {
+        checkPositioned();
+        return graph.getNode(nodeId);
+    }
+
+    /**
+     * Size of the data, written by {@link Node#writeData}, rounded up to 4 bytes
+     */
+    public int nodeDataSize() {
+        checkPositioned();
+        return nodeDataSize;
+    }
+
+    /*
+     * Reads from the offset in the data, written by Node.writeData(), in the byte order of the graph
+     */
+
+    private long dataOffset(int offset, int size) {
+        checkPositioned();
+        if (offset < 0 || offset + size > nodeDataSize)
+            throw new IndexOutOfBoundsException("Offset " + offset + ", node data size " + nodeDataSize);
+        return nodeDataOffset + offset;
+    }
+
+    public boolean getBoolean(int offset) {
+        return data.getByte(dataOffset(offset, 1)) != 0;
+    }
+
+    public byte getByte(int offset) {
+        return data.getByte(dataOffset(offset, 1));
+    }
+
+    public short getShort(int offset) {
+        return data.getShort(dataOffset(offset, 2));
+    }
+
+    public char getChar(int offset) {
+        return data.getChar(dataOffset(offset, 2));
+    }
+
+    public int getInt(int offset) {
+        return data.getInt(dataOffset(offset, 4));
+    }
+
+    public long getLong(int offset) {
+        return data.getLong(dataOffset(offset, 8));
+    }
+
+    public float getFloat(int offset) {
+        return data.getFloat(dataOffset(offset, 4));
+    }
+
+    public double getDouble(int offset) {
+        return data.getDouble(dataOffset(offset, 8));
+    }
+
+    /**
+     * @return offset of the edges of the model in the data file, after the model id and the size
+     *         of the edges, or -1 if the node doesn't have edges of the model
+     */
+    private long adjacencyOffset(AbstractEdgeModel<?, ?, ?> model) {
+        checkPositioned();
+        if (model.getGraph() != graph)
+            throw new IllegalArgumentException("The model is of another graph");
+        int modelId = unsignedByte(model.getId());
+        long offset = nodeDataOffset + nodeDataSize;
+        for (int i = 0; i < adjCount; i++) {
+            if (data.getInt(offset) == modelId)
+                return offset + 8;
+            offset += 8 + data.getInt(offset + 4);
+        }
+        return -1;
+    }
+
+    public int edgeCount(EdgeModel<?, ?, ?> model) {
+        long offset = adjacencyOffset(model);
+        return offset >= 0 ? data.getInt(offset) : 0;
+    }
+
+    /**
+     * @return id of the target of the unique edge of the model, or 0, if the node doesn't have it
+     */
+    public int uniqueTarget(UniqueEdgeModel<?, ?, ?> model) {
+        long offset = adjacencyOffset(model);
+        return offset >= 0 ? data.getInt(offset) : 0;
+    }
+
+    public void forEachTarget(EdgeModel<?, ?, ?> model, IntConsumer action) {
+        forEachTarget(model, action, null);
+    }
+
+    /**
+     * @return false, if the predicate returned false for some target
+     */
+    public boolean testTargetsWhile(EdgeModel<?, ?, ?> model, IntPredicate predicate) {
+        return forEachTarget(model, null, predicate);
+    }
+
+    /**
+     * Targets of {@link AdjacencyEncoding#SORTED} and {@link AdjacencyEncoding#DELTA_VARINT} are read
+     * in the ascending unsigned order, of {@link AdjacencyEncoding#PLAIN} - in the order of the map
+     *
+     * @param action used if the predicate is null
+     */
+    private boolean forEachTarget(EdgeModel<?, ?, ?> model, IntConsumer action, IntPredicate predicate) {
+        long offset = adjacencyOffset(model);
+        if (offset < 0)
+            return true;
+        int size = data.getInt(offset);
+        offset += 4;
+        AdjacencyEncoding encoding = graph.adjacencyEncoding(model);
+        if (encoding == AdjacencyEncoding.SORTED) {
+            for (int i = 0; i < size; i++, offset += 4) {
+                int target = data.getInt(offset);
+                if (predicate != null) {
+                    if (!predicate.test(target))
+                        return false;
+                } else {
+                    action.accept(target);
+                }
+            }
+        } else if (encoding == AdjacencyEncoding.DELTA_VARINT) {
+            offset += AdjacencyEncoding.deltaSkipEntries(size) * AdjacencyEncoding.DELTA_SKIP_ENTRY_SIZE;
+            int target = 0;
+            for (int i = 0; i < size; i++) {
+                int gap = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data.getByte(offset++);
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0)
+                        break;
+                }
+                target += gap;
+                if (predicate != null) {
+                    if (!predicate.test(target))
+                        return false;
+                } else {
+                    action.accept(target);
+                }
+            }
+        } else {
+            // the format is defined by the map of the model
+            NodeIdEdgeMap<?> map = encoding.read(model, size, new ByteBufferDataIO(data.locateChunk(offset)));
+            if (predicate != null)
+                return map.testNodeIdsWhile(predicate);
+            map.forEachNodeId(action);
+        }
+        return true;
+    }
+}
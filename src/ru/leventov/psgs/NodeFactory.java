@@ -0,0 +1,8 @@
+package ru.leventov.psgs;
+
+/**
+ * Creates nodes of some class, when graphs load them. See {@link Node#registerFactory(Class, NodeFactory)}
+ */
+public interface NodeFactory<N extends Node> {
+    N newNode();
+}
@@ -0,0 +1,68 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntDoubleConsumer;
+import gnu.trove.function.IntDoublePredicate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Map for the edges of {@link DoubleEdgeModel}s with double edge data, read without boxing
+ */
+public class NodeIdDoubleEdgeMap extends NodeIdPrimitiveEdgeMap<Double> {
+    private double[] values;
+
+    public NodeIdDoubleEdgeMap(int expectedSize) {
+        super(expectedSize, 8);
+        values = new double[expectedSize];
+    }
+
+    public double getDouble(int nodeId, double absentValue) {
+        int pos = position(nodeId);
+        return pos >= 0 ? values[pos] : absentValue;
+    }
+
+    public void forEachDouble(IntDoubleConsumer action) {
+        for (int pos = 0; pos < size; pos++) {
+            action.accept(ids[pos], values[pos]);
+        }
+    }
+
+    public boolean testDoublesWhile(IntDoublePredicate predicate) {
+        for (int pos = 0; pos < size; pos++) {
+            if (!predicate.test(ids[pos], values[pos]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    void resizeValues(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void moveValues(int srcPos, int dstPos, int length) {
+        System.arraycopy(values, srcPos, values, dstPos, length);
+    }
+
+    @Override
+    Double boxedValue(int pos) {
+        return values[pos];
+    }
+
+    @Override
+    void setBoxedValue(int pos, Double value) {
+        values[pos] = value;
+    }
+
+    @Override
+    void readValue(ByteBuffer buffer, int pos) {
+        values[pos] = buffer.getDouble(0);
+    }
+
+    @Override
+    void writeValue(ByteBuffer buffer, int pos) {
+        buffer.putDouble(0, values[pos]);
+    }
+}
@@ -0,0 +1,337 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntObjConsumer;
+import gnu.trove.function.IntObjPredicate;
+import gnu.trove.function.IntPredicate;
+import gnu.trove.map.IntKeyMapIterator;
+import ru.leventov.psgs.io.ByteBufferDataIO;
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+import ru.leventov.psgs.io.DataWriter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Compact map for nodes with few edges: sorted target ids and edge data, packed in the same order,
+ * in two arrays. When the map grows beyond {@link #PROMOTION_THRESHOLD} edges, the edges are moved
+ * to {@link NodeIdEdgeHashMap}, which the map delegates to from then on. The serialized form is the same
+ * as of {@link NodeIdEdgeHashMap}.
+ */
+public class NodeIdEdgeArrayMap<ED> implements DeserializableNodeIdEdgeMap<ED> {
+    /** Lookups are binary searches and insertions shift arrays, that is cheap up to this size */
+    public static final int PROMOTION_THRESHOLD = 64;
+
+    private final DataWriter<ED> edgeDataWriter;
+    private int[] ids;
+    private byte[] data;
+    /** Data, read from a graph written on a machine with the other byte order, is kept as is */
+    private ByteOrder dataOrder = ByteOrder.nativeOrder();
+    private int size = 0;
+    private NodeIdEdgeHashMap<ED> promoted;
+
+    public NodeIdEdgeArrayMap(int expectedSize, DataWriter<ED> edgeDataWriter) {
+        this.edgeDataWriter = edgeDataWriter;
+        if (expectedSize > PROMOTION_THRESHOLD) {
+            promoted = new NodeIdEdgeHashMap<>(expectedSize, edgeDataWriter);
+        } else {
+            ids = new int[expectedSize];
+            data = new byte[expectedSize * edgeDataWriter.dataSize()];
+        }
+    }
+
+    private int indexOf(int nodeId) {
+        // targets are often added in ascending order
+        if (size == 0 || nodeId > ids[size - 1])
+            return -size - 1;
+        return Arrays.binarySearch(ids, 0, size, nodeId);
+    }
+
+    private ByteBufferDataIO dataIO(int index) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(dataOrder);
+        buffer.position(index * edgeDataWriter.dataSize());
+        return new ByteBufferDataIO(buffer);
+    }
+
+    private ED getData(int index, ED targetData) {
+        return edgeDataWriter.readData(dataIO(index), targetData);
+    }
+
+    private void setData(int index, ED edgeData) {
+        edgeDataWriter.writeData(dataIO(index), edgeData);
+    }
+
+    /**
+     * @return false, if the map is promoted and the edge is added to the hash map
+     */
+    private boolean insertAt(int index, int nodeId) {
+        if (size == PROMOTION_THRESHOLD) {
+            promote();
+            return false;
+        }
+        if (size == ids.length) {
+            int newCapacity = Math.min(Math.max(size + (size >> 1), size + 2), PROMOTION_THRESHOLD);
+            ids = Arrays.copyOf(ids, newCapacity);
+            data = Arrays.copyOf(data, newCapacity * edgeDataWriter.dataSize());
+        }
+        int dataSize = edgeDataWriter.dataSize();
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        System.arraycopy(data, index * dataSize, data, (index + 1) * dataSize, (size - index) * dataSize);
+        ids[index] = nodeId;
+        size++;
+        return true;
+    }
+
+    private void promote() {
+        promoted = new NodeIdEdgeHashMap<>(size * 2, edgeDataWriter);
+        ByteBufferDataIO in = dataIO(0);
+        ED edgeData = null;
+        for (int i = 0; i < size; i++) {
+            promoted.justAddEdgeTo(ids[i], edgeData = edgeDataWriter.readData(in, edgeData));
+        }
+        ids = null;
+        data = null;
+        size = 0;
+    }
+
+    private void removeAt(int index) {
+        int dataSize = edgeDataWriter.dataSize();
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        System.arraycopy(data, (index + 1) * dataSize, data, index * dataSize, (size - index - 1) * dataSize);
+        size--;
+    }
+
+    @Override
+    public ED addEdgeTo(int nodeId, ED newData) {
+        if (promoted != null)
+            return promoted.addEdgeTo(nodeId, newData);
+        int index = indexOf(nodeId);
+        if (index >= 0) {
+            ED prevData = getData(index, null);
+            setData(index, newData);
+            return prevData;
+        }
+        if (insertAt(-index - 1, nodeId)) {
+            setData(-index - 1, newData);
+        } else {
+            promoted.justAddEdgeTo(nodeId, newData);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean justAddEdgeTo(int nodeId, ED edgeData) {
+        if (promoted != null)
+            return promoted.justAddEdgeTo(nodeId, edgeData);
+        int index = indexOf(nodeId);
+        if (index >= 0) {
+            setData(index, edgeData);
+            return false;
+        }
+        if (insertAt(-index - 1, nodeId)) {
+            setData(-index - 1, edgeData);
+        } else {
+            promoted.justAddEdgeTo(nodeId, edgeData);
+        }
+        return true;
+    }
+
+    @Override
+    public ED removeEdgeTo(int nodeId) {
+        if (promoted != null)
+            return promoted.removeEdgeTo(nodeId);
+        int index = indexOf(nodeId);
+        if (index < 0)
+            return null;
+        ED prevData = getData(index, null);
+        removeAt(index);
+        return prevData;
+    }
+
+    @Override
+    public boolean justRemoveEdgeTo(int nodeId) {
+        if (promoted != null)
+            return promoted.justRemoveEdgeTo(nodeId);
+        int index = indexOf(nodeId);
+        if (index < 0)
+            return false;
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return promoted != null ? promoted.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsNodeId(int nodeId) {
+        return promoted != null ? promoted.containsNodeId(nodeId) : indexOf(nodeId) >= 0;
+    }
+
+    @Override
+    public ED getEdgeData(int nodeId) {
+        if (promoted != null)
+            return promoted.getEdgeData(nodeId);
+        int index = indexOf(nodeId);
+        return index >= 0 ? getData(index, null) : null;
+    }
+
+    @Override
+    public IntKeyMapIterator<ED> iterator() {
+        return promoted != null ? promoted.iterator() : new ArrayIterator();
+    }
+
+    @Override
+    public void forEach(IntObjConsumer<? super ED> action) {
+        if (promoted != null) {
+            promoted.forEach(action);
+            return;
+        }
+        ByteBufferDataIO in = dataIO(0);
+        ED edgeData = null;
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i], edgeData = edgeDataWriter.readData(in, edgeData));
+        }
+    }
+
+    @Override
+    public boolean testWhile(IntObjPredicate<? super ED> predicate) {
+        if (promoted != null)
+            return promoted.testWhile(predicate);
+        ByteBufferDataIO in = dataIO(0);
+        ED edgeData = null;
+        for (int i = 0; i < size; i++) {
+            if (!predicate.test(ids[i], edgeData = edgeDataWriter.readData(in, edgeData)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void forEachNodeId(IntConsumer action) {
+        if (promoted != null) {
+            promoted.forEachNodeId(action);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i]);
+        }
+    }
+
+    @Override
+    public boolean testNodeIdsWhile(IntPredicate predicate) {
+        if (promoted != null)
+            return promoted.testNodeIdsWhile(predicate);
+        for (int i = 0; i < size; i++) {
+            if (!predicate.test(ids[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the targets in the ascending order to the array, which should be at least {@link #size()} long
+     *
+     * @return false, if the map is promoted, and nothing is copied
+     */
+    boolean copyTargets(int[] dst) {
+        if (promoted != null)
+            return false;
+        System.arraycopy(ids, 0, dst, 0, size);
+        return true;
+    }
+
+    @Override
+    public void readData(DataInput in) {
+        if (promoted != null) {
+            promoted.readData(in);
+            return;
+        }
+        int count = ids.length;
+        int dataSize = edgeDataWriter.dataSize();
+        dataOrder = NodeIdEdgeHashMap.readOrder(in);
+        for (int i = 0; i < count; i++) {
+            int nodeId = in.readInt();
+            int index = indexOf(nodeId);
+            if (index >= 0)
+                throw new RuntimeException("Map data corrupted");
+            index = -index - 1;
+            insertAt(index, nodeId);
+            in.readFully(data, index * dataSize, dataSize);
+        }
+    }
+
+    @Override
+    public void writeData(DataOutput out) {
+        if (promoted != null) {
+            promoted.writeData(out);
+            return;
+        }
+        int dataSize = edgeDataWriter.dataSize();
+        NodeIdEdgeHashMap.writeOrder(out, dataOrder);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(ids[i]);
+            out.write(data, i * dataSize, dataSize);
+        }
+    }
+
+    private class ArrayIterator implements IntKeyMapIterator<ED> {
+        private int index = -1;
+        private ED edgeData;
+        private boolean edgeDataActual = false;
+
+        @Override
+        public int intKey() {
+            return ids[index];
+        }
+
+        @Override
+        public Integer key() {
+            return intKey();
+        }
+
+        @Override
+        public ED value() {
+            if (!edgeDataActual) {
+                edgeData = getData(index, edgeData);
+                edgeDataActual = true;
+            }
+            return edgeData;
+        }
+
+        @Override
+        public void setValue(ED value) {
+            setData(index, value);
+            edgeData = value;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index + 1 < size;
+        }
+
+        @Override
+        public boolean tryAdvance() {
+            edgeDataActual = false;
+            if (index + 1 < size) {
+                index++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void remove() {
+            removeAt(index--);
+            edgeDataActual = false;
+        }
+    }
+}
@@ -8,12 +8,15 @@ import ru.leventov.psgs.util.ByteBuffers;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
-public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
+public class NodeIdEdgeHashMap<ED> implements DeserializableNodeIdEdgeMap<ED> {
 
 	public static final float DEFAULT_LOAD_FACTOR = 0.8f;
 
     private TIntIntMap idPosMap;
+    /** Node ids by positions of their edge data, to fix the position of the entry, moved on removal */
+    private int[] posIds;
 
 	// Methods keep buffer limit = size, don't keep buffer position.
 	private ByteBufferDataIO edgeDataBufferIO;
@@ -34,6 +37,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
         edgeDataBufferIO = new ByteBufferDataIO(edgeDataBuffer);
         edgeDataBufferSize = 0;
         edgeDataBufferCapacity = expectedSize;
+        posIds = new int[expectedSize];
     }
 
     public void readData(DataInput in) {
@@ -47,6 +51,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
 		for (int i = 0; i < size; i++) {
 			int nodeId = in.readInt();
             idPosMap.put(nodeId, i);
+            posIds[i] = nodeId;
             in.readFully(bufferBackingArray, bufferOffset, entrySize);
             bufferOffset += entrySize;
 		}
@@ -55,11 +60,11 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
         edgeDataBufferSize = size;
 	}
 
-    private static ByteOrder readOrder(DataInput in) {
+    static ByteOrder readOrder(DataInput in) {
         return in.readInt() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
     }
 
-    private static void writeOrder(DataOutput output, ByteOrder order) {
+    static void writeOrder(DataOutput output, ByteOrder order) {
         output.writeInt(order.equals(ByteOrder.BIG_ENDIAN) ? 0 : -1);
     }
 
@@ -80,17 +85,29 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
     public ED getEdgeData(int nodeId) {
 		int pos = idPosMap.get(nodeId);
 		if (pos >= 0) {
-            return getData(pos, null);
+            return getData(dataInput(), pos, null);
 		} else {
             return null;
         }
 	}
 
 	private ED getData(int pos, ED targetData) {
-        edgeDataBufferIO.getBuffer().position(pos * edgeDataWriter.dataSize());
-        return edgeDataWriter.readData(edgeDataBufferIO, targetData);
+        return getData(edgeDataBufferIO, pos, targetData);
+	}
+
+	private ED getData(ByteBufferDataIO in, int pos, ED targetData) {
+        in.getBuffer().position(pos * edgeDataWriter.dataSize());
+        return edgeDataWriter.readData(in, targetData);
 	}
 
+    /**
+     * Read-only operations read the edge data through a duplicate, not moving the shared buffer,
+     * so that they could be performed by threads concurrently
+     */
+    private ByteBufferDataIO dataInput() {
+        return new ByteBufferDataIO(ByteBuffers.duplicate(edgeDataBufferIO.getBuffer()));
+    }
+
 	private void setData(int pos, ED data) {
         edgeDataBufferIO.getBuffer().position(pos * edgeDataWriter.dataSize());
 		edgeDataWriter.writeData(edgeDataBufferIO, data);
@@ -98,13 +115,15 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
 
     private void growEdgeDataBuffer() {
         int oldCapacity = edgeDataBufferCapacity;
-        int newCapacity = oldCapacity + (oldCapacity >> 1);
-        ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity * edgeDataWriter.dataSize());
+        int newCapacity = Math.max(oldCapacity + (oldCapacity >> 1), oldCapacity + 1);
         ByteBuffer edgeDataBuffer = edgeDataBufferIO.getBuffer();
+        ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity * edgeDataWriter.dataSize());
+        newBuffer.order(edgeDataBuffer.order());
         edgeDataBuffer.position(0);
         newBuffer.put(edgeDataBuffer);
         edgeDataBufferIO = new ByteBufferDataIO(newBuffer);
         edgeDataBufferCapacity = newCapacity;
+        posIds = Arrays.copyOf(posIds, newCapacity);
     }
 
     @Override
@@ -119,6 +138,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
             edgeDataBufferSize++;
             if (newPos >= edgeDataBufferCapacity)
                 growEdgeDataBuffer();
+            posIds[newPos] = nodeId;
             setData(newPos, newData);
             return null;
         }
@@ -132,6 +152,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
             edgeDataBufferSize++;
             if (newPos >= edgeDataBufferCapacity)
                 growEdgeDataBuffer();
+            posIds[newPos] = nodeId;
             setData(newPos, edgeData);
             return true;
         } else {
@@ -140,16 +161,20 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
         }
     }
 
-    private void removeDataAt(final int posToRemove) {
-        final int lastPos = --edgeDataBufferSize;
-        int posCountToShift = lastPos - posToRemove;
-        if (posCountToShift > 0) {
+    /**
+     * The id of the removed entry must be already removed from the id-position map
+     */
+    private void removeDataAt(int posToRemove) {
+        int lastPos = --edgeDataBufferSize;
+        if (posToRemove < lastPos) {
+            // move the last entry to the freed position
             int entrySize = edgeDataWriter.dataSize();
             ByteBuffers.shiftWithin(edgeDataBufferIO.getBuffer(),
-                    posToRemove * entrySize, posCountToShift * entrySize, entrySize);
-            idPosMap.replaceAll(new IntIntToIntFunction() {
-                public int applyAsInt(int id, int pos) { return pos != lastPos ? pos : posToRemove; }
-            });
+                    lastPos * entrySize, entrySize, (posToRemove - lastPos) * entrySize);
+            int movedId = posIds[lastPos];
+            posIds[posToRemove] = movedId;
+            // the key is present, so the map isn't restructured, and iterators stay valid
+            idPosMap.put(movedId, posToRemove);
         }
     }
 
@@ -174,9 +199,10 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
 
 	public void forEach(final IntObjConsumer<? super ED> action) {
         idPosMap.forEach(new IntIntConsumer() {
+            final ByteBufferDataIO in = dataInput();
             ED data = null;
             public void accept(int nodeId, int pos) {
-                action.accept(nodeId, data = getData(pos, data));
+                action.accept(nodeId, data = getData(in, pos, data));
             }
         });
 	}
@@ -184,9 +210,10 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
     @Override
     public boolean testWhile(final IntObjPredicate<? super ED> predicate) {
         return idPosMap.testWhile(new IntIntPredicate() {
+            final ByteBufferDataIO in = dataInput();
             ED data = null;
             public boolean test(int nodeId, int pos) {
-                return predicate.test(nodeId, data = getData(pos, data));
+                return predicate.test(nodeId, data = getData(in, pos, data));
             }
         });
     }
@@ -210,8 +237,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
         for (IntIntMapIterator it = idPosMap.mapIterator(); it.tryAdvance(); ) {
             int nodeId = it.intKey();
             out.writeInt(nodeId);
-            out.write(bufferBackingArray, bufferOffset, entrySize);
-            bufferOffset += entrySize;
+            out.write(bufferBackingArray, bufferOffset + it.intValue() * entrySize, entrySize);
         }
 	}
 
@@ -221,13 +247,15 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
 
 	class NodeIdEdgeIterator implements IntKeyMapIterator<ED> {
 		private final IntIntMapIterator idPosIterator;
+        private final ByteBufferDataIO dataIO;
         private final ByteBuffer dataBuffer;
 		private ED edgeData;
 		private boolean edgeDataActual;
 
 		NodeIdEdgeIterator() {
 			idPosIterator = idPosMap.mapIterator();
-            dataBuffer = edgeDataBufferIO.getBuffer();
+            dataIO = dataInput();
+            dataBuffer = dataIO.getBuffer();
 			edgeDataActual = false;
 		}
 
@@ -238,7 +266,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
 		public ED value() {
 			if (!edgeDataActual) {
 				locateBuffer();
-				edgeData = edgeDataWriter.readData(edgeDataBufferIO, edgeData);
+				edgeData = edgeDataWriter.readData(dataIO, edgeData);
 				edgeDataActual = true;
 			}
 			return edgeData;
@@ -246,7 +274,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
 
 		public void setValue(ED val) {
             locateBuffer();
-			edgeDataWriter.writeData(edgeDataBufferIO, val);
+			edgeDataWriter.writeData(dataIO, val);
 			edgeData = val;
 		}
 
@@ -255,6 +283,7 @@ public class NodeIdEdgeHashMap<ED> implements NodeIdEdgeMap<ED> {
         }
 
         public boolean tryAdvance() {
+            edgeDataActual = false;
             return idPosIterator.tryAdvance();
         }
 
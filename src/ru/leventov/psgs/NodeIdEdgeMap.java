@@ -5,9 +5,9 @@ import gnu.trove.function.IntObjConsumer;
 import gnu.trove.function.IntObjPredicate;
 import gnu.trove.function.IntPredicate;
 import gnu.trove.map.IntKeyMapIterator;
-import ru.leventov.psgs.io.DataWritable;
+import ru.leventov.psgs.io.DataOutput;
 
-public interface NodeIdEdgeMap<ED> extends DataWritable {
+public interface NodeIdEdgeMap<ED> {
 	/** @return previous edge data, mapped for this nodeId in the map, or null */
 	ED addEdgeTo(int nodeId, ED newData);
 
@@ -38,4 +38,6 @@ public interface NodeIdEdgeMap<ED> extends DataWritable {
     void forEachNodeId(IntConsumer action);
 
     boolean testNodeIdsWhile(IntPredicate predicate);
+
+    void writeData(DataOutput out);
 }
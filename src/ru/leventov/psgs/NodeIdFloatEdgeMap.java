@@ -0,0 +1,68 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntFloatConsumer;
+import gnu.trove.function.IntFloatPredicate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Map for the edges of {@link FloatEdgeModel}s with float edge data, read without boxing
+ */
+public class NodeIdFloatEdgeMap extends NodeIdPrimitiveEdgeMap<Float> {
+    private float[] values;
+
+    public NodeIdFloatEdgeMap(int expectedSize) {
+        super(expectedSize, 4);
+        values = new float[expectedSize];
+    }
+
+    public float getFloat(int nodeId, float absentValue) {
+        int pos = position(nodeId);
+        return pos >= 0 ? values[pos] : absentValue;
+    }
+
+    public void forEachFloat(IntFloatConsumer action) {
+        for (int pos = 0; pos < size; pos++) {
+            action.accept(ids[pos], values[pos]);
+        }
+    }
+
+    public boolean testFloatsWhile(IntFloatPredicate predicate) {
+        for (int pos = 0; pos < size; pos++) {
+            if (!predicate.test(ids[pos], values[pos]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    void resizeValues(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void moveValues(int srcPos, int dstPos, int length) {
+        System.arraycopy(values, srcPos, values, dstPos, length);
+    }
+
+    @Override
+    Float boxedValue(int pos) {
+        return values[pos];
+    }
+
+    @Override
+    void setBoxedValue(int pos, Float value) {
+        values[pos] = value;
+    }
+
+    @Override
+    void readValue(ByteBuffer buffer, int pos) {
+        values[pos] = buffer.getFloat(0);
+    }
+
+    @Override
+    void writeValue(ByteBuffer buffer, int pos) {
+        buffer.putFloat(0, values[pos]);
+    }
+}
@@ -0,0 +1,68 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntIntConsumer;
+import gnu.trove.function.IntIntPredicate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Map for the edges of {@link IntEdgeModel}s with int edge data, read without boxing
+ */
+public class NodeIdIntEdgeMap extends NodeIdPrimitiveEdgeMap<Integer> {
+    private int[] values;
+
+    public NodeIdIntEdgeMap(int expectedSize) {
+        super(expectedSize, 4);
+        values = new int[expectedSize];
+    }
+
+    public int getInt(int nodeId, int absentValue) {
+        int pos = position(nodeId);
+        return pos >= 0 ? values[pos] : absentValue;
+    }
+
+    public void forEachInt(IntIntConsumer action) {
+        for (int pos = 0; pos < size; pos++) {
+            action.accept(ids[pos], values[pos]);
+        }
+    }
+
+    public boolean testIntsWhile(IntIntPredicate predicate) {
+        for (int pos = 0; pos < size; pos++) {
+            if (!predicate.test(ids[pos], values[pos]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    void resizeValues(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void moveValues(int srcPos, int dstPos, int length) {
+        System.arraycopy(values, srcPos, values, dstPos, length);
+    }
+
+    @Override
+    Integer boxedValue(int pos) {
+        return values[pos];
+    }
+
+    @Override
+    void setBoxedValue(int pos, Integer value) {
+        values[pos] = value;
+    }
+
+    @Override
+    void readValue(ByteBuffer buffer, int pos) {
+        values[pos] = buffer.getInt(0);
+    }
+
+    @Override
+    void writeValue(ByteBuffer buffer, int pos) {
+        buffer.putInt(0, values[pos]);
+    }
+}
@@ -0,0 +1,68 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntLongConsumer;
+import gnu.trove.function.IntLongPredicate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Map for the edges of {@link LongEdgeModel}s with long edge data, read without boxing
+ */
+public class NodeIdLongEdgeMap extends NodeIdPrimitiveEdgeMap<Long> {
+    private long[] values;
+
+    public NodeIdLongEdgeMap(int expectedSize) {
+        super(expectedSize, 8);
+        values = new long[expectedSize];
+    }
+
+    public long getLong(int nodeId, long absentValue) {
+        int pos = position(nodeId);
+        return pos >= 0 ? values[pos] : absentValue;
+    }
+
+    public void forEachLong(IntLongConsumer action) {
+        for (int pos = 0; pos < size; pos++) {
+            action.accept(ids[pos], values[pos]);
+        }
+    }
+
+    public boolean testLongsWhile(IntLongPredicate predicate) {
+        for (int pos = 0; pos < size; pos++) {
+            if (!predicate.test(ids[pos], values[pos]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    void resizeValues(int capacity) {
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    @Override
+    void moveValues(int srcPos, int dstPos, int length) {
+        System.arraycopy(values, srcPos, values, dstPos, length);
+    }
+
+    @Override
+    Long boxedValue(int pos) {
+        return values[pos];
+    }
+
+    @Override
+    void setBoxedValue(int pos, Long value) {
+        values[pos] = value;
+    }
+
+    @Override
+    void readValue(ByteBuffer buffer, int pos) {
+        values[pos] = buffer.getLong(0);
+    }
+
+    @Override
+    void writeValue(ByteBuffer buffer, int pos) {
+        buffer.putLong(0, values[pos]);
+    }
+}
@@ -0,0 +1,241 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntObjConsumer;
+import gnu.trove.function.IntObjPredicate;
+import gnu.trove.function.IntPredicate;
+import gnu.trove.map.IntKeyMapIterator;
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+import ru.leventov.psgs.io.NoData;
+
+import java.util.Arrays;
+
+/**
+ * Sorted array of target ids, promoted to {@link NodeIdNoDataHashMap} beyond
+ * {@link NodeIdEdgeArrayMap#PROMOTION_THRESHOLD} edges. The serialized form is the same as of
+ * {@link NodeIdNoDataHashMap}.
+ */
+public class NodeIdNoDataArrayMap implements DeserializableNodeIdEdgeMap<NoData> {
+    private int[] ids;
+    private int size = 0;
+    private NodeIdNoDataHashMap promoted;
+
+    public NodeIdNoDataArrayMap(int expectedSize) {
+        if (expectedSize > NodeIdEdgeArrayMap.PROMOTION_THRESHOLD) {
+            promoted = new NodeIdNoDataHashMap(expectedSize);
+        } else {
+            ids = new int[expectedSize];
+        }
+    }
+
+    private int indexOf(int nodeId) {
+        // targets are often added in ascending order
+        if (size == 0 || nodeId > ids[size - 1])
+            return -size - 1;
+        return Arrays.binarySearch(ids, 0, size, nodeId);
+    }
+
+    private void insertAt(int index, int nodeId) {
+        if (size == NodeIdEdgeArrayMap.PROMOTION_THRESHOLD) {
+            promoted = new NodeIdNoDataHashMap(size * 2);
+            for (int i = 0; i < size; i++) {
+                promoted.justAddEdgeTo(ids[i], NoData.NO_DATA);
+            }
+            promoted.justAddEdgeTo(nodeId, NoData.NO_DATA);
+            ids = null;
+            size = 0;
+            return;
+        }
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, Math.min(Math.max(size + (size >> 1), size + 2),
+                    NodeIdEdgeArrayMap.PROMOTION_THRESHOLD));
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = nodeId;
+        size++;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+    }
+
+    @Override
+    public NoData addEdgeTo(int nodeId, NoData newData) {
+        return justAddEdgeTo(nodeId, newData) ? null : NoData.NO_DATA;
+    }
+
+    @Override
+    public boolean justAddEdgeTo(int nodeId, NoData edgeData) {
+        if (promoted != null)
+            return promoted.justAddEdgeTo(nodeId, edgeData);
+        int index = indexOf(nodeId);
+        if (index >= 0)
+            return false;
+        insertAt(-index - 1, nodeId);
+        return true;
+    }
+
+    @Override
+    public NoData removeEdgeTo(int nodeId) {
+        return justRemoveEdgeTo(nodeId) ? NoData.NO_DATA : null;
+    }
+
+    @Override
+    public boolean justRemoveEdgeTo(int nodeId) {
+        if (promoted != null)
+            return promoted.justRemoveEdgeTo(nodeId);
+        int index = indexOf(nodeId);
+        if (index < 0)
+            return false;
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return promoted != null ? promoted.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsNodeId(int nodeId) {
+        return promoted != null ? promoted.containsNodeId(nodeId) : indexOf(nodeId) >= 0;
+    }
+
+    @Override
+    public NoData getEdgeData(int nodeId) {
+        return containsNodeId(nodeId) ? NoData.NO_DATA : null;
+    }
+
+    @Override
+    public IntKeyMapIterator<NoData> iterator() {
+        if (promoted != null)
+            return promoted.iterator();
+        return new IntKeyMapIterator<NoData>() {
+            private int index = -1;
+
+            @Override
+            public int intKey() {
+                return ids[index];
+            }
+
+            @Override
+            public Integer key() {
+                return intKey();
+            }
+
+            @Override
+            public NoData value() {
+                return NoData.NO_DATA;
+            }
+
+            @Override
+            public void setValue(NoData value) {
+
+            }
+
+            @Override
+            public boolean hasNext() {
+                return index + 1 < size;
+            }
+
+            @Override
+            public boolean tryAdvance() {
+                if (index + 1 < size) {
+                    index++;
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void remove() {
+                removeAt(index--);
+            }
+        };
+    }
+
+    @Override
+    public void forEach(IntObjConsumer<? super NoData> action) {
+        if (promoted != null) {
+            promoted.forEach(action);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i], NoData.NO_DATA);
+        }
+    }
+
+    @Override
+    public boolean testWhile(IntObjPredicate<? super NoData> predicate) {
+        if (promoted != null)
+            return promoted.testWhile(predicate);
+        for (int i = 0; i < size; i++) {
+            if (!predicate.test(ids[i], NoData.NO_DATA))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void forEachNodeId(IntConsumer action) {
+        if (promoted != null) {
+            promoted.forEachNodeId(action);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i]);
+        }
+    }
+
+    @Override
+    public boolean testNodeIdsWhile(IntPredicate predicate) {
+        if (promoted != null)
+            return promoted.testNodeIdsWhile(predicate);
+        for (int i = 0; i < size; i++) {
+            if (!predicate.test(ids[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the targets in the ascending order to the array, which should be at least {@link #size()} long
+     *
+     * @return false, if the map is promoted, and nothing is copied
+     */
+    boolean copyTargets(int[] dst) {
+        if (promoted != null)
+            return false;
+        System.arraycopy(ids, 0, dst, 0, size);
+        return true;
+    }
+
+    @Override
+    public void readData(DataInput in) {
+        if (promoted != null) {
+            promoted.readData(in);
+            return;
+        }
+        for (int i = ids.length; i-- > 0; ) {
+            if (!justAddEdgeTo(in.readInt(), NoData.NO_DATA))
+                throw new RuntimeException("Map data corrupted");
+        }
+    }
+
+    @Override
+    public void writeData(DataOutput out) {
+        if (promoted != null) {
+            promoted.writeData(out);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(ids[i]);
+        }
+    }
+}
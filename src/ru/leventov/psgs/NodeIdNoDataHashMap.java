@@ -12,7 +12,7 @@ import ru.leventov.psgs.io.DataInput;
 import ru.leventov.psgs.io.DataOutput;
 import ru.leventov.psgs.io.NoData;
 
-public class NodeIdNoDataHashMap implements NodeIdEdgeMap<NoData> {
+public class NodeIdNoDataHashMap implements DeserializableNodeIdEdgeMap<NoData> {
     private final int expectedSize;
     private final TIntSet idSet;
 
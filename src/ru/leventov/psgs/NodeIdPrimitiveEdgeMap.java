@@ -0,0 +1,291 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntObjConsumer;
+import gnu.trove.function.IntObjPredicate;
+import gnu.trove.function.IntPredicate;
+import gnu.trove.map.IntKeyMapIterator;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.IntIntDHashMap;
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Base of the maps with primitive edge data, kept in an array of the subclass in parallel with the array
+ * of target ids. Up to {@link NodeIdEdgeArrayMap#PROMOTION_THRESHOLD} edges the ids are sorted and found
+ * by binary search, beyond that the map indexes positions by ids in a hash map, and fills the hole
+ * of the removed edge with the last one. Positions don't change on promotion, so the data isn't moved.
+ *
+ * <p>The serialized form is the same as of {@link NodeIdEdgeHashMap}, so the model could switch
+ * to a primitive map without rewriting stored graphs.
+ */
+abstract class NodeIdPrimitiveEdgeMap<ED> implements DeserializableNodeIdEdgeMap<ED> {
+    private final int valueSize;
+    /** Target ids by positions */
+    int[] ids;
+    int size = 0;
+    /** Null, while ids are sorted */
+    private TIntIntMap idPosMap;
+
+    NodeIdPrimitiveEdgeMap(int expectedSize, int valueSize) {
+        this.valueSize = valueSize;
+        ids = new int[expectedSize];
+        if (expectedSize > NodeIdEdgeArrayMap.PROMOTION_THRESHOLD)
+            promote();
+    }
+
+    abstract void resizeValues(int capacity);
+
+    /** Like {@link System#arraycopy(Object, int, Object, int, int)} within the array of values */
+    abstract void moveValues(int srcPos, int dstPos, int length);
+
+    abstract ED boxedValue(int pos);
+
+    abstract void setBoxedValue(int pos, ED value);
+
+    /** Reads the value from the position 0 of the buffer */
+    abstract void readValue(ByteBuffer buffer, int pos);
+
+    /** Writes the value to the position 0 of the buffer */
+    abstract void writeValue(ByteBuffer buffer, int pos);
+
+    private void promote() {
+        idPosMap = new IntIntDHashMap(Math.max(ids.length, size * 2), NodeIdEdgeHashMap.DEFAULT_LOAD_FACTOR) {
+            public int getNoEntryValue() {
+                return -1;
+            }
+        };
+        for (int pos = 0; pos < size; pos++) {
+            idPosMap.put(ids[pos], pos);
+        }
+    }
+
+    /**
+     * @return the position of the target, or a negative value, if the map doesn't contain it
+     */
+    final int position(int nodeId) {
+        if (idPosMap != null)
+            return idPosMap.get(nodeId);
+        // targets are often added in ascending order
+        if (size == 0 || nodeId > ids[size - 1])
+            return -size - 1;
+        return Arrays.binarySearch(ids, 0, size, nodeId);
+    }
+
+    /**
+     * Inserts the target, which is absent in the map
+     *
+     * @param missingPosition negative value, returned by {@link #position(int)}
+     * @return the position of the inserted target, the value should be written by the caller
+     */
+    final int insert(int nodeId, int missingPosition) {
+        if (idPosMap == null && size == NodeIdEdgeArrayMap.PROMOTION_THRESHOLD)
+            promote();
+        if (size == ids.length) {
+            int newCapacity = Math.max(size + (size >> 1), size + 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            resizeValues(newCapacity);
+        }
+        int pos;
+        if (idPosMap != null) {
+            pos = size;
+            idPosMap.put(nodeId, pos);
+        } else {
+            pos = -missingPosition - 1;
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            moveValues(pos, pos + 1, size - pos);
+        }
+        ids[pos] = nodeId;
+        size++;
+        return pos;
+    }
+
+    final void removeAt(int pos) {
+        size--;
+        if (idPosMap != null) {
+            idPosMap.remove(ids[pos]);
+            if (pos < size) {
+                // move the last entry to the freed position
+                int movedId = ids[size];
+                ids[pos] = movedId;
+                moveValues(size, pos, 1);
+                idPosMap.put(movedId, pos);
+            }
+        } else {
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos);
+            moveValues(pos + 1, pos, size - pos);
+        }
+    }
+
+    @Override
+    public ED addEdgeTo(int nodeId, ED newData) {
+        int pos = position(nodeId);
+        if (pos >= 0) {
+            ED prevData = boxedValue(pos);
+            setBoxedValue(pos, newData);
+            return prevData;
+        }
+        setBoxedValue(insert(nodeId, pos), newData);
+        return null;
+    }
+
+    @Override
+    public boolean justAddEdgeTo(int nodeId, ED edgeData) {
+        int pos = position(nodeId);
+        if (pos >= 0) {
+            setBoxedValue(pos, edgeData);
+            return false;
+        }
+        setBoxedValue(insert(nodeId, pos), edgeData);
+        return true;
+    }
+
+    @Override
+    public ED removeEdgeTo(int nodeId) {
+        int pos = position(nodeId);
+        if (pos < 0)
+            return null;
+        ED prevData = boxedValue(pos);
+        removeAt(pos);
+        return prevData;
+    }
+
+    @Override
+    public boolean justRemoveEdgeTo(int nodeId) {
+        int pos = position(nodeId);
+        if (pos < 0)
+            return false;
+        removeAt(pos);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsNodeId(int nodeId) {
+        return position(nodeId) >= 0;
+    }
+
+    @Override
+    public ED getEdgeData(int nodeId) {
+        int pos = position(nodeId);
+        return pos >= 0 ? boxedValue(pos) : null;
+    }
+
+    @Override
+    public IntKeyMapIterator<ED> iterator() {
+        return new IntKeyMapIterator<ED>() {
+            private int pos = -1;
+
+            @Override
+            public int intKey() {
+                return ids[pos];
+            }
+
+            @Override
+            public Integer key() {
+                return intKey();
+            }
+
+            @Override
+            public ED value() {
+                return boxedValue(pos);
+            }
+
+            @Override
+            public void setValue(ED value) {
+                setBoxedValue(pos, value);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return pos + 1 < size;
+            }
+
+            @Override
+            public boolean tryAdvance() {
+                if (pos + 1 < size) {
+                    pos++;
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void remove() {
+                // the position is taken by the next entry, or by the last one
+                removeAt(pos--);
+            }
+        };
+    }
+
+    @Override
+    public void forEach(IntObjConsumer<? super ED> action) {
+        for (int pos = 0; pos < size; pos++) {
+            action.accept(ids[pos], boxedValue(pos));
+        }
+    }
+
+    @Override
+    public boolean testWhile(IntObjPredicate<? super ED> predicate) {
+        for (int pos = 0; pos < size; pos++) {
+            if (!predicate.test(ids[pos], boxedValue(pos)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void forEachNodeId(IntConsumer action) {
+        for (int pos = 0; pos < size; pos++) {
+            action.accept(ids[pos]);
+        }
+    }
+
+    @Override
+    public boolean testNodeIdsWhile(IntPredicate predicate) {
+        for (int pos = 0; pos < size; pos++) {
+            if (!predicate.test(ids[pos]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void readData(DataInput in) {
+        int count = ids.length;
+        ByteBuffer buffer = ByteBuffer.allocate(valueSize).order(NodeIdEdgeHashMap.readOrder(in));
+        for (int i = 0; i < count; i++) {
+            int nodeId = in.readInt();
+            int pos = position(nodeId);
+            if (pos >= 0)
+                throw new RuntimeException("Map data corrupted");
+            in.readFully(buffer.array(), 0, valueSize);
+            readValue(buffer, insert(nodeId, pos));
+        }
+    }
+
+    @Override
+    public void writeData(DataOutput out) {
+        ByteOrder order = ByteOrder.nativeOrder();
+        NodeIdEdgeHashMap.writeOrder(out, order);
+        ByteBuffer buffer = ByteBuffer.allocate(valueSize).order(order);
+        for (int pos = 0; pos < size; pos++) {
+            out.writeInt(ids[pos]);
+            writeValue(buffer, pos);
+            out.write(buffer.array(), 0, valueSize);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.leventov.psgs;
+
+import gnu.trove.function.IntConsumer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Order of nodes in the data file. Nodes, which are stored close to their neighbors, make traversals
+ * touch less pages of the data file.
+ */
+public enum NodeLayout {
+    /** Ascending order of node ids */
+    ID_ORDER {
+        @Override
+        Node[] order(Node[] nodesInIdOrder) {
+            return nodesInIdOrder;
+        }
+    },
+
+    /**
+     * Reverse Cuthill-McKee order: breadth-first traversals, started from the nodes of the lowest degree,
+     * visit neighbors in ascending order of degree, then the order is reversed. Edges are considered
+     * undirected, arcs are followed only from the source.
+     */
+    REVERSE_CUTHILL_MCKEE {
+        @Override
+        Node[] order(Node[] nodesInIdOrder) {
+            return reverseCuthillMcKee(nodesInIdOrder);
+        }
+    };
+
+    abstract Node[] order(Node[] nodesInIdOrder);
+
+    static void forEachNeighborId(Node node, final IntConsumer action) {
+        try {
+            node.forEachAdjacent(new Node.EdgesConsumer() {
+                @Override
+                public void accept(byte modelId, Edges<?, ?, ?> edges) {
+                    edges.forEachTarget(action);
+                }
+            }, new Node.UniqueEdgeConsumer() {
+                @Override
+                public void accept(byte modelId, UniqueEdge<?, ?, ?> edge) {
+                    action.accept(edge.getTargetId());
+                }
+            });
+        } catch (IOException e) {
+            // consumers don't throw
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Node[] reverseCuthillMcKee(final Node[] nodes) {
+        final int n = nodes.length;
+        final int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nodes[i].getId();
+        }
+        final int[] degrees = new int[n];
+        long[] byDegree = new long[n];
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            forEachNeighborId(nodes[i], new IntConsumer() {
+                @Override
+                public void accept(int targetId) {
+                    degrees[index]++;
+                }
+            });
+            byDegree[i] = ((long) degrees[i] << 32) | i;
+        }
+        Arrays.sort(byDegree);
+
+        final boolean[] visited = new boolean[n];
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        final long[][] neighbors = {new long[16]};
+        final int[] neighborCount = new int[1];
+        IntConsumer collector = new IntConsumer() {
+            @Override
+            public void accept(int targetId) {
+                int index = Arrays.binarySearch(ids, targetId);
+                if (index >= 0 && !visited[index]) {
+                    visited[index] = true;
+                    if (neighborCount[0] == neighbors[0].length)
+                        neighbors[0] = Arrays.copyOf(neighbors[0], neighborCount[0] * 2);
+                    neighbors[0][neighborCount[0]++] = ((long) degrees[index] << 32) | index;
+                }
+            }
+        };
+        for (long start : byDegree) {
+            int startIndex = (int) start;
+            if (visited[startIndex])
+                continue;
+            visited[startIndex] = true;
+            queue[tail++] = startIndex;
+            while (head < tail) {
+                neighborCount[0] = 0;
+                forEachNeighborId(nodes[queue[head++]], collector);
+                Arrays.sort(neighbors[0], 0, neighborCount[0]);
+                for (int i = 0; i < neighborCount[0]; i++) {
+                    queue[tail++] = (int) neighbors[0][i];
+                }
+            }
+        }
+
+        Node[] ordered = new Node[n];
+        for (int i = 0; i < n; i++) {
+            ordered[i] = nodes[queue[n - 1 - i]];
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,286 @@
+package ru.leventov.psgs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Triangle counts and local clustering coefficients of the nodes of {@link CsrGraph}, by node indexes.
+ * Edges of the model are expected to be symmetric, as of {@link UndirectedEdgeModel}, or of an arc model,
+ * which always has both directions, like friendships. Self-loops don't form triangles.
+ *
+ * <p>Each edge is oriented from the node of the lower degree to the node of the higher degree (ties are broken
+ * by indexes), and the oriented targets are copied to memory. Then each triangle is found exactly once,
+ * from its lowest node, by intersection of the oriented targets of the node and of its oriented target.
+ * Oriented degrees are at most square root of the doubled edge count, so hubs don't dominate the work.
+ * Ranges of nodes are processed by fork-join tasks.
+ */
+public final class Triangles {
+    /** Oriented targets are stored in pages of this many ints, targets of a node don't cross pages */
+    private static final int PAGE_SHIFT = 26;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    /** Nodes per fork-join task, which is not split further */
+    private static final int TASK_NODES = 1024;
+
+    /**
+     * Counts triangles with all available processors
+     */
+    public static Triangles count(CsrGraph graph, Class<? extends AbstractEdgeModel> modelClass) {
+        return count(graph, modelClass, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Triangles count(CsrGraph graph, Class<? extends AbstractEdgeModel> modelClass,
+            int parallelism) {
+        int indexCount = graph.indexCount();
+        CsrGraph.Adjacency adjacency = graph.adjacency(modelClass);
+        if (adjacency == null)
+            return new Triangles(new int[indexCount], new AtomicLongArray(indexCount), 0L);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new Counter(adjacency, indexCount, pool).result();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private final int[] degrees;
+    private final AtomicLongArray counts;
+    private final long total;
+
+    private Triangles(int[] degrees, AtomicLongArray counts, long total) {
+        this.degrees = degrees;
+        this.counts = counts;
+        this.total = total;
+    }
+
+    /**
+     * Total number of triangles in the graph
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Number of triangles, which the node is a part of
+     */
+    public long count(int nodeIndex) {
+        return counts.get(nodeIndex);
+    }
+
+    public int degree(int nodeIndex) {
+        return degrees[nodeIndex];
+    }
+
+    /**
+     * @return the share of pairs of neighbors of the node, which are connected, or 0, if the node has less
+     *         than two neighbors
+     */
+    public double clusteringCoefficient(int nodeIndex) {
+        long degree = degrees[nodeIndex];
+        if (degree < 2)
+            return 0.0;
+        return 2.0 * counts.get(nodeIndex) / (degree * (degree - 1));
+    }
+
+    /**
+     * State of a single count
+     */
+    private static final class Counter {
+        private final CsrGraph.Adjacency adjacency;
+        private final int indexCount;
+        private final ForkJoinPool pool;
+        private final int[] degrees;
+        private final int[] orientedDegrees;
+        /** Positions of the oriented targets of the nodes, page number in the high bits */
+        private final long[] orientedStarts;
+        private int[][] pages;
+        private final AtomicLongArray counts;
+        private final AtomicLong total = new AtomicLong();
+
+        private Counter(CsrGraph.Adjacency adjacency, int indexCount, ForkJoinPool pool) {
+            this.adjacency = adjacency;
+            this.indexCount = indexCount;
+            this.pool = pool;
+            degrees = new int[indexCount];
+            orientedDegrees = new int[indexCount];
+            orientedStarts = new long[indexCount];
+            counts = new AtomicLongArray(indexCount);
+        }
+
+        /**
+         * @return true, if the edge from the first node to the second is oriented in this direction
+         */
+        private boolean isOriented(int from, int to) {
+            int fromDegree = degrees[from], toDegree = degrees[to];
+            return fromDegree < toDegree || (fromDegree == toDegree && from < to);
+        }
+
+        private Triangles result() {
+            forEachRange(new Range() {
+                @Override
+                void process(int from, int to) {
+                    for (int node = from; node < to; node++) {
+                        degrees[node] = adjacency.degree(node);
+                    }
+                }
+            });
+            forEachRange(new Range() {
+                @Override
+                void process(int from, int to) {
+                    for (int node = from; node < to; node++) {
+                        int orientedDegree = 0;
+                        for (long edge = adjacency.firstEdge(node), end = adjacency.endEdge(node);
+                             edge < end; edge++) {
+                            if (isOriented(node, adjacency.targetIndex(edge)))
+                                orientedDegree++;
+                        }
+                        orientedDegrees[node] = orientedDegree;
+                    }
+                }
+            });
+            layOutPages();
+            forEachRange(new Range() {
+                @Override
+                void process(int from, int to) {
+                    for (int node = from; node < to; node++) {
+                        int[] page = pages[(int) (orientedStarts[node] >>> PAGE_SHIFT)];
+                        int pos = (int) (orientedStarts[node] & PAGE_MASK);
+                        for (long edge = adjacency.firstEdge(node), end = adjacency.endEdge(node);
+                             edge < end; edge++) {
+                            int target = adjacency.targetIndex(edge);
+                            // ascending, as the targets in CSR
+                            if (isOriented(node, target))
+                                page[pos++] = target;
+                        }
+                    }
+                }
+            });
+            forEachRange(new Range() {
+                @Override
+                void process(int from, int to) {
+                    long rangeTotal = 0;
+                    for (int node = from; node < to; node++) {
+                        long nodeCount = countFrom(node);
+                        if (nodeCount != 0) {
+                            counts.addAndGet(node, nodeCount);
+                            rangeTotal += nodeCount;
+                        }
+                    }
+                    total.addAndGet(rangeTotal);
+                }
+            });
+            return new Triangles(degrees, counts, total.get());
+        }
+
+        /**
+         * Places oriented targets of the nodes one after another, starting a new page, if the targets
+         * of the node don't fit the current one
+         */
+        private void layOutPages() {
+            int pageCount = 1;
+            int pos = 0;
+            for (int node = 0; node < indexCount; node++) {
+                int orientedDegree = orientedDegrees[node];
+                if (pos + orientedDegree > PAGE_SIZE) {
+                    pageCount++;
+                    pos = 0;
+                }
+                orientedStarts[node] = ((long) (pageCount - 1) << PAGE_SHIFT) | pos;
+                pos += orientedDegree;
+            }
+            pages = new int[pageCount][];
+            for (int i = 0; i < pageCount - 1; i++) {
+                pages[i] = new int[PAGE_SIZE];
+            }
+            pages[pageCount - 1] = new int[pos];
+        }
+
+        /**
+         * Counts triangles, in which the node is the lowest one, adds them to the other two nodes
+         *
+         * @return the number of the triangles
+         */
+        private long countFrom(int node) {
+            int degree = orientedDegrees[node];
+            if (degree < 2)
+                return 0;
+            int[] page = pages[(int) (orientedStarts[node] >>> PAGE_SHIFT)];
+            int start = (int) (orientedStarts[node] & PAGE_MASK), end = start + degree;
+            long nodeCount = 0;
+            for (int i = start; i < end; i++) {
+                int target = page[i];
+                int targetDegree = orientedDegrees[target];
+                if (targetDegree == 0)
+                    continue;
+                int[] targetPage = pages[(int) (orientedStarts[target] >>> PAGE_SHIFT)];
+                int j = (int) (orientedStarts[target] & PAGE_MASK), targetEnd = j + targetDegree;
+                // both are ascending, a common target closes a triangle
+                int k = start;
+                long targetCount = 0;
+                while (k < end && j < targetEnd) {
+                    int a = page[k], b = targetPage[j];
+                    if (a < b) {
+                        k++;
+                    } else if (a > b) {
+                        j++;
+                    } else {
+                        counts.incrementAndGet(a);
+                        targetCount++;
+                        k++;
+                        j++;
+                    }
+                }
+                if (targetCount != 0) {
+                    counts.addAndGet(target, targetCount);
+                    nodeCount += targetCount;
+                }
+            }
+            return nodeCount;
+        }
+
+        private void forEachRange(Range range) {
+            range.from = 0;
+            range.to = indexCount;
+            pool.invoke(range);
+        }
+    }
+
+    /**
+     * Fork-join task over a range of node indexes, split in halves down to {@link #TASK_NODES}
+     */
+    @SuppressWarnings("serial")
+    private static abstract class Range extends RecursiveAction {
+        int from;
+        int to;
+
+        abstract void process(int from, int to);
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_NODES) {
+                process(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Half(this, from, mid), new Half(this, mid, to));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Half extends Range {
+        private final Range root;
+
+        Half(Range root, int from, int to) {
+            this.root = root instanceof Half ? ((Half) root).root : root;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        void process(int from, int to) {
+            root.process(from, to);
+        }
+    }
+}
@@ -17,6 +17,8 @@ public class BTree {
     }
 
     private static final byte LEAF_LEVEL = 0;
+    /** Level of pages, freed by merges, until they are reused */
+    private static final byte FREE_LEVEL = -1;
 
     private static class Stats {
         private ArrayList<Integer> pageCountsByLevel;
@@ -42,6 +44,15 @@ public class BTree {
 
     private Stats stats;
 
+    /** Indexes of freed pages, reused before allocating new pages in the storage */
+    private ArrayList<Integer> freePages = new ArrayList<>();
+
+    // state of bottom-up appending: current page and its index on each level, from leaves
+    private transient ArrayList<ByteBuffer> appendPages;
+    private transient ArrayList<Integer> appendPageIndexes;
+    private transient int leafAppendLimit;
+    private transient int innerAppendLimit;
+
     public BTree(Storage storage, int valueLength) {
         this.valueLength = valueLength;
         // + int key
@@ -73,6 +84,9 @@ public class BTree {
     void setStorageAfterDeserialization(Storage storage) {
         this.storage = storage;
         root = storage.cacheAndGetPage(rootIndex);
+        // absent in the metadata of trees, written before deletion was supported
+        if (freePages == null)
+            freePages = new ArrayList<>();
     }
 
     void countStats() {
@@ -88,31 +102,132 @@ public class BTree {
 
     @Nullable
     public ByteBuffer get(int key) {
-        ByteBuffer page = root;
-        boolean rootIsInner = rootLevel != LEAF_LEVEL;
-        if (rootIsInner) {
-            do {
-                int keyIndex = keyIndexOnInner(page, key);
-                if (keyIndex >= 0) {
-                    locateValueOnInner(page, keyIndex);
-                    return slice(page);
-                } else {
-                    int childIndex = -keyIndex - 1;
-                    page = getChild(page, childIndex);
+        long valueAddress = locateValue(key);
+        if (valueAddress < 0)
+            return null;
+        // pages are got from the storage, not shared, because they are going to be moved
+        ByteBuffer page = storage.getPage((int) (valueAddress >>> 32));
+        int valuePos = (int) valueAddress;
+        page.limit(valuePos + valueLength);
+        page.position(valuePos);
+        return slice(page);
+    }
+
+    /**
+     * Returns the byte of the value by the key, or {@code absentValue}, if the tree doesn't contain
+     * the key. Doesn't allocate.
+     */
+    public byte getValueByte(int key, int offsetInValue, byte absentValue) {
+        long valueAddress = locateValue(key);
+        if (valueAddress < 0)
+            return absentValue;
+        int pageIndex = (int) (valueAddress >>> 32);
+        return storage.pageBuffer(pageIndex).get(
+                storage.pageOffset(pageIndex) + (int) valueAddress + offsetInValue);
+    }
+
+    /**
+     * Returns the long from the offset in the value by the key, or {@code absentValue}, if the tree doesn't
+     * contain the key. Doesn't allocate.
+     */
+    public long getValueLong(int key, int offsetInValue, long absentValue) {
+        long valueAddress = locateValue(key);
+        if (valueAddress < 0)
+            return absentValue;
+        int pageIndex = (int) (valueAddress >>> 32);
+        return storage.pageBuffer(pageIndex).getLong(
+                storage.pageOffset(pageIndex) + (int) valueAddress + offsetInValue);
+    }
+
+    /**
+     * Passes values of keys {@code sortedKeys[from]}, ..., {@code sortedKeys[to - 1]}, sorted in ascending
+     * order, to the action along with the indexes of the keys in the array, absent keys are skipped.
+     * Keys, which fall into the same subtree, share the descent, so each page is read at most once.
+     */
+    public void getAll(int[] sortedKeys, int from, int to, IntObjConsumer<ByteBuffer> action) {
+        if (from < to)
+            getAll(rootIndex, sortedKeys, from, to, action);
+    }
+
+    private void getAll(int pageIndex, int[] keys, int from, int to, IntObjConsumer<ByteBuffer> action) {
+        // the page is read after the action and descents into children, which could move the limit
+        // of the storage's buffer
+        ByteBuffer buffer = duplicate(storage.pageBuffer(pageIndex));
+        int pageOffset = storage.pageOffset(pageIndex);
+        int entryCount = buffer.getInt(pageOffset + 4);
+        boolean isLeaf = buffer.get(pageOffset) == LEAF_LEVEL;
+        int firstKeyPos = pageOffset + (isLeaf ? leafPageHeaderSize : innerPageHeaderSize + 4);
+        int blockSize = isLeaf ? entrySize : innerBlockSize;
+        // keys are sorted, so the search for the next key starts from the position of the previous one
+        int startIndex = 0;
+        for (int i = from; i < to; ) {
+            int keyIndex = keyIndex(buffer, firstKeyPos + startIndex * blockSize, blockSize,
+                    entryCount - startIndex, keys[i]);
+            if (keyIndex >= 0) {
+                startIndex += keyIndex;
+                int valuePos = isLeaf ? leafPageHeaderSize + startIndex * entrySize + 4 :
+                        innerPageHeaderSize + startIndex * innerBlockSize + 8;
+                buffer.limit(pageOffset + valuePos + valueLength);
+                buffer.position(pageOffset + valuePos);
+                ByteBuffer value = slice(buffer);
+                buffer.clear();
+                action.accept(i, value);
+                i++;
+                continue;
+            }
+            startIndex += -keyIndex - 1;
+            if (isLeaf) {
+                i++;
+                continue;
+            }
+            // keys less than the next key on the page fall into the same child
+            int childTo = i + 1;
+            if (startIndex < entryCount) {
+                int nextKey = buffer.getInt(firstKeyPos + startIndex * blockSize);
+                while (childTo < to && keys[childTo] < nextKey) {
+                    childTo++;
                 }
-            } while (!isLeaf(page));
+            } else {
+                childTo = to;
+            }
+            getAll(buffer.getInt(pageOffset + innerPageHeaderSize + startIndex * innerBlockSize),
+                    keys, i, childTo, action);
+            i = childTo;
         }
-        int keyIndex = keyIndexOnLeaf(page, key);
-        if (keyIndex >= 0) {
-            locateValueOnLeaf(page, keyIndex);
-            return slice(page);
-        } else {
-            return null;
+    }
+
+    /**
+     * Descends the tree by the storage's page buffers, read only by absolute methods, so lookups don't
+     * allocate and could be done concurrently.
+     *
+     * @return the page index in the high half and the value position within the page in the low half,
+     * or -1, if the tree doesn't contain the key
+     */
+    private long locateValue(int key) {
+        int pageIndex = rootIndex;
+        for (; ;) {
+            ByteBuffer buffer = storage.pageBuffer(pageIndex);
+            int pageOffset = storage.pageOffset(pageIndex);
+            int entryCount = buffer.getInt(pageOffset + 4);
+            if (buffer.get(pageOffset) == LEAF_LEVEL) {
+                int keyIndex = keyIndex(buffer, pageOffset + leafPageHeaderSize, entrySize, entryCount, key);
+                if (keyIndex < 0)
+                    return -1L;
+                return ((long) pageIndex << 32) | (leafPageHeaderSize + keyIndex * entrySize + 4);
+            }
+            int keyIndex = keyIndex(buffer, pageOffset + innerPageHeaderSize + 4, innerBlockSize, entryCount, key);
+            if (keyIndex >= 0)
+                return ((long) pageIndex << 32) | (innerPageHeaderSize + keyIndex * innerBlockSize + 8);
+            int childIndex = -keyIndex - 1;
+            pageIndex = buffer.getInt(pageOffset + innerPageHeaderSize + childIndex * innerBlockSize);
         }
     }
 
     @NotNull
     public ByteBuffer insert(int key) {
+        if (appendPages != null)
+            throw new IllegalStateException("The tree is being built by appending");
+        acquireRoot();
         boolean rootIsLeaf = rootLevel == LEAF_LEVEL;
         if (isFull(root, rootIsLeaf)) {
             splitRoot();
@@ -128,7 +243,7 @@ public class BTree {
                     return slice(page);
                 } else {
                     int childIndex = -keyIndex - 1;
-                    ByteBuffer childPage = getChild(page, childIndex);
+                    ByteBuffer childPage = getChildForUpdate(page, childIndex);
                     boolean childIsLeaf = isLeaf(childPage);
                     if (isFull(childPage, childIsLeaf)) {
                         if (childIsLeaf) splitLeafChild(page, childIndex, childPage);
@@ -142,7 +257,7 @@ public class BTree {
                             childIndex += 1;
                         }
                     }
-                    page = getChild(page, childIndex);
+                    page = getChildForUpdate(page, childIndex);
                     if (childIsLeaf) break;
                 }
             }
@@ -165,10 +280,455 @@ public class BTree {
         return slice(page);
     }
 
+    /**
+     * Removes the entry by the key. Like {@link #insert(int)}, goes top-down in a single pass: before
+     * descending to a child with the minimum number of entries, the child borrows an entry from a sibling
+     * through the parent, or is merged with a sibling. Pages, freed by merges, are reused by later
+     * insertions. Pages, which are underfilled by appending, are tolerated: they could be merged, but
+     * a child without siblings is descended as it is.
+     *
+     * @return true if the tree contained the key
+     */
+    public boolean remove(int key) {
+        if (appendPages != null)
+            throw new IllegalStateException("The tree is being built by appending");
+        acquireRoot();
+        ByteBuffer page = root;
+        for (; ;) {
+            if (isLeaf(page)) {
+                int keyIndex = keyIndexOnLeaf(page, key);
+                if (keyIndex < 0)
+                    return false;
+                int entryCount = getEntryCount(page);
+                int entryPos = leafPageHeaderSize + keyIndex * entrySize;
+                shiftWithin(page, entryPos + entrySize, (entryCount - keyIndex - 1) * entrySize, -entrySize);
+                setEntryCount(page, entryCount - 1);
+                stats.entryCount--;
+                return true;
+            }
+            int keyIndex = keyIndexOnInner(page, key);
+            if (keyIndex >= 0) {
+                // replace the entry with the predecessor or the successor from a child, which could give
+                // an entry, and remove it from there, or merge the children around the entry
+                ByteBuffer leftChild = getChildForUpdate(page, keyIndex);
+                ByteBuffer rightChild = getChildForUpdate(page, keyIndex + 1);
+                int entryPos = innerPageHeaderSize + keyIndex * innerBlockSize + 4;
+                if (hasSpareEntries(leftChild)) {
+                    key = copyExtremeEntry(leftChild, false, page, entryPos);
+                    page = leftChild;
+                } else if (hasSpareEntries(rightChild)) {
+                    key = copyExtremeEntry(rightChild, true, page, entryPos);
+                    page = rightChild;
+                } else {
+                    mergeChildren(page, keyIndex, leftChild, rightChild);
+                    page = leftChild;
+                }
+            } else {
+                int childIndex = -keyIndex - 1;
+                page = prepareChildForRemoval(page, childIndex);
+            }
+            collapseRootIfEmpty();
+        }
+    }
+
+    /**
+     * Pages, got from the storage by previous modifications, including the root, could be evicted
+     * from the storage cache since, so they are got again
+     */
+    private void acquireRoot() {
+        storage.releasePages();
+        root = storage.cacheAndGetPage(rootIndex);
+    }
+
+    private boolean hasSpareEntries(ByteBuffer page) {
+        return getEntryCount(page) > (isLeaf(page) ? leafPageCapacity : innerPageCapacity) / 2;
+    }
+
+    /**
+     * Copies the greatest (or the least, if {@code least} is true) entry of the subtree to the position
+     * on the inner page
+     *
+     * @return the key of the entry
+     */
+    private int copyExtremeEntry(ByteBuffer subtreeRoot, boolean least, ByteBuffer innerPage, int entryPos) {
+        ByteBuffer page = subtreeRoot;
+        // pages could be cached and left with a narrowed limit by the previous lookups
+        page.clear();
+        while (!isLeaf(page)) {
+            int childIndex = least ? 0 : getEntryCount(page);
+            page = storage.getPage(page.getInt(innerPageHeaderSize + childIndex * innerBlockSize));
+            page.clear();
+        }
+        int extremeEntryPos = leafPageHeaderSize + (least ? 0 : getEntryCount(page) - 1) * entrySize;
+        innerPage.clear();
+        copy(page, extremeEntryPos, innerPage, entryPos, entrySize);
+        return innerPage.getInt(entryPos);
+    }
+
+    /**
+     * Makes sure the child has spare entries, if it has a sibling
+     *
+     * @return the page to descend to, the child, or the left sibling, if the child is merged into it
+     */
+    private ByteBuffer prepareChildForRemoval(ByteBuffer parentPage, int childIndex) {
+        ByteBuffer child = getChildForUpdate(parentPage, childIndex);
+        if (hasSpareEntries(child))
+            return child;
+        int parentEntryCount = getEntryCount(parentPage);
+        ByteBuffer leftSibling = childIndex > 0 ? getChildForUpdate(parentPage, childIndex - 1) : null;
+        if (leftSibling != null && hasSpareEntries(leftSibling)) {
+            rotateFromLeft(parentPage, childIndex, leftSibling, child);
+            return child;
+        }
+        ByteBuffer rightSibling = childIndex < parentEntryCount ?
+                getChildForUpdate(parentPage, childIndex + 1) : null;
+        if (rightSibling != null && hasSpareEntries(rightSibling)) {
+            rotateFromRight(parentPage, childIndex, child, rightSibling);
+            return child;
+        }
+        if (rightSibling != null) {
+            mergeChildren(parentPage, childIndex, child, rightSibling);
+            return child;
+        } else if (leftSibling != null) {
+            mergeChildren(parentPage, childIndex - 1, leftSibling, child);
+            return leftSibling;
+        } else {
+            return child;
+        }
+    }
+
+    /**
+     * Moves the last entry of the left sibling to the parent, and the separator from the parent
+     * to the beginning of the child, with the last child of the sibling, if they are inner pages
+     */
+    private void rotateFromLeft(ByteBuffer parentPage, int childIndex, ByteBuffer leftSibling, ByteBuffer child) {
+        parentPage.clear();
+        leftSibling.clear();
+        child.clear();
+        int separatorPos = innerPageHeaderSize + (childIndex - 1) * innerBlockSize + 4;
+        int siblingEntryCount = getEntryCount(leftSibling);
+        int childEntryCount = getEntryCount(child);
+        if (isLeaf(child)) {
+            shiftWithin(child, leafPageHeaderSize, childEntryCount * entrySize, entrySize);
+            copy(parentPage, separatorPos, child, leafPageHeaderSize, entrySize);
+            copy(leftSibling, leafPageHeaderSize + (siblingEntryCount - 1) * entrySize,
+                    parentPage, separatorPos, entrySize);
+        } else {
+            shiftWithin(child, innerPageHeaderSize, childEntryCount * innerBlockSize + 4, innerBlockSize);
+            copy(parentPage, separatorPos, child, innerPageHeaderSize + 4, entrySize);
+            int siblingLastChildPos = innerPageHeaderSize + siblingEntryCount * innerBlockSize;
+            child.putInt(innerPageHeaderSize, leftSibling.getInt(siblingLastChildPos));
+            copy(leftSibling, siblingLastChildPos - entrySize, parentPage, separatorPos, entrySize);
+        }
+        setEntryCount(leftSibling, siblingEntryCount - 1);
+        setEntryCount(child, childEntryCount + 1);
+    }
+
+    /**
+     * Moves the separator from the parent to the end of the child, with the first child of the right sibling,
+     * if they are inner pages, and the first entry of the sibling to the parent
+     */
+    private void rotateFromRight(ByteBuffer parentPage, int childIndex, ByteBuffer child, ByteBuffer rightSibling) {
+        parentPage.clear();
+        child.clear();
+        rightSibling.clear();
+        int separatorPos = innerPageHeaderSize + childIndex * innerBlockSize + 4;
+        int childEntryCount = getEntryCount(child);
+        int siblingEntryCount = getEntryCount(rightSibling);
+        if (isLeaf(child)) {
+            copy(parentPage, separatorPos, child, leafPageHeaderSize + childEntryCount * entrySize, entrySize);
+            copy(rightSibling, leafPageHeaderSize, parentPage, separatorPos, entrySize);
+            shiftWithin(rightSibling, leafPageHeaderSize + entrySize, (siblingEntryCount - 1) * entrySize,
+                    -entrySize);
+        } else {
+            int childEndPos = innerPageHeaderSize + childEntryCount * innerBlockSize + 4;
+            copy(parentPage, separatorPos, child, childEndPos, entrySize);
+            child.putInt(childEndPos + entrySize, rightSibling.getInt(innerPageHeaderSize));
+            copy(rightSibling, innerPageHeaderSize + 4, parentPage, separatorPos, entrySize);
+            shiftWithin(rightSibling, innerPageHeaderSize + innerBlockSize,
+                    (siblingEntryCount - 1) * innerBlockSize + 4, -innerBlockSize);
+        }
+        setEntryCount(child, childEntryCount + 1);
+        setEntryCount(rightSibling, siblingEntryCount - 1);
+    }
+
+    /**
+     * Moves the separator of the children and all entries of the right child to the left child,
+     * removes the separator and the right child from the parent and frees the right child page
+     */
+    private void mergeChildren(ByteBuffer parentPage, int leftChildIndex, ByteBuffer leftChild,
+                               ByteBuffer rightChild) {
+        parentPage.clear();
+        leftChild.clear();
+        rightChild.clear();
+        int separatorPos = innerPageHeaderSize + leftChildIndex * innerBlockSize + 4;
+        int leftEntryCount = getEntryCount(leftChild);
+        int rightEntryCount = getEntryCount(rightChild);
+        if (isLeaf(leftChild)) {
+            copy(parentPage, separatorPos, leftChild, leafPageHeaderSize + leftEntryCount * entrySize, entrySize);
+            copy(rightChild, leafPageHeaderSize,
+                    leftChild, leafPageHeaderSize + (leftEntryCount + 1) * entrySize, rightEntryCount * entrySize);
+        } else {
+            copy(parentPage, separatorPos,
+                    leftChild, innerPageHeaderSize + leftEntryCount * innerBlockSize + 4, entrySize);
+            copy(rightChild, innerPageHeaderSize, leftChild,
+                    innerPageHeaderSize + (leftEntryCount + 1) * innerBlockSize, rightEntryCount * innerBlockSize + 4);
+        }
+        setEntryCount(leftChild, leftEntryCount + 1 + rightEntryCount);
+
+        int rightChildIndex = parentPage.getInt(separatorPos + entrySize);
+        int parentEntryCount = getEntryCount(parentPage);
+        // the separator and the following right child pointer
+        shiftWithin(parentPage, separatorPos + innerBlockSize,
+                (parentEntryCount - leftChildIndex - 1) * innerBlockSize, -innerBlockSize);
+        setEntryCount(parentPage, parentEntryCount - 1);
+        freePage(rightChildIndex);
+    }
+
+    /**
+     * If the last entry of the inner root is merged to a child, the child becomes the root
+     */
+    private void collapseRootIfEmpty() {
+        while (rootLevel != LEAF_LEVEL && getEntryCount(root) == 0) {
+            int oldRootIndex = rootIndex;
+            rootIndex = root.getInt(innerPageHeaderSize);
+            root = storage.cacheAndGetPage(rootIndex);
+            freePage(oldRootIndex);
+            stats.pageCountsByLevel.remove(rootLevel);
+            rootLevel--;
+        }
+    }
+
+    /**
+     * Starts building the empty tree bottom-up: keys are appended in ascending order, pages are filled
+     * up to the fill factor of their capacity. Until {@link #finishAppending()} the tree could be
+     * only appended to.
+     */
+    void startAppending(float fillFactor) {
+        if (rootLevel != LEAF_LEVEL || getEntryCount(root) != 0)
+            throw new IllegalStateException("Only an empty tree could be built by appending");
+        if (!(fillFactor > 0.0f && fillFactor <= 1.0f))
+            throw new IllegalArgumentException("Fill factor should be in (0, 1], " + fillFactor + " given");
+        leafAppendLimit = Math.max(1, (int) (leafPageCapacity * fillFactor));
+        innerAppendLimit = Math.max(1, (int) (innerPageCapacity * fillFactor));
+        appendPages = new ArrayList<>();
+        appendPages.add(root);
+        appendPageIndexes = new ArrayList<>();
+        appendPageIndexes.add(rootIndex);
+    }
+
+    boolean isAppending() {
+        return appendPages != null;
+    }
+
+    /**
+     * @param key must be greater than all keys, appended before
+     * @return the value buffer to write to
+     */
+    @NotNull
+    ByteBuffer append(int key) {
+        stats.entryCount++;
+        ByteBuffer leaf = appendPages.get(0);
+        int entryCount = getEntryCount(leaf);
+        if (entryCount < leafAppendLimit) {
+            leaf.clear();
+            leaf.putInt(leafPageHeaderSize + entryCount * entrySize, key);
+            setEntryCount(leaf, entryCount + 1);
+            locateValueOnLeaf(leaf, entryCount);
+            return slice(leaf);
+        }
+        // the leaf is filled, the entry goes up as the separator of it and the next leaf
+        ByteBuffer value = appendSeparator(1, key, appendPageIndexes.get(0));
+        newAppendPage(LEAF_LEVEL);
+        return value;
+    }
+
+    private ByteBuffer appendSeparator(int level, int key, int leftChildIndex) {
+        if (level == appendPages.size())
+            newAppendPage(level);
+        ByteBuffer page = appendPages.get(level);
+        page.clear();
+        int entryCount = getEntryCount(page);
+        int blockPos = innerPageHeaderSize + entryCount * innerBlockSize;
+        page.putInt(blockPos, leftChildIndex);
+        if (entryCount < innerAppendLimit) {
+            page.putInt(blockPos + 4, key);
+            setEntryCount(page, entryCount + 1);
+            locateValueOnInner(page, entryCount);
+            return slice(page);
+        }
+        // leftChildIndex is the last child of the filled page
+        ByteBuffer value = appendSeparator(level + 1, key, appendPageIndexes.get(level));
+        newAppendPage(level);
+        return value;
+    }
+
+    private void newAppendPage(int level) {
+        int pageIndex = allocatePage();
+        ByteBuffer page = storage.cacheAndGetPage(pageIndex);
+        setLevel(page, (byte) level);
+        if (level == appendPages.size()) {
+            appendPages.add(page);
+            appendPageIndexes.add(pageIndex);
+            stats.pageCountsByLevel.add(1);
+        } else {
+            appendPages.set(level, page);
+            appendPageIndexes.set(level, pageIndex);
+            incrementPageCountByLevel(level);
+        }
+    }
+
+    /**
+     * Links the last pages of levels and sets the root. The last pages could be underfilled, the last leaf
+     * and the last inner pages even could have no entries.
+     */
+    void finishAppending() {
+        int levels = appendPages.size();
+        for (int level = 1; level < levels; level++) {
+            ByteBuffer page = appendPages.get(level);
+            page.clear();
+            page.putInt(innerPageHeaderSize + getEntryCount(page) * innerBlockSize,
+                    appendPageIndexes.get(level - 1));
+        }
+        rootIndex = appendPageIndexes.get(levels - 1);
+        root = appendPages.get(levels - 1);
+        rootLevel = (byte) (levels - 1);
+        appendPages = null;
+        appendPageIndexes = null;
+    }
+
+    /**
+     * Passes entries with keys from {@code fromKey} to {@code toKey}, both inclusive, in ascending order
+     * of keys
+     */
+    public void forEachEntryInRange(int fromKey, int toKey, IntObjConsumer<ByteBuffer> action) {
+        Cursor cursor = cursor(fromKey);
+        while (cursor.tryAdvance() && cursor.key() <= toKey) {
+            action.accept(cursor.key(), cursor.value());
+        }
+    }
+
+    /**
+     * Returns the cursor, positioned before the first entry with the key not less than {@code fromKey}.
+     * The tree must not be modified while the cursor is used.
+     */
+    public Cursor cursor(int fromKey) {
+        if (appendPages != null)
+            throw new IllegalStateException("The tree is being built by appending");
+        return new Cursor(fromKey);
+    }
+
+    /**
+     * Ordered cursor over entries. Pages are not linked, so the cursor keeps the path from the root
+     * to the current page: on each level the page index and the index of the next entry on the page.
+     * On inner pages the entry {@code i} follows the subtree of the child {@code i}. Pages are read
+     * by absolute methods, advancing doesn't allocate.
+     */
+    public final class Cursor implements EntryCursor {
+        private final int[] pageIndexes;
+        private final int[] nextEntries;
+        /** Number of levels in the path */
+        private int depth = 0;
+        private int key;
+        private int valuePageIndex = -1;
+        private int valuePos;
+
+        private Cursor(int fromKey) {
+            pageIndexes = new int[rootLevel + 1];
+            nextEntries = new int[rootLevel + 1];
+            int pageIndex = rootIndex;
+            for (; ;) {
+                ByteBuffer buffer = storage.pageBuffer(pageIndex);
+                int pageOffset = storage.pageOffset(pageIndex);
+                int entryCount = buffer.getInt(pageOffset + 4);
+                pageIndexes[depth] = pageIndex;
+                if (buffer.get(pageOffset) == LEAF_LEVEL) {
+                    int keyIndex = keyIndex(buffer, pageOffset + leafPageHeaderSize, entrySize, entryCount, fromKey);
+                    nextEntries[depth++] = keyIndex >= 0 ? keyIndex : -keyIndex - 1;
+                    return;
+                }
+                int keyIndex = keyIndex(buffer, pageOffset + innerPageHeaderSize + 4, innerBlockSize,
+                        entryCount, fromKey);
+                if (keyIndex >= 0) {
+                    nextEntries[depth++] = keyIndex;
+                    return;
+                }
+                int childIndex = -keyIndex - 1;
+                nextEntries[depth++] = childIndex;
+                pageIndex = buffer.getInt(pageOffset + innerPageHeaderSize + childIndex * innerBlockSize);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance() {
+            while (depth > 0) {
+                int level = depth - 1;
+                int pageIndex = pageIndexes[level];
+                ByteBuffer buffer = storage.pageBuffer(pageIndex);
+                int pageOffset = storage.pageOffset(pageIndex);
+                int entry = nextEntries[level];
+                if (entry == buffer.getInt(pageOffset + 4)) {
+                    depth--;
+                    continue;
+                }
+                nextEntries[level] = entry + 1;
+                valuePageIndex = pageIndex;
+                if (buffer.get(pageOffset) == LEAF_LEVEL) {
+                    int entryPos = leafPageHeaderSize + entry * entrySize;
+                    key = buffer.getInt(pageOffset + entryPos);
+                    valuePos = entryPos + 4;
+                } else {
+                    int blockPos = innerPageHeaderSize + entry * innerBlockSize;
+                    key = buffer.getInt(pageOffset + blockPos + 4);
+                    valuePos = blockPos + 8;
+                    descendToLeftmostLeaf(buffer.getInt(pageOffset + blockPos + innerBlockSize));
+                }
+                return true;
+            }
+            valuePageIndex = -1;
+            return false;
+        }
+
+        private void descendToLeftmostLeaf(int pageIndex) {
+            for (; ;) {
+                pageIndexes[depth] = pageIndex;
+                nextEntries[depth++] = 0;
+                ByteBuffer buffer = storage.pageBuffer(pageIndex);
+                int pageOffset = storage.pageOffset(pageIndex);
+                if (buffer.get(pageOffset) == LEAF_LEVEL)
+                    return;
+                pageIndex = buffer.getInt(pageOffset + innerPageHeaderSize);
+            }
+        }
+
+        private void checkPositioned() {
+            if (valuePageIndex < 0)
+                throw new IllegalStateException("The cursor is not positioned at an entry");
+        }
+
+        @Override
+        public int key() {
+            checkPositioned();
+            return key;
+        }
+
+        @Override
+        public ByteBuffer value() {
+            checkPositioned();
+            ByteBuffer page = storage.getPage(valuePageIndex);
+            page.limit(valuePos + valueLength);
+            page.position(valuePos);
+            return slice(page);
+        }
+    }
+
     public void forEachEntry(final IntObjConsumer<ByteBuffer> action) {
         storage.forEachPage(new Consumer<ByteBuffer>() {
             @Override
             public void accept(ByteBuffer page) {
+                if (getLevel(page) == FREE_LEVEL)
+                    return;
+                page.clear();
                 boolean isLeaf = isLeaf(page);
                 int entryCount = getEntryCount(page);
                 if (isLeaf) {
@@ -202,8 +762,8 @@ public class BTree {
 
     private void splitRoot() {
         root.clear();
-        int rightHalfIndex = storage.pageCount();
-        ByteBuffer rightHalf = storage.allocateNewPage();
+        int rightHalfIndex = allocatePage();
+        ByteBuffer rightHalf = storage.cacheAndGetPage(rightHalfIndex);
         setLevel(rightHalf, rootLevel);
 
         incrementPageCountByLevel(rootLevel);
@@ -229,8 +789,8 @@ public class BTree {
         int toRightHalfCopyPos = toNewRootCopyPos + entrySize;
         copy(leftHalf, toRightHalfCopyPos, rightHalf, headerSize, rootHalfSize);
 
-        int newRootIndex = storage.pageCount();
-        ByteBuffer newRoot = storage.allocateNewPage();
+        int newRootIndex = allocatePage();
+        ByteBuffer newRoot = storage.cacheAndGetPage(newRootIndex);
         setLevel(newRoot, ++rootLevel);
         newRoot.putInt(4, 1); // set entry count
         newRoot.position(innerPageHeaderSize);
@@ -264,8 +824,8 @@ public class BTree {
     private void splitChild(ByteBuffer parentPage, int childIndex, ByteBuffer childPage,
                             byte childLevel, int newChildEntryCount, int childHalfSize, int childHeaderSize) {
         childPage.clear();
-        int rightHalfIndex = storage.pageCount();
-        ByteBuffer rightHalf = storage.allocateNewPage();
+        int rightHalfIndex = allocatePage();
+        ByteBuffer rightHalf = storage.cacheAndGetPage(rightHalfIndex);
         setLevel(rightHalf, childLevel);
         incrementPageCountByLevel(childLevel);
         setEntryCount(childPage, newChildEntryCount);
@@ -290,6 +850,31 @@ public class BTree {
         stats.pageCountsByLevel.set(level, stats.pageCountsByLevel.get(level) + 1);
     }
 
+    /**
+     * @return index of an empty page, either freed or newly allocated in the storage
+     */
+    private int allocatePage() {
+        if (freePages.isEmpty()) {
+            int pageIndex = storage.pageCount();
+            storage.allocateNewPage();
+            return pageIndex;
+        }
+        int pageIndex = freePages.remove(freePages.size() - 1);
+        ByteBuffer page = storage.cacheAndGetPage(pageIndex);
+        setLevel(page, LEAF_LEVEL);
+        setEntryCount(page, 0);
+        return pageIndex;
+    }
+
+    private void freePage(int pageIndex) {
+        ByteBuffer page = storage.cacheAndGetPage(pageIndex);
+        int level = getLevel(page);
+        stats.pageCountsByLevel.set(level, stats.pageCountsByLevel.get(level) - 1);
+        setLevel(page, FREE_LEVEL);
+        setEntryCount(page, 0);
+        freePages.add(pageIndex);
+    }
+
     private static byte getLevel(ByteBuffer page) {
         return page.get(0);
     }
@@ -310,13 +895,15 @@ public class BTree {
         page.putInt(4, entryCount);
     }
 
-    private ByteBuffer getChild(ByteBuffer innerPage, int index) {
+    /**
+     * The child is going to be modified, so it is cached by the storage, to keep changes off the storage file
+     * until it is flushed
+     */
+    private ByteBuffer getChildForUpdate(ByteBuffer innerPage, int index) {
+        innerPage.clear();
         int childPageIndex = innerPage.getInt(innerPageHeaderSize + index * innerBlockSize);
-        if (rootLevel < 2 || getLevel(innerPage) > 1) {
-            return storage.cacheAndGetPage(childPageIndex);
-        } else {
-            return storage.getPage(childPageIndex);
-        }
+        // the child could be left with a narrowed limit by the previous lookup
+        return (ByteBuffer) storage.cacheAndGetPage(childPageIndex).clear();
     }
 
     private int getKeyOnInner(ByteBuffer innerPage, int index) {
@@ -324,30 +911,25 @@ public class BTree {
     }
 
     private int keyIndexOnLeaf(ByteBuffer leafPage, int key) {
-        ByteBuffer page = ByteBuffer.allocate(storage.pageSize());
-        page.put(leafPage);
-        int blockSize = this.entrySize;
-        int low = 0;
-        int high = getEntryCount(leafPage) - 1;
-        while (low <= high) {
-            int mid = (low + high) / 2;
-            int midKey = leafPage.getInt(leafPageHeaderSize + mid * blockSize);
-
-            if (midKey < key) low = mid + 1;
-            else if (midKey > key) high = mid - 1;
-            else return mid;
-        }
-        return -low - 1;
+        // the page could be cached and left with a narrowed limit by the previous lookup
+        leafPage.clear();
+        return keyIndex(leafPage, leafPageHeaderSize, entrySize, getEntryCount(leafPage), key);
     }
 
     private int keyIndexOnInner(ByteBuffer innerPage, int key) {
         innerPage.clear();
-        int blockSize = this.innerBlockSize;
+        return keyIndex(innerPage, innerPageHeaderSize + 4, innerBlockSize, getEntryCount(innerPage), key);
+    }
+
+    /**
+     * @return index of the key, or {@code -insertionIndex - 1}
+     */
+    private static int keyIndex(ByteBuffer buffer, int firstKeyPos, int blockSize, int entryCount, int key) {
         int low = 0;
-        int high = getEntryCount(innerPage) - 1;
+        int high = entryCount - 1;
         while (low <= high) {
-            int mid = (low + high) / 2;
-            int midKey = innerPage.getInt(innerPageHeaderSize + 4 + mid * blockSize);
+            int mid = (low + high) >>> 1;
+            int midKey = buffer.getInt(firstKeyPos + mid * blockSize);
 
             if (midKey < key) low = mid + 1;
             else if (midKey > key) high = mid - 1;
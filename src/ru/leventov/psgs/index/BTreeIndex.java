@@ -9,7 +9,15 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 
+import static ru.leventov.psgs.util.ByteBuffers.asArray;
+
+/**
+ * Index of fixed-length values by int keys. If keys are dense enough, values of keys in the dense range
+ * are stored in the {@link DenseTable}, that takes a single page access to find the value, and the B-tree
+ * holds only keys out of the range. The table is chosen by {@link NewBTreeIndex#write(Path)}.
+ */
 public abstract class BTreeIndex {
     static int nativePageSize() {
         return 4096;
@@ -17,10 +25,13 @@ public abstract class BTreeIndex {
 
     static class Metadata {
         BTree bTree;
+        /** Absent, if the index has no dense table */
+        DenseTable denseTable;
         Storage.Metadata storageMetadata;
         Metadata() {}
-        Metadata(BTree bTree, Storage.Metadata storageMetadata) {
+        Metadata(BTree bTree, DenseTable denseTable, Storage.Metadata storageMetadata) {
             this.bTree = bTree;
+            this.denseTable = denseTable;
             this.storageMetadata = storageMetadata;
         }
     }
@@ -34,24 +45,190 @@ public abstract class BTreeIndex {
     }
 
     BTree bTree;
+    @Nullable DenseTable denseTable;
 
     @Nullable
     public ByteBuffer get(int key) {
+        if (denseTable != null && denseTable.covers(key))
+            return denseTable.get(key);
         return bTree.get(key);
     }
 
+    /**
+     * @see BTree#getValueByte(int, int, byte)
+     */
+    public byte getValueByte(int key, int offsetInValue, byte absentValue) {
+        if (denseTable != null && denseTable.covers(key))
+            return denseTable.getValueByte(key, offsetInValue, absentValue);
+        return bTree.getValueByte(key, offsetInValue, absentValue);
+    }
+
+    /**
+     * @see BTree#getValueLong(int, int, long)
+     */
+    public long getValueLong(int key, int offsetInValue, long absentValue) {
+        if (denseTable != null && denseTable.covers(key))
+            return denseTable.getValueLong(key, offsetInValue, absentValue);
+        return bTree.getValueLong(key, offsetInValue, absentValue);
+    }
+
+    /**
+     * @see BTree#getAll(int[], int, int, IntObjConsumer)
+     */
+    public void getAll(int[] sortedKeys, int from, int to, IntObjConsumer<ByteBuffer> action) {
+        if (denseTable == null) {
+            bTree.getAll(sortedKeys, from, to, action);
+            return;
+        }
+        // keys below the dense range, then keys in the range, then keys above it
+        int denseFrom = from;
+        while (denseFrom < to && sortedKeys[denseFrom] < denseTable.baseKey()) {
+            denseFrom++;
+        }
+        bTree.getAll(sortedKeys, from, denseFrom, action);
+        int denseTo = denseFrom;
+        for (; denseTo < to && denseTable.covers(sortedKeys[denseTo]); denseTo++) {
+            ByteBuffer value = denseTable.get(sortedKeys[denseTo]);
+            if (value != null)
+                action.accept(denseTo, value);
+        }
+        bTree.getAll(sortedKeys, denseTo, to, action);
+    }
+
+    /**
+     * If the index has a dense table, the value must be written with a non-zero first byte
+     */
     @NotNull
     public ByteBuffer insert(int key) {
+        if (denseTable != null) {
+            if (denseTable.couldGrowTo(key))
+                growDenseTable(key);
+            if (denseTable.covers(key))
+                return denseTable.insert(key);
+        }
         return bTree.insert(key);
     }
 
+    /**
+     * Moves entries of the B-tree, which get into the range of the grown table, to the table
+     */
+    private void growDenseTable(int key) {
+        final int fromKey = (int) denseTable.endKey();
+        denseTable.growTo(key);
+        final int toKey = (int) (denseTable.endKey() - 1);
+        final ArrayList<Integer> keys = new ArrayList<>();
+        final ArrayList<byte[]> values = new ArrayList<>();
+        bTree.forEachEntryInRange(fromKey, toKey, new IntObjConsumer<ByteBuffer>() {
+            @Override
+            public void accept(int key, ByteBuffer value) {
+                keys.add(key);
+                values.add(asArray(value));
+            }
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            bTree.remove(keys.get(i));
+            denseTable.insert(keys.get(i)).put(values.get(i));
+        }
+    }
+
+    /**
+     * @see BTree#remove(int)
+     */
+    public boolean remove(int key) {
+        if (denseTable != null && denseTable.covers(key))
+            return denseTable.remove(key);
+        return bTree.remove(key);
+    }
+
     public void forEachEntry(IntObjConsumer<ByteBuffer> action) {
-        bTree.forEachEntry(action);
+        if (denseTable == null) {
+            bTree.forEachEntry(action);
+        } else {
+            // the B-tree scans all pages of the storage, including pages of the table
+            forEachEntryInRange(Integer.MIN_VALUE, Integer.MAX_VALUE, action);
+        }
+    }
+
+    /**
+     * @see BTree#forEachEntryInRange(int, int, IntObjConsumer)
+     */
+    public void forEachEntryInRange(int fromKey, int toKey, IntObjConsumer<ByteBuffer> action) {
+        if (denseTable == null) {
+            bTree.forEachEntryInRange(fromKey, toKey, action);
+        } else {
+            EntryCursor cursor = cursor(fromKey);
+            while (cursor.tryAdvance() && cursor.key() <= toKey) {
+                action.accept(cursor.key(), cursor.value());
+            }
+        }
+    }
+
+    /**
+     * @see BTree#cursor(int)
+     */
+    public EntryCursor cursor(int fromKey) {
+        if (denseTable == null)
+            return bTree.cursor(fromKey);
+        return new SegmentedCursor(fromKey, denseTable);
+    }
+
+    /**
+     * Passes B-tree keys below the dense range, the dense range and B-tree keys above it
+     */
+    private class SegmentedCursor implements EntryCursor {
+        private final int fromKey;
+        private final DenseTable denseTable;
+        private EntryCursor segment;
+        private int segmentIndex = 0;
+
+        SegmentedCursor(int fromKey, DenseTable denseTable) {
+            this.fromKey = fromKey;
+            this.denseTable = denseTable;
+            segment = fromKey < denseTable.baseKey() ? bTree.cursor(fromKey) : null;
+        }
+
+        @Override
+        public boolean tryAdvance() {
+            for (; ;) {
+                if (segment != null && segment.tryAdvance()) {
+                    if (segmentIndex != 0 || segment.key() < denseTable.baseKey())
+                        return true;
+                }
+                if (segmentIndex == 2) {
+                    segment = null;
+                    return false;
+                }
+                segmentIndex++;
+                long endKey = denseTable.endKey();
+                if (segmentIndex == 1) {
+                    segment = fromKey < endKey ? denseTable.cursor(fromKey) : null;
+                } else {
+                    segment = endKey <= Integer.MAX_VALUE ? bTree.cursor((int) Math.max(fromKey, endKey)) : null;
+                }
+            }
+        }
+
+        private EntryCursor positionedSegment() {
+            if (segment == null)
+                throw new IllegalStateException("The cursor is not positioned at an entry");
+            return segment;
+        }
+
+        @Override
+        public int key() {
+            return positionedSegment().key();
+        }
+
+        @Override
+        public ByteBuffer value() {
+            return positionedSegment().value();
+        }
     }
 
-    static void writeMetadata(Path dir, BTree bTree, Storage storage) throws IOException {
+    static void writeMetadata(Path dir, BTree bTree, @Nullable DenseTable denseTable, Storage storage)
+            throws IOException {
         bTree.countStats();
-        Json.writeJson(metadataFile(dir), new Metadata(bTree, storage.metadata()));
+        Json.writeJson(metadataFile(dir), new Metadata(bTree, denseTable, storage.metadata()));
     }
 
     public static void copy(Path srcDir, Path dstDir) throws IOException {
@@ -0,0 +1,210 @@
+package ru.leventov.psgs.index;
+
+import gnu.trove.function.IntObjConsumer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import static ru.leventov.psgs.util.ByteBuffers.slice;
+
+/**
+ * Direct-addressed table of values for the contiguous range of keys from {@code baseKey}, stored in pages
+ * of the index storage: the value of the key is at {@code (key - baseKey) % entriesPerPage * valueLength}
+ * on the page {@code pages[(key - baseKey) / entriesPerPage]}, so a lookup touches a single page.
+ *
+ * <p>Absent entries are zeroed, so the table is used only for values, which first byte is never zero,
+ * like node descriptors, which start with the node class id.
+ */
+final class DenseTable {
+    /**
+     * The minimum ratio of entries to the range of keys, at which the table is preferred to the B-tree:
+     * 8-byte descriptors then take at most 16 bytes per entry, vs. 12 bytes in full B-tree leaves
+     */
+    static final float MIN_LOAD = 0.5f;
+
+    static boolean isDenseEnough(long entryCount, int minKey, int maxKey) {
+        return entryCount >= MIN_LOAD * ((long) maxKey - minKey + 1);
+    }
+
+    private final int valueLength;
+    private final int entriesPerPage;
+    private final int baseKey;
+    private final ArrayList<Integer> pages = new ArrayList<>();
+    private long entryCount = 0;
+
+    private transient Storage storage;
+
+    /**
+     * Creates the table, covering keys from {@code minKey} to {@code maxKey}
+     */
+    DenseTable(Storage storage, int valueLength, int minKey, int maxKey) {
+        this.storage = storage;
+        this.valueLength = valueLength;
+        entriesPerPage = storage.pageSize() / valueLength;
+        baseKey = minKey;
+        growTo(maxKey);
+    }
+
+    void setStorageAfterDeserialization(Storage storage) {
+        this.storage = storage;
+    }
+
+    long entryCount() {
+        return entryCount;
+    }
+
+    int baseKey() {
+        return baseKey;
+    }
+
+    /**
+     * @return the key after the last covered key, could exceed {@code Integer.MAX_VALUE} by 1
+     */
+    long endKey() {
+        return (long) baseKey + (long) pages.size() * entriesPerPage;
+    }
+
+    boolean covers(int key) {
+        return key >= baseKey && key < endKey();
+    }
+
+    /**
+     * Keys a bit beyond the end, like ids of nodes, added to the graph, are covered by growing the table,
+     * not further than by an eighth of the covered range, so that the table stays dense enough
+     */
+    boolean couldGrowTo(int key) {
+        long end = endKey();
+        return key >= end && key < end + Math.max(entriesPerPage, (end - baseKey) / 8);
+    }
+
+    void growTo(int key) {
+        while (!covers(key) && endKey() <= Integer.MAX_VALUE) {
+            pages.add(storage.pageCount());
+            // new pages are zeroed
+            storage.allocateNewPage();
+        }
+    }
+
+    private int pageIndex(int key) {
+        return pages.get((key - baseKey) / entriesPerPage);
+    }
+
+    private int valuePos(int key) {
+        return (key - baseKey) % entriesPerPage * valueLength;
+    }
+
+    @Nullable
+    ByteBuffer get(int key) {
+        ByteBuffer page = storage.getPage(pageIndex(key));
+        return present(page, valuePos(key)) ? locate(page, valuePos(key)) : null;
+    }
+
+    byte getValueByte(int key, int offsetInValue, byte absentValue) {
+        int pageIndex = pageIndex(key);
+        ByteBuffer buffer = storage.pageBuffer(pageIndex);
+        int valuePos = storage.pageOffset(pageIndex) + valuePos(key);
+        return buffer.get(valuePos) != 0 ? buffer.get(valuePos + offsetInValue) : absentValue;
+    }
+
+    long getValueLong(int key, int offsetInValue, long absentValue) {
+        int pageIndex = pageIndex(key);
+        ByteBuffer buffer = storage.pageBuffer(pageIndex);
+        int valuePos = storage.pageOffset(pageIndex) + valuePos(key);
+        return buffer.get(valuePos) != 0 ? buffer.getLong(valuePos + offsetInValue) : absentValue;
+    }
+
+    /**
+     * The caller must write the value with a non-zero first byte
+     */
+    @NotNull
+    ByteBuffer insert(int key) {
+        storage.releasePages();
+        ByteBuffer page = storage.cacheAndGetPage(pageIndex(key));
+        int valuePos = valuePos(key);
+        if (!present(page, valuePos))
+            entryCount++;
+        return locate(page, valuePos);
+    }
+
+    boolean remove(int key) {
+        storage.releasePages();
+        ByteBuffer page = storage.cacheAndGetPage(pageIndex(key));
+        int valuePos = valuePos(key);
+        if (!present(page, valuePos))
+            return false;
+        for (int i = 0; i < valueLength; i++) {
+            page.put(valuePos + i, (byte) 0);
+        }
+        entryCount--;
+        return true;
+    }
+
+    private static boolean present(ByteBuffer page, int valuePos) {
+        page.clear();
+        return page.get(valuePos) != 0;
+    }
+
+    private ByteBuffer locate(ByteBuffer page, int valuePos) {
+        page.limit(valuePos + valueLength);
+        page.position(valuePos);
+        return slice(page);
+    }
+
+    /**
+     * Passes present entries with keys from {@code fromKey} to {@code toKey}, both inclusive, in ascending
+     * order of keys
+     */
+    void forEachEntryInRange(int fromKey, int toKey, IntObjConsumer<ByteBuffer> action) {
+        Cursor cursor = cursor(fromKey);
+        while (cursor.tryAdvance() && cursor.key() <= toKey) {
+            action.accept(cursor.key(), cursor.value());
+        }
+    }
+
+    Cursor cursor(int fromKey) {
+        return new Cursor(Math.max(fromKey, baseKey));
+    }
+
+    /**
+     * Skips absent entries, reading pages by absolute methods
+     */
+    final class Cursor implements EntryCursor {
+        private long nextKey;
+        private int key;
+        private int pageIndex = -1;
+
+        private Cursor(int fromKey) {
+            nextKey = fromKey;
+        }
+
+        @Override
+        public boolean tryAdvance() {
+            for (long end = endKey(); nextKey < end; nextKey++) {
+                int k = (int) nextKey;
+                int pageIndex = pageIndex(k);
+                if (storage.pageBuffer(pageIndex).get(storage.pageOffset(pageIndex) + valuePos(k)) != 0) {
+                    key = k;
+                    this.pageIndex = pageIndex;
+                    nextKey++;
+                    return true;
+                }
+            }
+            pageIndex = -1;
+            return false;
+        }
+
+        @Override
+        public int key() {
+            if (pageIndex < 0)
+                throw new IllegalStateException("The cursor is not positioned at an entry");
+            return key;
+        }
+
+        @Override
+        public ByteBuffer value() {
+            return locate(storage.getPage(pageIndex), valuePos(key()));
+        }
+    }
+}
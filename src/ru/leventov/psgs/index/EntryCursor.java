@@ -0,0 +1,22 @@
+package ru.leventov.psgs.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cursor over index entries in ascending order of keys
+ */
+public interface EntryCursor {
+    /**
+     * Moves to the next entry
+     *
+     * @return false, if there are no more entries
+     */
+    boolean tryAdvance();
+
+    int key();
+
+    /**
+     * @return the value of the current entry, a new buffer on each call
+     */
+    ByteBuffer value();
+}
@@ -1,9 +1,13 @@
 package ru.leventov.psgs.index;
 
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
 import ru.leventov.psgs.io.Json;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 public class ExistingBTreeIndex extends BTreeIndex implements Closeable {
@@ -13,18 +17,65 @@ public class ExistingBTreeIndex extends BTreeIndex implements Closeable {
     private final Path dir;
 
     public ExistingBTreeIndex(Path dir, boolean readOnly) throws IOException {
+        this(dir, readOnly, HybridStorage.DEFAULT_PAGE_CACHE_CAPACITY, true);
+    }
+
+    /**
+     * @see HybridStorage#HybridStorage(Path, Storage.Metadata, boolean, int, boolean)
+     */
+    public ExistingBTreeIndex(Path dir, boolean readOnly, int pageCacheCapacity, boolean writeBack)
+            throws IOException {
         Metadata metadata = Json.readJson(metadataFile(dir), Metadata.class);
-        storage = new HybridStorage(storageFile(dir), metadata.storageMetadata, readOnly);
+        storage = new HybridStorage(storageFile(dir), metadata.storageMetadata, readOnly,
+                pageCacheCapacity, writeBack);
         bTree = metadata.bTree;
         bTree.setStorageAfterDeserialization(storage);
+        denseTable = metadata.denseTable;
+        if (denseTable != null)
+            denseTable.setStorageAfterDeserialization(storage);
         this.dir = dir;
         this.readOnly = readOnly;
     }
 
+    /**
+     * @return the cache of pages for update, or null if the index is read-only
+     */
+    public PageCache pageCache() {
+        return storage.pageCache();
+    }
+
+    /**
+     * Writes all changes of the index to the directory
+     */
+    public void flush() throws IOException {
+        storage.flush();
+        writeMetadata(dir, bTree, denseTable, storage);
+    }
+
+    /**
+     * Writes all changes, which {@link #flush()} is going to write, to the output, so that an interrupted
+     * flush could be redone with {@link #redoCheckpoint(Path, DataInput)}
+     */
+    public void writeCheckpoint(DataOutput out) {
+        bTree.countStats();
+        byte[] metadata = Json.toJson(new Metadata(bTree, denseTable, storage.metadata()))
+                .getBytes(StandardCharsets.UTF_8);
+        out.writeInt(metadata.length);
+        out.write(metadata);
+        storage.writePageImages(out);
+    }
+
+    public static void redoCheckpoint(Path dir, DataInput in) throws IOException {
+        byte[] metadata = new byte[in.readInt()];
+        in.readFully(metadata);
+        HybridStorage.redoPageImages(storageFile(dir), in);
+        Files.write(metadataFile(dir), metadata);
+    }
+
     @Override
     public void close() throws IOException {
         if (!readOnly) {
-            writeMetadata(dir, bTree, storage);
+            writeMetadata(dir, bTree, denseTable, storage);
         }
         storage.close();
     }
@@ -1,10 +1,10 @@
 package ru.leventov.psgs.index;
 
 import gnu.trove.function.Consumer;
-import gnu.trove.function.IntFunction;
-import gnu.trove.map.IntKeyMapIterator;
-import gnu.trove.map.hash.IntObjDHashMap;
-import gnu.trove.map.hash.TIntObjHashMap;
+import gnu.trove.function.IntObjConsumer;
+
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -18,23 +18,42 @@ import java.util.ArrayList;
 import static java.nio.channels.FileChannel.MapMode.*;
 import static ru.leventov.psgs.io.Files.*;
 import static ru.leventov.psgs.util.Bits.lowerPowerOf2;
+import static ru.leventov.psgs.util.ByteBuffers.duplicate;
 import static ru.leventov.psgs.util.ByteBuffers.slice;
 
 public class HybridStorage implements Storage, Closeable {
+    /** 16 MB with 4 KB pages */
+    public static final int DEFAULT_PAGE_CACHE_CAPACITY = 4096;
 
     private final ByteOrder byteOrder;
     private final int pageSize;
-    private final int mappedPageCount;
+    /** Pages, appended since the last flush, are not mapped */
+    private int mappedPageCount;
     private final int bufferIndexShift;
     private final int posInBufferMask;
     private final ArrayList<ByteBuffer> newPages = new ArrayList<>();
-    private final TIntObjHashMap<ByteBuffer> cachedPages = new IntObjDHashMap<>();
+    /** Null if the storage is read-only, or has no mapped pages */
+    private PageCache pageCache;
+    private final int pageCacheCapacity;
+    private final boolean writeBack;
     private final FileChannel fileChannel;
-    private final MappedByteBuffer[] mappedBuffers;
+    private MappedByteBuffer[] mappedBuffers;
     private final boolean readOnly;
 
-    public HybridStorage(Path file, Metadata metadata, boolean readOnly)
-            throws IOException {
+    public HybridStorage(Path file, Metadata metadata, boolean readOnly) throws IOException {
+        this(file, metadata, readOnly, DEFAULT_PAGE_CACHE_CAPACITY, true);
+    }
+
+    /**
+     * @param pageCacheCapacity maximum number of pages, cached for update in direct memory
+     * @param writeBack if false, modified pages are not written to the file until {@link #flush()},
+     *                  even if the page cache is full
+     */
+    public HybridStorage(Path file, Metadata metadata, boolean readOnly, int pageCacheCapacity,
+                         boolean writeBack) throws IOException {
+        if (pageCacheCapacity <= 0)
+            throw new IllegalArgumentException(
+                    "Page cache capacity must be positive, " + pageCacheCapacity + " given");
         mappedPageCount = metadata.pageCount;
         this.byteOrder = metadata.byteOrder;
         this.pageSize = metadata.pageSize;
@@ -47,9 +66,25 @@ public class HybridStorage implements Storage, Closeable {
         bufferIndexShift = shift;
 
         fileChannel = readOnly ? openForReading(file) : openForUpdating(file);
+        this.readOnly = readOnly;
+        mappedBuffers = new MappedByteBuffer[0];
+        mapBuffers();
+        this.pageCacheCapacity = pageCacheCapacity;
+        this.writeBack = writeBack;
+        updatePageCache();
+    }
+
+    /**
+     * Maps the file from the last mapped buffer, which could be partial, to the end
+     */
+    private void mapBuffers() throws IOException {
+        int bufferSize = (posInBufferMask + 1) * pageSize;
+        int firstRemapped = Math.max(mappedBuffers.length - 1, 0);
         ArrayList<MappedByteBuffer> buffers = new ArrayList<>();
-        int bufferSize = maxPagesPerBuffer * pageSize;
-        long pos = 0, size = fileChannel.size();
+        for (int i = 0; i < firstRemapped; i++) {
+            buffers.add(mappedBuffers[i]);
+        }
+        long pos = (long) firstRemapped * bufferSize, size = fileChannel.size();
         FileChannel.MapMode mapMode = readOnly ? READ_ONLY : READ_WRITE;
         while (pos < size) {
             MappedByteBuffer mappedByteBuffer = fileChannel.map(mapMode, pos, Math.min(size - pos, bufferSize));
@@ -58,12 +93,40 @@ public class HybridStorage implements Storage, Closeable {
             pos += bufferSize;
         }
         mappedBuffers = buffers.toArray(new MappedByteBuffer[buffers.size()]);
-        this.readOnly = readOnly;
     }
 
-    private MappedByteBuffer locateMappedPage(int pageIndex) {
-        MappedByteBuffer buffer = mappedBuffers[pageIndex >>> bufferIndexShift];
-        buffer.clear();
+    /**
+     * Creates the page cache, or a larger one, if the capacity is limited by the number of mapped pages.
+     * Should be called when all cached pages are clean, because they are dropped.
+     */
+    private void updatePageCache() {
+        if (readOnly || mappedPageCount == 0)
+            return;
+        int capacity = Math.min(pageCacheCapacity, mappedPageCount);
+        if (pageCache != null && pageCache.capacity() >= capacity)
+            return;
+        pageCache = new PageCache(capacity, pageSize, byteOrder, writeBack,
+                new IntObjConsumer<ByteBuffer>() {
+                    @Override
+                    public void accept(int pageIndex, ByteBuffer page) {
+                        locateMappedPage(pageIndex).put(page);
+                    }
+                });
+    }
+
+    /**
+     * @return the cache of pages for update, or null if the storage is read-only. Could be replaced
+     *         by a larger one on {@link #flush()}, if pages were appended.
+     */
+    public PageCache pageCache() {
+        return pageCache;
+    }
+
+    /**
+     * The shared mapped buffers are not moved, so that pages could be located concurrently
+     */
+    private ByteBuffer locateMappedPage(int pageIndex) {
+        ByteBuffer buffer = duplicate(mappedBuffers[pageIndex >>> bufferIndexShift]);
         buffer.position((pageIndex & posInBufferMask) * pageSize);
         buffer.limit(buffer.position() + pageSize);
         return buffer;
@@ -77,7 +140,7 @@ public class HybridStorage implements Storage, Closeable {
     @Override
     public ByteBuffer getPage(int pageIndex) {
         if (pageIndex < mappedPageCount) {
-            ByteBuffer cachedPage = cachedPages.get(pageIndex);
+            ByteBuffer cachedPage = pageCache != null ? pageCache.peek(pageIndex) : null;
             if (cachedPage != null) {
                 return cachedPage;
             } else {
@@ -88,23 +151,50 @@ public class HybridStorage implements Storage, Closeable {
         }
     }
 
+    /**
+     * Cached and new pages are buffers of the page size, modified only when the storage is not
+     * read-only, i. e. not shared by threads, so they could be cleared here
+     */
+    @Override
+    public ByteBuffer pageBuffer(int pageIndex) {
+        if (pageIndex < mappedPageCount) {
+            ByteBuffer cachedPage = pageCache != null ? pageCache.peek(pageIndex) : null;
+            return cachedPage != null ? cachedPage : mappedBuffers[pageIndex >>> bufferIndexShift];
+        } else {
+            return (ByteBuffer) newPages.get(pageIndex - mappedPageCount).clear();
+        }
+    }
+
+    @Override
+    public int pageOffset(int pageIndex) {
+        if (pageIndex < mappedPageCount && (pageCache == null || !pageCache.isCached(pageIndex))) {
+            return (pageIndex & posInBufferMask) * pageSize;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Read-only storage doesn't cache pages: they are never modified, and the cache couldn't be shared
+     * by concurrent readers
+     */
     @Override
     public ByteBuffer cacheAndGetPage(int pageIndex) {
+        if (readOnly)
+            return getPage(pageIndex);
         if (pageIndex < mappedPageCount) {
-            return cachedPages.computeIfAbsent(pageIndex, new IntFunction<ByteBuffer>() {
-                @Override
-                public ByteBuffer apply(int pageIndex) {
-                    MappedByteBuffer mappedPage = locateMappedPage(pageIndex);
-                    ByteBuffer cachedPage = allocatePage();
-                    cachedPage.put(mappedPage);
-                    return cachedPage;
-                }
-            });
+            return pageCache.getForUpdate(pageIndex, locateMappedPage(pageIndex));
         } else {
             return newPages.get(pageIndex - mappedPageCount);
         }
     }
 
+    @Override
+    public void releasePages() {
+        if (pageCache != null)
+            pageCache.nextEpoch();
+    }
+
     @Override
     public ByteBuffer allocateNewPage() {
         ByteBuffer newPage = allocatePage();
@@ -132,9 +222,10 @@ public class HybridStorage implements Storage, Closeable {
 
     @Override
     public void forEachPage(Consumer<ByteBuffer> action) {
-        ByteBuffer page = allocatePage();
         for (int i = 0; i < mappedPageCount; i++) {
-            ByteBuffer cachedPage = cachedPages.get(i);
+            // the action could modify the page
+            ByteBuffer cachedPage = pageCache != null && pageCache.isCached(i) ?
+                    pageCache.getForUpdate(i, null) : null;
             if (cachedPage != null) {
                 action.accept(cachedPage);
             } else {
@@ -147,22 +238,81 @@ public class HybridStorage implements Storage, Closeable {
         }
     }
 
+    /**
+     * Writes dirty cached pages and new pages to the file and forces them to the storage device.
+     * Pages stay cached, but are clean until they are got for update again. New pages are mapped
+     * from the file after that, and are cached for update like the other mapped pages.
+     */
+    public void flush() throws IOException {
+        if (pageCache != null)
+            pageCache.flush();
+        for (MappedByteBuffer mappedBuffer : mappedBuffers) {
+            mappedBuffer.force();
+        }
+        // append new pages to the end of the file
+        fileChannel.position((long) mappedPageCount * pageSize);
+        for (ByteBuffer newPage : newPages) {
+            newPage.clear();
+            fileChannel.write(newPage);
+        }
+        fileChannel.force(false);
+        if (!newPages.isEmpty()) {
+            mappedPageCount += newPages.size();
+            newPages.clear();
+            mapBuffers();
+            updatePageCache();
+        }
+    }
+
+    /**
+     * Writes images of all pages, which are going to be written to the file by {@link #flush()}. Complete
+     * only if the storage doesn't write back evicted pages.
+     */
+    void writePageImages(final DataOutput out) {
+        out.writeInt(pageSize);
+        out.writeInt((pageCache != null ? pageCache.dirtyPageCount() : 0) + newPages.size());
+        if (pageCache != null) {
+            pageCache.forEachDirtyPage(new IntObjConsumer<ByteBuffer>() {
+                @Override
+                public void accept(int pageIndex, ByteBuffer page) {
+                    out.writeInt(pageIndex);
+                    out.write(page);
+                }
+            });
+        }
+        for (int i = 0; i < newPages.size(); i++) {
+            out.writeInt(mappedPageCount + i);
+            ByteBuffer newPage = newPages.get(i);
+            newPage.clear();
+            out.write(newPage);
+        }
+    }
+
+    /**
+     * Writes page images, written by {@link #writePageImages(DataOutput)}, to the file
+     */
+    static void redoPageImages(Path file, DataInput in) throws IOException {
+        int pageSize = in.readInt();
+        int pageCount = in.readInt();
+        byte[] page = new byte[pageSize];
+        try (FileChannel channel = openForUpdating(file)) {
+            for (int i = 0; i < pageCount; i++) {
+                long pageIndex = in.readInt();
+                in.readFully(page);
+                ByteBuffer pageBuffer = ByteBuffer.wrap(page);
+                long pos = pageIndex * pageSize;
+                while (pageBuffer.hasRemaining()) {
+                    pos += channel.write(pageBuffer, pos);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (!readOnly) {
-            // flush cache
-            for (IntKeyMapIterator<ByteBuffer> it = cachedPages.mapIterator(); it.tryAdvance();) {
-                MappedByteBuffer mappedPage = locateMappedPage(it.intKey());
-                ByteBuffer cachedPage = it.value();
-                cachedPage.clear();
-                mappedPage.put(cachedPage);
-            }
-            // append new pages to the end of the file
-            fileChannel.position(mappedPageCount * pageSize);
-            for (ByteBuffer newPage : newPages) {
-                newPage.clear();
-                fileChannel.write(newPage);
-            }
+            flush();
         }
         fileChannel.close();
     }
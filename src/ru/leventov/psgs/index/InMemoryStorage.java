@@ -28,11 +28,27 @@ public class InMemoryStorage implements Storage {
         return pages.get(pageIndex);
     }
 
+    @Override
+    public ByteBuffer pageBuffer(int pageIndex) {
+        // the page could be left with a narrowed limit
+        return (ByteBuffer) pages.get(pageIndex).clear();
+    }
+
+    @Override
+    public int pageOffset(int pageIndex) {
+        return 0;
+    }
+
     @Override
     public ByteBuffer cacheAndGetPage(int pageIndex) {
         return pages.get(pageIndex);
     }
 
+    @Override
+    public void releasePages() {
+        // pages are not evicted
+    }
+
     @Override
     public ByteBuffer allocateNewPage() {
         ByteBuffer newPage = ByteBuffer.allocate(pageSize);
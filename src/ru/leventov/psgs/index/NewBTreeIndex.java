@@ -1,27 +1,168 @@
 package ru.leventov.psgs.index;
 
+import gnu.trove.function.IntObjConsumer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.leventov.psgs.io.Files;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 
 import static java.nio.file.Files.*;
 
+/**
+ * While keys are inserted in ascending order, the tree is built bottom-up, with pages filled up to
+ * the fill factor. On the first key out of order the index falls back to regular insertions.
+ *
+ * <p>If the dense table is allowed, and keys are dense enough, the index is written with all entries
+ * in the {@link DenseTable}.
+ */
 public class NewBTreeIndex extends BTreeIndex {
+    public static final float DEFAULT_FILL_FACTOR = 1.0f;
 
+    private final ByteOrder byteOrder;
+    private final int valueLength;
+    private final boolean denseTableAllowed;
     private final InMemoryStorage storage;
+    private boolean hasKeys = false;
+    private int lastKey;
+
     public NewBTreeIndex(ByteOrder byteOrder, int valueLength) {
+        this(byteOrder, valueLength, DEFAULT_FILL_FACTOR);
+    }
+
+    public NewBTreeIndex(ByteOrder byteOrder, int valueLength, float fillFactor) {
+        this(byteOrder, valueLength, fillFactor, false);
+    }
+
+    /**
+     * @param denseTableAllowed if values are always written with a non-zero first byte
+     */
+    public NewBTreeIndex(ByteOrder byteOrder, int valueLength, float fillFactor, boolean denseTableAllowed) {
+        this.byteOrder = byteOrder;
+        this.valueLength = valueLength;
+        this.denseTableAllowed = denseTableAllowed;
         storage = new InMemoryStorage(byteOrder, nativePageSize());
         bTree = new BTree(storage, valueLength);
+        bTree.startAppending(fillFactor);
+    }
+
+    private void finishAppending() {
+        if (bTree.isAppending())
+            bTree.finishAppending();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer insert(int key) {
+        if (bTree.isAppending()) {
+            if (!hasKeys || key > lastKey) {
+                hasKeys = true;
+                lastKey = key;
+                return bTree.append(key);
+            }
+            finishAppending();
+        }
+        return bTree.insert(key);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer get(int key) {
+        finishAppending();
+        return super.get(key);
+    }
+
+    @Override
+    public byte getValueByte(int key, int offsetInValue, byte absentValue) {
+        finishAppending();
+        return super.getValueByte(key, offsetInValue, absentValue);
+    }
+
+    @Override
+    public long getValueLong(int key, int offsetInValue, long absentValue) {
+        finishAppending();
+        return super.getValueLong(key, offsetInValue, absentValue);
+    }
+
+    @Override
+    public void getAll(int[] sortedKeys, int from, int to, IntObjConsumer<ByteBuffer> action) {
+        finishAppending();
+        super.getAll(sortedKeys, from, to, action);
+    }
+
+    @Override
+    public boolean remove(int key) {
+        finishAppending();
+        return super.remove(key);
+    }
+
+    @Override
+    public void forEachEntry(IntObjConsumer<ByteBuffer> action) {
+        finishAppending();
+        super.forEachEntry(action);
+    }
+
+    @Override
+    public void forEachEntryInRange(int fromKey, int toKey, IntObjConsumer<ByteBuffer> action) {
+        finishAppending();
+        super.forEachEntryInRange(fromKey, toKey, action);
+    }
+
+    @Override
+    public EntryCursor cursor(int fromKey) {
+        finishAppending();
+        return super.cursor(fromKey);
     }
 
     public void write(Path dir) throws IOException {
+        finishAppending();
         createDirectories(dir);
+        KeyRange keyRange = new KeyRange();
+        if (denseTableAllowed)
+            bTree.forEachEntry(keyRange);
+        if (keyRange.count > 0 && DenseTable.isDenseEnough(keyRange.count, keyRange.min, keyRange.max)) {
+            writeDense(dir, keyRange);
+        } else {
+            try (SeekableByteChannel ch = Files.openForWriting(storageFile(dir))) {
+                storage.write(ch);
+            }
+            writeMetadata(dir, bTree, null, storage);
+        }
+    }
+
+    private void writeDense(Path dir, KeyRange keyRange) throws IOException {
+        InMemoryStorage denseStorage = new InMemoryStorage(byteOrder, nativePageSize());
+        // empty, keys beyond the range are inserted into the tree
+        BTree emptyTree = new BTree(denseStorage, valueLength);
+        final DenseTable denseTable = new DenseTable(denseStorage, valueLength, keyRange.min, keyRange.max);
+        bTree.forEachEntry(new IntObjConsumer<ByteBuffer>() {
+            @Override
+            public void accept(int key, ByteBuffer value) {
+                if (value.get(value.position()) == 0)
+                    throw new IllegalStateException("Value of the key " + key + " starts with zero byte");
+                denseTable.insert(key).put(value);
+            }
+        });
         try (SeekableByteChannel ch = Files.openForWriting(storageFile(dir))) {
-            storage.write(ch);
+            denseStorage.write(ch);
+        }
+        writeMetadata(dir, emptyTree, denseTable, denseStorage);
+    }
+
+    private static class KeyRange implements IntObjConsumer<ByteBuffer> {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long count = 0;
+
+        @Override
+        public void accept(int key, ByteBuffer value) {
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+            count++;
         }
-        writeMetadata(dir, bTree, storage);
     }
 }
@@ -0,0 +1,245 @@
+package ru.leventov.psgs.index;
+
+import gnu.trove.function.IntObjConsumer;
+import gnu.trove.map.IntKeyMapIterator;
+import gnu.trove.map.hash.IntIntDHashMap;
+import gnu.trove.map.hash.IntObjDHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Cache of pages of the {@link HybridStorage} file, which are going to be modified, with the fixed memory
+ * budget: slots of a single direct buffer, reused by CLOCK. Pages, got for update, are dirty
+ * until they are flushed, dirty pages are written back on eviction, or, if write-back is disabled
+ * (changes must not reach the file until a checkpoint is logged), are not evicted.
+ *
+ * <p>Pages, used by the current tree operation, are not evicted: the tree starts each operation with
+ * {@link #nextEpoch()}, and pages, accessed in the current epoch, are skipped by the CLOCK hand.
+ * If all slots are skipped, the page is cached on the heap beyond the budget until the next epoch,
+ * or, if write-back is disabled, until the next flush, that is counted in {@link #overflows()}.
+ */
+public final class PageCache {
+    private static final int NO_SLOT = -1;
+
+    private final int pageSize;
+    private final ByteOrder byteOrder;
+    private final boolean writeBack;
+    private final IntObjConsumer<ByteBuffer> pageWriter;
+
+    private final ByteBuffer[] slots;
+    private final int[] slotPages;
+    private final int[] slotEpochs;
+    private final boolean[] referenced;
+    private final boolean[] dirty;
+    private int dirtyCount = 0;
+    private final TIntIntHashMap slotsByPages;
+    private final TIntObjHashMap<ByteBuffer> overflowPages = new IntObjDHashMap<>();
+    private int hand = 0;
+    private int epoch = 1;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long writeBacks = 0;
+    private long overflows = 0;
+
+    /**
+     * @param pageWriter writes the page to the file, called with the page index and the page buffer
+     *                   from the position 0
+     */
+    PageCache(int capacity, int pageSize, ByteOrder byteOrder, boolean writeBack,
+              IntObjConsumer<ByteBuffer> pageWriter) {
+        this.pageSize = pageSize;
+        this.byteOrder = byteOrder;
+        this.writeBack = writeBack;
+        this.pageWriter = pageWriter;
+        ByteBuffer memory = ByteBuffer.allocateDirect(capacity * pageSize);
+        slots = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            memory.limit((i + 1) * pageSize);
+            memory.position(i * pageSize);
+            slots[i] = memory.slice().order(byteOrder);
+        }
+        slotPages = new int[capacity];
+        Arrays.fill(slotPages, -1);
+        slotEpochs = new int[capacity];
+        referenced = new boolean[capacity];
+        dirty = new boolean[capacity];
+        slotsByPages = new IntIntDHashMap(capacity);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** Number of {@link #getForUpdate(int, ByteBuffer)} calls, which found the page cached */
+    public long hits() {
+        return hits;
+    }
+
+    /** Number of {@link #getForUpdate(int, ByteBuffer)} calls, which loaded the page */
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    /** Number of dirty pages, written to the file on eviction */
+    public long writeBacks() {
+        return writeBacks;
+    }
+
+    /** Number of pages, cached beyond the budget, because no slot could be evicted */
+    public long overflows() {
+        return overflows;
+    }
+
+    /**
+     * Pages, got before, are not used anymore and could be evicted
+     */
+    void nextEpoch() {
+        epoch++;
+        if (writeBack && !overflowPages.isEmpty())
+            writeOverflowPages();
+    }
+
+    /**
+     * Returns the cached page, cleared, without marking it as used, or null if the page is not cached
+     */
+    ByteBuffer peek(int pageIndex) {
+        int slot = slotsByPages.getOrDefault(pageIndex, NO_SLOT);
+        if (slot != NO_SLOT)
+            return (ByteBuffer) slots[slot].clear();
+        if (overflowPages.isEmpty())
+            return null;
+        ByteBuffer overflowPage = overflowPages.get(pageIndex);
+        return overflowPage != null ? (ByteBuffer) overflowPage.clear() : null;
+    }
+
+    boolean isCached(int pageIndex) {
+        return slotsByPages.containsKey(pageIndex) ||
+                (!overflowPages.isEmpty() && overflowPages.containsKey(pageIndex));
+    }
+
+    /**
+     * Returns the cached page, cleared and marked as dirty, loading it from the stored page,
+     * if it is not cached
+     */
+    ByteBuffer getForUpdate(int pageIndex, ByteBuffer storedPage) {
+        int slot = slotsByPages.getOrDefault(pageIndex, NO_SLOT);
+        if (slot != NO_SLOT) {
+            hits++;
+            return use(slot);
+        }
+        if (!overflowPages.isEmpty()) {
+            ByteBuffer overflowPage = overflowPages.get(pageIndex);
+            if (overflowPage != null) {
+                hits++;
+                return (ByteBuffer) overflowPage.clear();
+            }
+        }
+        misses++;
+        slot = freeSlot();
+        ByteBuffer page;
+        if (slot != NO_SLOT) {
+            slotPages[slot] = pageIndex;
+            slotsByPages.put(pageIndex, slot);
+            page = use(slot);
+        } else {
+            overflows++;
+            page = ByteBuffer.allocate(pageSize).order(byteOrder);
+            overflowPages.put(pageIndex, page);
+        }
+        page.put(storedPage);
+        page.clear();
+        return page;
+    }
+
+    private ByteBuffer use(int slot) {
+        slotEpochs[slot] = epoch;
+        referenced[slot] = true;
+        if (!dirty[slot]) {
+            dirty[slot] = true;
+            dirtyCount++;
+        }
+        return (ByteBuffer) slots[slot].clear();
+    }
+
+    /**
+     * @return empty slot, or {@link #NO_SLOT} if all cached pages are used in the current epoch or dirty,
+     * while write-back is disabled
+     */
+    private int freeSlot() {
+        if (!writeBack && dirtyCount == slots.length)
+            return NO_SLOT;
+        // the second round finds pages, which reference bits are cleared in the first round
+        for (int i = 0; i < 2 * slots.length; i++) {
+            int slot = hand;
+            hand = hand + 1 == slots.length ? 0 : hand + 1;
+            int pageIndex = slotPages[slot];
+            if (pageIndex < 0)
+                return slot;
+            if (slotEpochs[slot] == epoch || (dirty[slot] && !writeBack))
+                continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (dirty[slot]) {
+                pageWriter.accept(pageIndex, (ByteBuffer) slots[slot].clear());
+                dirty[slot] = false;
+                dirtyCount--;
+                writeBacks++;
+            }
+            slotsByPages.remove(pageIndex);
+            slotPages[slot] = -1;
+            evictions++;
+            return slot;
+        }
+        return NO_SLOT;
+    }
+
+    int dirtyPageCount() {
+        return dirtyCount + overflowPages.size();
+    }
+
+    /**
+     * Passes dirty pages, cleared, to the action
+     */
+    void forEachDirtyPage(IntObjConsumer<ByteBuffer> action) {
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (dirty[slot])
+                action.accept(slotPages[slot], (ByteBuffer) slots[slot].clear());
+        }
+        for (IntKeyMapIterator<ByteBuffer> it = overflowPages.mapIterator(); it.tryAdvance();) {
+            action.accept(it.intKey(), (ByteBuffer) it.value().clear());
+        }
+    }
+
+    /**
+     * Writes dirty pages by the page writer. Pages, cached beyond the budget, are dropped.
+     */
+    void flush() {
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (dirty[slot]) {
+                pageWriter.accept(slotPages[slot], (ByteBuffer) slots[slot].clear());
+                dirty[slot] = false;
+            }
+        }
+        dirtyCount = 0;
+        writeOverflowPages();
+    }
+
+    private void writeOverflowPages() {
+        for (IntKeyMapIterator<ByteBuffer> it = overflowPages.mapIterator(); it.tryAdvance();) {
+            pageWriter.accept(it.intKey(), (ByteBuffer) it.value().clear());
+        }
+        overflowPages.clear();
+    }
+}
@@ -14,7 +14,24 @@ public interface Storage {
 
     int pageSize();
     ByteBuffer getPage(int pageIndex);
+
+    /**
+     * Returns the buffer, containing the page from {@link #pageOffset(int)}, to be read only by absolute
+     * methods, without allocation. The buffer could be shared by pages and by concurrent readers.
+     */
+    ByteBuffer pageBuffer(int pageIndex);
+
+    /**
+     * @return the position of the page in the {@link #pageBuffer(int)}
+     */
+    int pageOffset(int pageIndex);
     ByteBuffer cacheAndGetPage(int pageIndex);
+
+    /**
+     * Called by the tree before each modification: buffers, returned by {@link #cacheAndGetPage(int)} before,
+     * are not used anymore, so that the pages could be evicted from the cache
+     */
+    void releasePages();
     ByteBuffer allocateNewPage();
     int pageCount();
     Metadata metadata();
@@ -147,8 +147,8 @@ public final class ByteArrayListDataOutput implements DataOutput {
 
             ensureCapacity(utfLen + 2);
 
-            buffer.put((byte) ((utfLen >>> 8) & 0xFF));
-            buffer.put((byte) (utfLen & 0xFF));
+            // in the buffer order, as readUnsignedShort() reads it
+            buffer.putShort((short) utfLen);
 
             for (int i = 0; i < sLen; i++) {
                 int c = s.charAt(i);
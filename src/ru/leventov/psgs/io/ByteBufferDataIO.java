@@ -115,8 +115,8 @@ public class ByteBufferDataIO implements DataOutput, DataInput {
             if (utfLen > 65535)
                 throw new UTFDataFormatException("Encoded string is too long: " + utfLen + " bytes");
 
-            buffer.put((byte) ((utfLen >>> 8) & 0xFF));
-            buffer.put((byte) (utfLen & 0xFF));
+            // in the buffer order, as readUnsignedShort() reads it
+            buffer.putShort((short) utfLen);
 
             for (int i = 0; i < sLen; i++) {
                 int c = s.charAt(i);
@@ -0,0 +1,245 @@
+package ru.leventov.psgs.io;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts records of a long key and fixed-size data in bounded memory: when the buffer is full, it is sorted
+ * and spilled to a temporary file, on {@link #sort()} the runs are merged.
+ * Order of records with equal keys is unspecified.
+ */
+public final class ExternalSorter implements Closeable {
+
+    /**
+     * Sorted records. {@link #next()} must be called before accessing the first record.
+     */
+    public static abstract class Cursor implements Closeable {
+        long key;
+        byte[] data;
+
+        public abstract boolean next() throws IOException;
+
+        public final long key() {
+            return key;
+        }
+
+        /** Data of the current record, valid until the next call of {@link #next()} */
+        public final byte[] data() {
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {}
+    }
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    private final Path tempDir;
+    private final int dataSize;
+    private final long[] keys;
+    private final byte[] data;
+    private int size = 0;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Long> runSizes = new ArrayList<>();
+
+    /**
+     * @param bufferSize bytes of memory to sort in
+     */
+    public ExternalSorter(Path tempDir, int dataSize, int bufferSize) {
+        if (dataSize < 0)
+            throw new IllegalArgumentException();
+        this.tempDir = tempDir;
+        this.dataSize = dataSize;
+        int capacity = Math.max(bufferSize / (8 + dataSize), 16);
+        keys = new long[capacity];
+        data = new byte[capacity * dataSize];
+    }
+
+    public void add(long key, byte[] recordData, int offset) throws IOException {
+        if (size == keys.length)
+            spill();
+        keys[size] = key;
+        if (dataSize > 0)
+            System.arraycopy(recordData, offset, data, size * dataSize, dataSize);
+        size++;
+    }
+
+    private void spill() throws IOException {
+        sortBuffer();
+        Path run = java.nio.file.Files.createTempFile(tempDir, "run", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                java.nio.file.Files.newOutputStream(run), STREAM_BUFFER_SIZE))) {
+            for (int i = 0; i < size; i++) {
+                out.writeLong(keys[i]);
+                out.write(data, i * dataSize, dataSize);
+            }
+        }
+        runs.add(run);
+        runSizes.add((long) size);
+        size = 0;
+    }
+
+    /**
+     * Finishes adding records
+     */
+    public Cursor sort() throws IOException {
+        if (runs.isEmpty()) {
+            sortBuffer();
+            return new BufferCursor();
+        }
+        if (size > 0)
+            spill();
+        return new MergeCursor();
+    }
+
+    private void sortBuffer() {
+        if (dataSize == 0) {
+            Arrays.sort(keys, 0, size);
+        } else {
+            quickSort(0, size - 1);
+        }
+    }
+
+    private void quickSort(int low, int high) {
+        while (high - low > 16) {
+            int mid = (low + high) >>> 1;
+            // median of three to the high position
+            if (keys[mid] < keys[low]) swap(mid, low);
+            if (keys[high] < keys[low]) swap(high, low);
+            if (keys[mid] < keys[high]) swap(mid, high);
+            long pivot = keys[high];
+            int i = low - 1;
+            for (int j = low; j < high; j++) {
+                if (keys[j] < pivot) swap(++i, j);
+            }
+            swap(++i, high);
+            // recurse into the smaller part
+            if (i - low < high - i) {
+                quickSort(low, i - 1);
+                low = i + 1;
+            } else {
+                quickSort(i + 1, high);
+                high = i - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && keys[j] < keys[j - 1]; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private final byte[] swapBuffer = new byte[64];
+
+    private void swap(int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        byte[] tmp = dataSize <= swapBuffer.length ? swapBuffer : new byte[dataSize];
+        System.arraycopy(data, i * dataSize, tmp, 0, dataSize);
+        System.arraycopy(data, j * dataSize, data, i * dataSize, dataSize);
+        System.arraycopy(tmp, 0, data, j * dataSize, dataSize);
+    }
+
+    private class BufferCursor extends Cursor {
+        int index = -1;
+
+        BufferCursor() {
+            data = new byte[dataSize];
+        }
+
+        @Override
+        public boolean next() {
+            if (++index >= size)
+                return false;
+            key = keys[index];
+            System.arraycopy(ExternalSorter.this.data, index * dataSize, data, 0, dataSize);
+            return true;
+        }
+    }
+
+    private class RunReader {
+        final DataInputStream in;
+        long remaining;
+        long key;
+        final byte[] data = new byte[dataSize];
+
+        RunReader(Path run, long size) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    java.nio.file.Files.newInputStream(run), STREAM_BUFFER_SIZE));
+            remaining = size;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0)
+                return false;
+            remaining--;
+            key = in.readLong();
+            in.readFully(data);
+            return true;
+        }
+    }
+
+    private class MergeCursor extends Cursor {
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(),
+                new java.util.Comparator<RunReader>() {
+                    @Override
+                    public int compare(RunReader r1, RunReader r2) {
+                        return Long.compare(r1.key, r2.key);
+                    }
+                });
+        RunReader current;
+
+        MergeCursor() throws IOException {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i), runSizes.get(i));
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.in.close();
+                }
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (current != null) {
+                if (current.next()) {
+                    queue.add(current);
+                } else {
+                    current.in.close();
+                }
+            }
+            current = queue.poll();
+            if (current == null)
+                return false;
+            key = current.key;
+            data = current.data;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : queue) {
+                reader.in.close();
+            }
+            if (current != null)
+                current.in.close();
+        }
+    }
+
+    /**
+     * Removes temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            java.nio.file.Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+}
@@ -21,6 +21,15 @@ public final class Files {
         return FileChannel.open(file, CREATE, WRITE);
     }
 
+    /**
+     * Opens the existing file for writing, positioned at its end
+     */
+    public static FileChannel openForAppending(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
     public static FileChannel openForReading(Path file) throws IOException {
         return FileChannel.open(file, StandardOpenOption.READ);
     }
@@ -20,6 +20,14 @@ public final class Json {
         }
     }
 
+    public static String toJson(Object object) {
+        return Json.GSON.toJson(object);
+    }
+
+    public static <T> T fromJson(String json, Class<T> type) {
+        return Json.GSON.fromJson(json, type);
+    }
+
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting()
             .registerTypeAdapter(ByteOrder.class, new ByteOrderSerializer()).create();
 
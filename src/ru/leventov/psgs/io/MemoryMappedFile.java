@@ -14,6 +14,7 @@ import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
 import static ru.leventov.psgs.io.Files.openForReading;
 import static ru.leventov.psgs.io.Files.openForUpdating;
 import static ru.leventov.psgs.util.Bits.upperPowerOf2;
+import static ru.leventov.psgs.util.ByteBuffers.duplicate;
 import static ru.leventov.psgs.util.ByteBuffers.slice;
 
 public class MemoryMappedFile implements Closeable {
@@ -23,7 +24,10 @@ public class MemoryMappedFile implements Closeable {
     public static final int MAX_CHUNK_SIZE_LIMIT = BASIC_BUFFER_SIZE / 8;
 
     private final FileChannel fileChannel;
-    private final MappedByteBuffer[] mappedBuffers;
+    private final ByteOrder byteOrder;
+    private final FileChannel.MapMode mapMode;
+    private final int bufferSize;
+    private MappedByteBuffer[] mappedBuffers;
     private final int chunkSizeLimit;
 
     public MemoryMappedFile(Path file, ByteOrder byteOrder, int chunkSizeLimit, boolean readOnly) throws IOException {
@@ -31,13 +35,32 @@ public class MemoryMappedFile implements Closeable {
                 upperPowerOf2(chunkSizeLimit) > MAX_CHUNK_SIZE_LIMIT)
             throw new IllegalArgumentException();
         fileChannel = readOnly ? openForReading(file) : openForUpdating(file);
-
-        ArrayList<MappedByteBuffer> buffers = new ArrayList<>();
+        this.byteOrder = byteOrder;
         this.chunkSizeLimit = chunkSizeLimit;
         chunkSizeLimit = (int) upperPowerOf2(chunkSizeLimit);
-        int bufferSize = BASIC_BUFFER_SIZE + chunkSizeLimit;
-        long pos = 0, size = fileChannel.size();
-        FileChannel.MapMode mapMode = readOnly ? READ_ONLY : READ_WRITE;
+        bufferSize = BASIC_BUFFER_SIZE + chunkSizeLimit;
+        mapMode = readOnly ? READ_ONLY : READ_WRITE;
+        mappedBuffers = new MappedByteBuffer[0];
+        map();
+    }
+
+    /**
+     * Maps the part of the file appended since the last mapping. Chunks, previously returned
+     * by {@link #locateChunk(long)}, stay valid.
+     */
+    public void extend() throws IOException {
+        map();
+    }
+
+    private void map() throws IOException {
+        ArrayList<MappedByteBuffer> buffers = new ArrayList<>();
+        // keep complete buffers, remap the tail
+        for (MappedByteBuffer buffer : mappedBuffers) {
+            if (buffer.capacity() < bufferSize)
+                break;
+            buffers.add(buffer);
+        }
+        long pos = (long) buffers.size() * BASIC_BUFFER_SIZE, size = fileChannel.size();
         while (pos < size) {
             MappedByteBuffer mappedByteBuffer = fileChannel.map(mapMode, pos, Math.min(size - pos, bufferSize));
             mappedByteBuffer.order(byteOrder);
@@ -47,13 +70,49 @@ public class MemoryMappedFile implements Closeable {
         mappedBuffers = buffers.toArray(new MappedByteBuffer[buffers.size()]);
     }
 
+    /**
+     * Returns the buffer from the offset to the end of the mapped buffer, at least {@code chunkSizeLimit} long,
+     * if the file is. The shared mapped buffers are not moved, so that chunks could be located concurrently.
+     */
     public ByteBuffer locateChunk(long offset) {
-        MappedByteBuffer buffer = mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)];
-        int bufferOffset = (int) (offset & BUFFER_OFFSET_MASK);
-        buffer.position(bufferOffset);
+        ByteBuffer buffer = duplicate(mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)]);
+        buffer.position((int) (offset & BUFFER_OFFSET_MASK));
         return slice(buffer);
     }
 
+    /*
+     * Absolute reads, which don't allocate a chunk. Values, which cross the boundary of the basic buffer size,
+     * are still read from a single mapped buffer, because buffers overlap by the chunk size limit.
+     */
+
+    public byte getByte(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].get((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
+    public short getShort(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].getShort((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
+    public char getChar(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].getChar((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
+    public int getInt(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].getInt((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
+    public long getLong(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].getLong((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
+    public float getFloat(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].getFloat((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
+    public double getDouble(long offset) {
+        return mappedBuffers[(int) (offset >>> BUFFER_INDEX_SHIFT)].getDouble((int) (offset & BUFFER_OFFSET_MASK));
+    }
+
     @Override
     public void close() throws IOException {
         fileChannel.close();
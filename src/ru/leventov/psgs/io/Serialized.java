@@ -0,0 +1,15 @@
+package ru.leventov.psgs.io;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field to be serialized by the generated {@code <Class>Serializer}, see {@link SerializerProcessor}.
+ * The field should be of a primitive type or String, not private, not static and not final.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Serialized {
+}
@@ -0,0 +1,299 @@
+package ru.leventov.psgs.io;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates {@code <Class>Serializer} in the package of each class with {@link Serialized} fields, with static
+ * {@code writeData(DataOutput, Class)} and {@code readData(DataInput, Class)} methods, to call from
+ * {@link DataWritable} nodes and {@link DataWriter}s. The fields are written in the declaration order, with
+ * the same bytes, as the {@link DataOutput} methods of their types write. Runs of primitive fields are written
+ * and read straight from the buffer under {@link ByteBufferDataIO} and {@link ByteArrayListDataOutput}.
+ *
+ * <p>If there are no String fields, the serializer also has {@code DATA_SIZE} constant, to return from
+ * {@link DataWriter#dataSize()}. Only the own fields of the class are serialized.
+ *
+ * <p>Run with {@code -processorpath} of the compiled processor, or from the jar with
+ * {@code META-INF/services/javax.annotation.processing.Processor}.
+ */
+public class SerializerProcessor extends AbstractProcessor {
+
+    private enum FieldType {
+        BOOLEAN(1, "Boolean", "put(pos, (byte) (%s ? 1 : 0))", "get(pos) != 0"),
+        BYTE(1, "Byte", "put(pos, %s)", "get(pos)"),
+        SHORT(2, "Short", "putShort(pos, %s)", "getShort(pos)"),
+        CHAR(2, "Char", "putChar(pos, %s)", "getChar(pos)"),
+        INT(4, "Int", "putInt(pos, %s)", "getInt(pos)"),
+        LONG(8, "Long", "putLong(pos, %s)", "getLong(pos)"),
+        FLOAT(4, "Float", "putFloat(pos, %s)", "getFloat(pos)"),
+        DOUBLE(8, "Double", "putDouble(pos, %s)", "getDouble(pos)"),
+        STRING(-1, "UTF", null, null);
+
+        final int size;
+        /** Suffix of the DataOutput and DataInput methods */
+        final String ioSuffix;
+        final String bufferPut;
+        final String bufferGet;
+
+        FieldType(int size, String ioSuffix, String bufferPut, String bufferGet) {
+            this.size = size;
+            this.ioSuffix = ioSuffix;
+            this.bufferPut = bufferPut;
+            this.bufferGet = bufferGet;
+        }
+
+        String bufferPut(String value, int offset) {
+            return bufferPut.replace("pos", offset == 0 ? "pos" : "pos + " + offset).replace("%s", value);
+        }
+
+        String bufferGet(int offset) {
+            return bufferGet.replace("pos", offset == 0 ? "pos" : "pos + " + offset);
+        }
+    }
+
+    private static final class Field {
+        final String name;
+        final FieldType type;
+
+        Field(String name, FieldType type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(Serialized.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, List<Field>> classFields = new LinkedHashMap<>();
+        for (VariableElement field : ElementFilter.fieldsIn(roundEnv.getElementsAnnotatedWith(Serialized.class))) {
+            FieldType type = fieldType(field);
+            if (type == null)
+                continue;
+            TypeElement cl = (TypeElement) field.getEnclosingElement();
+            List<Field> fields = classFields.get(cl);
+            if (fields == null)
+                classFields.put(cl, fields = new ArrayList<>());
+            fields.add(new Field(field.getSimpleName().toString(), type));
+        }
+        for (Map.Entry<TypeElement, List<Field>> e : classFields.entrySet()) {
+            TypeElement cl = e.getKey();
+            if (checkClass(cl)) {
+                try {
+                    writeSerializer(cl, e.getValue());
+                } catch (IOException ex) {
+                    error("Failed to write the serializer: " + ex, cl);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void error(String message, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * @return null, if the field couldn't be serialized
+     */
+    private FieldType fieldType(VariableElement field) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) ||
+                modifiers.contains(Modifier.FINAL)) {
+            error("@Serialized field should not be private, static or final", field);
+            return null;
+        }
+        TypeMirror type = field.asType();
+        if (type.getKind().isPrimitive())
+            return FieldType.valueOf(type.getKind().name());
+        if (type.getKind() == TypeKind.DECLARED &&
+                ((TypeElement) processingEnv.getTypeUtils().asElement(type))
+                        .getQualifiedName().contentEquals("java.lang.String")) {
+            return FieldType.STRING;
+        }
+        error("@Serialized field should be of a primitive type or String", field);
+        return null;
+    }
+
+    private boolean checkClass(TypeElement cl) {
+        if (!cl.getTypeParameters().isEmpty()) {
+            error("Serializers of generic classes are not supported", cl);
+            return false;
+        }
+        for (Element e = cl; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            TypeElement enclosing = (TypeElement) e;
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                error("Class with @Serialized fields should not be private", cl);
+                return false;
+            }
+            if (enclosing.getNestingKind() == NestingKind.MEMBER && enclosing.getKind() == ElementKind.CLASS &&
+                    !enclosing.getModifiers().contains(Modifier.STATIC)) {
+                error("Class with @Serialized fields should not be an inner class", cl);
+                return false;
+            }
+            if (enclosing.getNestingKind() == NestingKind.LOCAL ||
+                    enclosing.getNestingKind() == NestingKind.ANONYMOUS) {
+                error("Class with @Serialized fields should not be local", cl);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Outer_Inner for nested classes
+     */
+    private static String serializerSimpleName(TypeElement cl) {
+        String name = cl.getSimpleName().toString();
+        for (Element e = cl.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            name = e.getSimpleName() + "_" + name;
+        }
+        return name + "Serializer";
+    }
+
+    private static boolean isConstructible(TypeElement cl) {
+        if (cl.getModifiers().contains(Modifier.ABSTRACT))
+            return false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(cl.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        }
+        return false;
+    }
+
+    private void writeSerializer(TypeElement cl, List<Field> fields) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(cl).getQualifiedName().toString();
+        String simpleName = serializerSimpleName(cl);
+        String className = cl.getQualifiedName().toString();
+        boolean fixedSize = true;
+        int dataSize = 0;
+        for (Field field : fields) {
+            if (field.type.size < 0) {
+                fixedSize = false;
+            } else {
+                dataSize += field.type.size;
+            }
+        }
+
+        StringBuilder s = new StringBuilder();
+        if (!packageName.isEmpty())
+            s.append("package ").append(packageName).append(";\n\n");
+        s.append("import java.nio.ByteBuffer;\n");
+        s.append("import ru.leventov.psgs.io.DataInput;\n");
+        s.append("import ru.leventov.psgs.io.DataOutput;\n");
+        s.append("import ru.leventov.psgs.io.Serializers;\n\n");
+        s.append("/**\n * Generated by ").append(SerializerProcessor.class.getName())
+                .append(" from @Serialized fields of {@link ").append(className).append("}\n */\n");
+        s.append("public final class ").append(simpleName).append(" {\n");
+        if (fixedSize)
+            s.append("    public static final int DATA_SIZE = ").append(dataSize).append(";\n\n");
+
+        s.append("    public static void writeData(DataOutput out, ").append(className).append(" data) {\n");
+        forEachRun(fields, s, true);
+        s.append("    }\n\n");
+
+        s.append("    public static ").append(className).append(" readData(DataInput in, ")
+                .append(className).append(" dstData) {\n");
+        if (isConstructible(cl)) {
+            s.append("        ").append(className).append(" data = dstData != null ? dstData : new ")
+                    .append(className).append("();\n");
+        } else {
+            s.append("        if (dstData == null)\n");
+            s.append("            throw new IllegalArgumentException(\"")
+                    .append(cl.getSimpleName()).append(" couldn't be created\");\n");
+            s.append("        ").append(className).append(" data = dstData;\n");
+        }
+        forEachRun(fields, s, false);
+        s.append("        return data;\n");
+        s.append("    }\n\n");
+
+        s.append("    private ").append(simpleName).append("() {}\n");
+        s.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, cl).openWriter()) {
+            writer.write(s.toString());
+        }
+    }
+
+    /**
+     * Appends writes or reads of the fields: runs of fixed-size fields go through the buffer, if the output
+     * or the input is backed by one
+     */
+    private static void forEachRun(List<Field> fields, StringBuilder s, boolean write) {
+        int i = 0;
+        while (i < fields.size()) {
+            Field field = fields.get(i);
+            if (field.type.size < 0) {
+                if (write) {
+                    s.append("        out.write").append(field.type.ioSuffix)
+                            .append("(data.").append(field.name).append(");\n");
+                } else {
+                    s.append("        data.").append(field.name).append(" = in.read")
+                            .append(field.type.ioSuffix).append("();\n");
+                }
+                i++;
+                continue;
+            }
+            int end = i, runSize = 0;
+            while (end < fields.size() && fields.get(end).type.size > 0) {
+                runSize += fields.get(end++).type.size;
+            }
+            List<Field> run = fields.subList(i, end);
+            if (write) {
+                s.append("        ByteBuffer buffer").append(i).append(" = Serializers.outputBuffer(out, ")
+                        .append(runSize).append(");\n");
+            } else {
+                s.append("        ByteBuffer buffer").append(i).append(" = Serializers.inputBuffer(in, ")
+                        .append(runSize).append(");\n");
+            }
+            s.append("        if (buffer").append(i).append(" != null) {\n");
+            s.append("            int pos = buffer").append(i).append(".position();\n");
+            int offset = 0;
+            for (Field f : run) {
+                if (write) {
+                    s.append("            buffer").append(i).append('.')
+                            .append(f.type.bufferPut("data." + f.name, offset)).append(";\n");
+                } else {
+                    s.append("            data.").append(f.name).append(" = buffer").append(i).append('.')
+                            .append(f.type.bufferGet(offset)).append(";\n");
+                }
+                offset += f.type.size;
+            }
+            if (write) {
+                s.append("            Serializers.skip(out, ").append(runSize).append(");\n");
+            } else {
+                s.append("            buffer").append(i).append(".position(pos + ").append(runSize).append(");\n");
+            }
+            s.append("        } else {\n");
+            for (Field f : run) {
+                if (write) {
+                    s.append("            out.write").append(f.type.ioSuffix)
+                            .append("(data.").append(f.name).append(");\n");
+                } else {
+                    s.append("            data.").append(f.name).append(" = in.read")
+                            .append(f.type.ioSuffix).append("();\n");
+                }
+            }
+            s.append("        }\n");
+            i = end;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ru.leventov.psgs.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Access to the buffers under outputs and inputs for the serializers, generated by {@link SerializerProcessor}.
+ * The serializers read and write a run of fixed-size fields by absolute methods from the position
+ * of the buffer, and then move the input or the output over the run.
+ */
+public final class Serializers {
+
+    /**
+     * @return buffer to write {@code size} bytes from its position, or null if the output isn't backed
+     *         by a buffer, or the buffer doesn't have enough space
+     */
+    public static ByteBuffer outputBuffer(DataOutput out, int size) {
+        if (out instanceof ByteArrayListDataOutput) {
+            ByteArrayListDataOutput listOut = (ByteArrayListDataOutput) out;
+            listOut.ensureCapacity(size);
+            return listOut.getBuffer();
+        }
+        if (out instanceof ByteBufferDataIO) {
+            ByteBuffer buffer = ((ByteBufferDataIO) out).getBuffer();
+            return buffer.remaining() >= size ? buffer : null;
+        }
+        return null;
+    }
+
+    /**
+     * Moves the output over {@code size} bytes, written to the buffer from {@link #outputBuffer}
+     */
+    public static void skip(DataOutput out, int size) {
+        if (out instanceof ByteArrayListDataOutput) {
+            ((ByteArrayListDataOutput) out).skipBytes(size);
+        } else {
+            ((ByteBufferDataIO) out).skipBytes(size);
+        }
+    }
+
+    /**
+     * @return the buffer of the input, to read {@code size} bytes from its position and move the position
+     *         over them, or null if the input isn't backed by a buffer, or the buffer doesn't have enough bytes
+     */
+    public static ByteBuffer inputBuffer(DataInput in, int size) {
+        if (in instanceof ByteBufferDataIO) {
+            ByteBuffer buffer = ((ByteBufferDataIO) in).getBuffer();
+            return buffer.remaining() >= size ? buffer : null;
+        }
+        return null;
+    }
+
+    private Serializers() {}
+}
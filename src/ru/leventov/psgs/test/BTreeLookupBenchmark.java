@@ -0,0 +1,67 @@
+package ru.leventov.psgs.test;
+
+import ru.leventov.psgs.index.ExistingBTreeIndex;
+import ru.leventov.psgs.index.NewBTreeIndex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Measures lookups/sec of the node index opened for reading, as {@link ru.leventov.psgs.ExistingGraph}
+ * does on {@code getNode()}. Arguments: [directory for the index] [key count] [dense], by default
+ * a temporary directory, 10M keys and the dense table is not allowed.
+ */
+public class BTreeLookupBenchmark {
+    private static final int VALUE_LENGTH = 8;
+    private static final int LOOKUPS = 20_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("btree-benchmark");
+        int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        boolean dense = args.length > 2 && Boolean.parseBoolean(args[2]);
+
+        NewBTreeIndex newIndex = new NewBTreeIndex(ByteOrder.nativeOrder(), VALUE_LENGTH,
+                NewBTreeIndex.DEFAULT_FILL_FACTOR, dense);
+        for (int key = 1; key <= keyCount; key++) {
+            // non-zero first byte, as required by the dense table
+            newIndex.insert(key * 2).put((byte) 1).putInt(key);
+        }
+        newIndex.write(dir);
+
+        Random random = new Random(42);
+        int[] keys = new int[1 << 20];
+        for (int i = 0; i < keys.length; i++) {
+            // a half of the keys are absent
+            keys[i] = random.nextInt(keyCount * 2) + 1;
+        }
+
+        try (ExistingBTreeIndex index = new ExistingBTreeIndex(dir, true)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                long sum = 0;
+                for (int i = 0; i < LOOKUPS; i++) {
+                    ByteBuffer value = index.get(keys[i & (keys.length - 1)]);
+                    if (value != null)
+                        sum += value.get(value.position());
+                }
+                long time = System.nanoTime() - start;
+                System.out.printf("get: %.1fM lookups/sec (%d)%n", LOOKUPS * 1e3 / time, sum);
+            }
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                long sum = 0;
+                for (int i = 0; i < LOOKUPS; i++) {
+                    sum += index.getValueByte(keys[i & (keys.length - 1)], 0, (byte) 0);
+                }
+                long time = System.nanoTime() - start;
+                System.out.printf("getValueByte: %.1fM lookups/sec (%d)%n", LOOKUPS * 1e3 / time, sum);
+            }
+        }
+    }
+}
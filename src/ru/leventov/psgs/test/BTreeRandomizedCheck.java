@@ -0,0 +1,71 @@
+package ru.leventov.psgs.test;
+
+import gnu.trove.function.IntObjConsumer;
+import ru.leventov.psgs.index.BTree;
+import ru.leventov.psgs.index.InMemoryStorage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Checks random inserts, removes and gets of {@link BTree} against {@link TreeMap}. Small pages make
+ * the tree deep, so that removes borrow, merge and collapse pages on every level. Throws
+ * {@link IllegalStateException} on the first mismatch. Arguments: [seed count] [operations per seed],
+ * by default 30 seeds and 100K operations.
+ */
+public class BTreeRandomizedCheck {
+    private static final int PAGE_SIZE = 256;
+    private static final int VALUE_LENGTH = 8;
+    private static final int KEY_RANGE = 20_000;
+
+    public static void main(String[] args) {
+        int seedCount = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        for (int seed = 0; seed < seedCount; seed++) {
+            check(seed, operations);
+        }
+        System.out.printf("%d seeds, %d operations each: ok%n", seedCount, operations);
+    }
+
+    private static void check(int seed, int operations) {
+        BTree tree = new BTree(new InMemoryStorage(ByteOrder.nativeOrder(), PAGE_SIZE), VALUE_LENGTH);
+        TreeMap<Integer, Long> expected = new TreeMap<>();
+        Random random = new Random(seed);
+        for (int i = 0; i < operations; i++) {
+            // negative keys too, insertions prevail so the tree grows
+            int key = random.nextInt(KEY_RANGE) - KEY_RANGE / 4;
+            int operation = random.nextInt(10);
+            if (operation < 4) {
+                long value = random.nextLong();
+                ByteBuffer buffer = tree.insert(key);
+                buffer.putLong(buffer.position(), value);
+                expected.put(key, value);
+            } else if (operation < 7) {
+                boolean removed = tree.remove(key);
+                if (removed != (expected.remove(key) != null))
+                    throw mismatch(seed, i, "remove(" + key + ") returned " + removed);
+            } else {
+                ByteBuffer buffer = tree.get(key);
+                Long value = expected.get(key);
+                if (value == null ? buffer != null : buffer == null || buffer.getLong(buffer.position()) != value)
+                    throw mismatch(seed, i, "get(" + key + ")");
+            }
+        }
+        // pages are visited in the storage order
+        final TreeMap<Integer, Long> actual = new TreeMap<>();
+        tree.forEachEntry(new IntObjConsumer<ByteBuffer>() {
+            @Override
+            public void accept(int key, ByteBuffer value) {
+                actual.put(key, value.getLong(value.position()));
+            }
+        });
+        if (!actual.equals(expected))
+            throw new IllegalStateException("Seed " + seed + ": entries of the tree differ");
+    }
+
+    private static IllegalStateException mismatch(int seed, int operation, String message) {
+        return new IllegalStateException("Seed " + seed + ", operation " + operation + ": " + message);
+    }
+}
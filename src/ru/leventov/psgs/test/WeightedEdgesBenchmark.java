@@ -0,0 +1,103 @@
+package ru.leventov.psgs.test;
+
+import gnu.trove.function.Consumer;
+import gnu.trove.function.IntFunction;
+import gnu.trove.function.IntIntConsumer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.leventov.psgs.*;
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+import ru.leventov.psgs.test.vk.Person;
+
+import java.util.Random;
+
+/**
+ * Measures edges/sec of a weighted traversal of an in-memory graph: sum of int weights over
+ * {@link Edges#forEach(Consumer)} with boxed data, and over {@link Edges#forEachInt(IntIntConsumer)}.
+ * Arguments: [person count], by default 1M persons with 20 weighted edges each.
+ */
+public class WeightedEdgesBenchmark {
+    private static final int EDGES_PER_NODE = 20;
+    private static final int ROUNDS = 5;
+
+    public static class Weight extends ArcModel<Person, Person, Integer> implements IntEdgeModel {
+
+        public Weight(Graph graph) {
+            super(graph);
+        }
+
+        @Override
+        public int dataSize() {
+            return 4;
+        }
+
+        @Override
+        public void writeData(DataOutput out, @NotNull Integer data) {
+            out.writeInt(data);
+        }
+
+        @NotNull
+        @Override
+        public Integer readData(DataInput in, @Nullable Integer dstData) {
+            return in.readInt();
+        }
+    }
+
+    public static void main(String[] args) {
+        int personCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        NewGraph graph = NewGraph.create();
+        Weight weight = new Weight(graph);
+        for (int id = 1; id <= personCount; id++) {
+            graph.getOrCreateNode(id, new IntFunction<Node>() {
+                @Override
+                public Node apply(int id) {
+                    return new Person(true, 0);
+                }
+            });
+        }
+        Random random = new Random(42);
+        Person[] persons = new Person[personCount];
+        long edgeCount = 0;
+        for (int id = 1; id <= personCount; id++) {
+            Person person = (Person) graph.getNode(id);
+            persons[id - 1] = person;
+            Edges<Person, Person, Integer> edges = weight.from(person);
+            for (int i = 0; i < EDGES_PER_NODE; i++) {
+                // weights above the Integer cache
+                edges.add(1 + random.nextInt(personCount), 1000 + random.nextInt(1_000_000));
+            }
+            edgeCount += edges.count();
+        }
+
+        final long[] sum = new long[1];
+        for (int round = 0; round < ROUNDS; round++) {
+            sum[0] = 0;
+            long start = System.nanoTime();
+            for (Person person : persons) {
+                weight.from(person).forEach(new Consumer<Edge<Person, Person, Integer>>() {
+                    @Override
+                    public void accept(Edge<Person, Person, Integer> edge) {
+                        sum[0] += edge.getData();
+                    }
+                });
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("boxed: %.1fM edges/sec (%d)%n", edgeCount * 1e3 / time, sum[0]);
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            sum[0] = 0;
+            long start = System.nanoTime();
+            for (Person person : persons) {
+                weight.from(person).forEachInt(new IntIntConsumer() {
+                    @Override
+                    public void accept(int targetId, int data) {
+                        sum[0] += data;
+                    }
+                });
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("primitive: %.1fM edges/sec (%d)%n", edgeCount * 1e3 / time, sum[0]);
+        }
+    }
+}
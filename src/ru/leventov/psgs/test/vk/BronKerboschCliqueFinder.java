@@ -29,6 +29,7 @@ import gnu.trove.function.Consumer;
 import gnu.trove.set.hash.DHashSet;
 import ru.leventov.psgs.DeserializationException;
 import ru.leventov.psgs.Edge;
+import ru.leventov.psgs.Edges;
 import ru.leventov.psgs.ExistingGraph;
 import ru.leventov.psgs.Graph;
 import ru.leventov.psgs.io.NoData;
@@ -131,11 +132,12 @@ public class BronKerboschCliqueFinder {
                 // move candidate node to potential_clique
                 potential_clique.add(candidate);
                 candidates.remove(candidate);
+                Edges<Person, Person, NoData> candidateFriends = friendship.from(candidate);
 
                 // create new_candidates by removing nodes in candidates not
                 // connected to candidate node
                 for (Person new_candidate : candidates) {
-                    if (friendship.from(candidate).isPresentTo(new_candidate.getId())) {
+                    if (candidateFriends.isPresentTo(new_candidate.getId())) {
                         new_candidates.add(new_candidate);
                     } // of if
                 } // of for
@@ -143,7 +145,7 @@ public class BronKerboschCliqueFinder {
                 // create new_already_found by removing nodes in already_found
                 // not connected to candidate node
                 for (Person new_found : already_found) {
-                    if (friendship.from(candidate).isPresentTo(new_found.getId())) {
+                    if (candidateFriends.isPresentTo(new_found.getId())) {
                         new_already_found.add(new_found);
                     } // of if
                 } // of for
@@ -174,8 +176,9 @@ public class BronKerboschCliqueFinder {
         int edgecounter;
         for (Person found : already_found) {
             edgecounter = 0;
+            Edges<Person, Person, NoData> foundFriends = friendship.from(found);
             for (Person candidate : candidates) {
-                if (friendship.from(found).isPresentTo(candidate.getId())) {
+                if (foundFriends.isPresentTo(candidate.getId())) {
                     edgecounter++;
                 } // of if
             } // of for
@@ -0,0 +1,31 @@
+package ru.leventov.psgs.test.vk;
+
+import ru.leventov.psgs.CsrGraph;
+import ru.leventov.psgs.DeserializationException;
+import ru.leventov.psgs.Triangles;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Counts friendship triangles of all persons in a graph, exported by
+ * {@link ru.leventov.psgs.ExistingGraph#exportCsr(java.nio.file.Path)}, and prints the total,
+ * the average clustering coefficient and the time. Arguments: path to the CSR graph, [parallelism].
+ */
+public class ClusteringCoefficients {
+
+    public static void main(String[] args) throws IOException, DeserializationException {
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        try (CsrGraph graph = CsrGraph.open(Paths.get(args[0]))) {
+            long start = System.nanoTime();
+            Triangles triangles = Triangles.count(graph, Friendship.class, parallelism);
+            long time = System.nanoTime() - start;
+            double coefficientSum = 0.0;
+            for (int index = 0; index < graph.indexCount(); index++) {
+                coefficientSum += triangles.clusteringCoefficient(index);
+            }
+            System.out.printf("%d triangles, average clustering coefficient %.4f, %.1f sec with %d threads%n",
+                    triangles.total(), coefficientSum / graph.indexCount(), time / 1e9, parallelism);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.leventov.psgs.test.vk;
+
+import gnu.trove.function.IntPredicate;
+import ru.leventov.psgs.DeserializationException;
+import ru.leventov.psgs.Edges;
+import ru.leventov.psgs.ExistingGraph;
+import ru.leventov.psgs.io.NoData;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Measures common friend counts of random pairs of persons in a stored graph, by probing friends
+ * of one person with {@link Edges#isPresentTo(int)} of the other, and by {@link Edges#intersectCount(Edges)}.
+ * Arguments: path to the graph, max person id, [pair count], by default 1M pairs.
+ */
+public class CommonFriends {
+
+    public static void main(String[] args) throws IOException, DeserializationException {
+        int maxId = Integer.parseInt(args[1]);
+        int pairCount = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        try (ExistingGraph graph = ExistingGraph.openForReading(Paths.get(args[0]))) {
+            Friendship friendship = new Friendship(graph);
+            Person[] persons = new Person[pairCount * 2];
+            Random random = new Random(42);
+            for (int i = 0; i < persons.length; ) {
+                Person person = (Person) graph.getNode(1 + random.nextInt(maxId));
+                if (person != null)
+                    persons[i++] = person;
+            }
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                long common = 0;
+                for (int i = 0; i < persons.length; i += 2) {
+                    final Edges<Person, Person, NoData> other = friendship.from(persons[i + 1]);
+                    final int[] count = {0};
+                    friendship.from(persons[i]).testTargetsWhile(new IntPredicate() {
+                        @Override
+                        public boolean test(int target) {
+                            if (other.isPresentTo(target))
+                                count[0]++;
+                            return true;
+                        }
+                    });
+                    common += count[0];
+                }
+                long probeTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                long intersected = 0;
+                for (int i = 0; i < persons.length; i += 2) {
+                    intersected += friendship.from(persons[i]).intersectCount(friendship.from(persons[i + 1]));
+                }
+                long intersectTime = System.nanoTime() - start;
+                System.out.printf("isPresentTo: %.2fM pairs/sec, intersectCount: %.2fM pairs/sec (%d, %d)%n",
+                        pairCount * 1e3 / probeTime, pairCount * 1e3 / intersectTime, common, intersected);
+            }
+        }
+    }
+}
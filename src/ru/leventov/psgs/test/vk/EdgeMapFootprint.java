@@ -0,0 +1,133 @@
+package ru.leventov.psgs.test.vk;
+
+import gnu.trove.function.Consumer;
+import gnu.trove.function.IntConsumer;
+import gnu.trove.function.IntFunction;
+import org.jetbrains.annotations.NotNull;
+import ru.leventov.psgs.*;
+import ru.leventov.psgs.io.NoData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Measures heap bytes per edge of friendships in memory, with the compact {@link NodeIdNoDataArrayMap}
+ * of {@link Friendship} or with {@link NodeIdNoDataHashMap}. Arguments: [array|hash] [graph path|person count],
+ * by default array maps and 1M persons. Run variants in separate JVMs.
+ *
+ * <p>If the path to a stored graph is given, friendships of its persons are loaded
+ * via {@link ExistingGraph#openForReading(Path)} and copied to the maps. Otherwise a synthetic graph
+ * is generated: friend counts are uniform from 1 to 60, and every 100th person has up to 2000 friends.
+ */
+public class EdgeMapFootprint {
+
+    static class HashMapFriendship extends Friendship {
+        HashMapFriendship(Graph graph) {
+            super(graph);
+        }
+
+        @NotNull
+        @Override
+        protected NodeIdEdgeMap<NoData> newMap(int expectedSize) {
+            return new NodeIdNoDataHashMap(expectedSize);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, DeserializationException {
+        boolean hashMaps = args.length > 0 && args[0].equals("hash");
+        if (args.length > 1 && Files.isDirectory(Paths.get(args[1]))) {
+            measure(Paths.get(args[1]), hashMaps);
+        } else {
+            int personCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+            measure(personCount, hashMaps);
+        }
+    }
+
+    private static int friendCount(Random random, int id) {
+        return 1 + random.nextInt(id % 100 == 0 ? 2000 : 60);
+    }
+
+    /**
+     * Prints heap bytes taken by edges: the same graph without edges is subtracted
+     */
+    private static void measure(int personCount, boolean hashMaps) {
+        NewGraph graph = NewGraph.create();
+        for (int id = 1; id <= personCount; id++) {
+            graph.getOrCreateNode(id, new IntFunction<Node>() {
+                @Override
+                public Node apply(int id) {
+                    return new Person(true, 0);
+                }
+            });
+        }
+        long withoutEdges = usedHeap();
+        Friendship friendship = hashMaps ? new HashMapFriendship(graph) : new Friendship(graph);
+        Random random = new Random(1);
+        long edgeCount = 0;
+        for (int id = 1; id <= personCount; id++) {
+            Edges<Person, Person, NoData> friends = friendship.from((Person) graph.getNode(id));
+            int friendCount = friendCount(random, id);
+            for (int i = 0; i < friendCount; i++) {
+                friends.add(1 + random.nextInt(personCount), NoData.NO_DATA);
+            }
+            edgeCount += friends.count();
+        }
+        long withEdges = usedHeap();
+        print(hashMaps, withEdges - withoutEdges, edgeCount);
+    }
+
+    /**
+     * Prints heap bytes taken by maps with the friendships of the stored graph. Loaded nodes are not cached
+     * by the scan, so only the maps are retained.
+     */
+    private static void measure(Path graphDir, final boolean hashMaps)
+            throws IOException, DeserializationException {
+        try (ExistingGraph graph = ExistingGraph.openForReading(graphDir)) {
+            final Friendship friendship = new Friendship(graph);
+            // retains the maps
+            final NodeIdEdgeMap<?>[] maps = new NodeIdEdgeMap<?>[(int) graph.nodeCount()];
+            long withoutEdges = usedHeap();
+            final int[] mapCount = {0};
+            final long[] edgeCount = {0};
+            graph.forEachNode(new Consumer<Node>() {
+                @Override
+                public void accept(Node node) {
+                    if (!(node instanceof Person))
+                        return;
+                    Edges<Person, Person, NoData> friends = friendship.from((Person) node);
+                    int friendCount = friends.count();
+                    if (friendCount == 0)
+                        return;
+                    final NodeIdEdgeMap<NoData> map = hashMaps ?
+                            new NodeIdNoDataHashMap(friendCount) : new NodeIdNoDataArrayMap(friendCount);
+                    friends.forEachTarget(new IntConsumer() {
+                        @Override
+                        public void accept(int friendId) {
+                            map.justAddEdgeTo(friendId, NoData.NO_DATA);
+                        }
+                    });
+                    maps[mapCount[0]++] = map;
+                    edgeCount[0] += friendCount;
+                }
+            });
+            long withEdges = usedHeap();
+            print(hashMaps, withEdges - withoutEdges, edgeCount[0]);
+        }
+    }
+
+    private static void print(boolean hashMaps, long bytes, long edgeCount) {
+        System.out.printf("%s: %.1f bytes/edge, %d edges%n", hashMaps ? "hash maps" : "array maps",
+                (double) bytes / edgeCount, edgeCount);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
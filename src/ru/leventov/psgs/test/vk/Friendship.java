@@ -19,16 +19,22 @@ public class Friendship extends ArcModel<Person, Person, NoData> {
         return 0;
     }
 
+    @NotNull
+    @Override
+    protected AdjacencyEncoding adjacencyEncoding() {
+        return AdjacencyEncoding.DELTA_VARINT;
+    }
+
     @NotNull
     @Override
     protected NodeIdEdgeMap<NoData> newMap(int expectedSize) {
-        return new NodeIdNoDataHashMap(expectedSize);
+        return new NodeIdNoDataArrayMap(expectedSize);
     }
 
     @NotNull
     @Override
-    protected NodeIdEdgeMap<NoData> newMapForDeserialization(int size) {
-        return new NodeIdNoDataHashMap(size);
+    protected DeserializableNodeIdEdgeMap<NoData> newMapForDeserialization(int size) {
+        return new NodeIdNoDataArrayMap(size);
     }
 
     @Override
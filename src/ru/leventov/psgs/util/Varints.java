@@ -0,0 +1,44 @@
+package ru.leventov.psgs.util;
+
+import ru.leventov.psgs.io.DataInput;
+import ru.leventov.psgs.io.DataOutput;
+
+/**
+ * Variable-length encoding of unsigned ints: 7 bits per byte, lower groups first, the high bit is set
+ * in all bytes except the last. Values below 128 take 1 byte, any value takes at most 5 bytes.
+ */
+public final class Varints {
+
+    private Varints() {}
+
+    public static void writeUnsignedVarint(DataOutput out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @return the number of bytes, written by {@link #writeUnsignedVarint(DataOutput, int)} for the value
+     */
+    public static int unsignedVarintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    public static int readUnsignedVarint(DataInput in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new RuntimeException("Malformed varint");
+    }
+}